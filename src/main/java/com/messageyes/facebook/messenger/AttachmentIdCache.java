@@ -0,0 +1,100 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+
+/**
+ * Remembers the ids of images that Facebook saved as reusable attachments, so that an image sent
+ * to many users is fetched and processed by Facebook once per page instead of once per message.
+ * Set it on a {@link FacebookMessengerClientConfig} and image messages use it on their own.
+ *
+ * The first image message for a URL asks Facebook to save the attachment, and later messages send
+ * its id instead of the URL. Messages for a URL that is being saved wait for the id rather than
+ * saving it again; if saving fails, they send the URL, and the next message tries to save it
+ * again. Attachments belong to a page, so ids are cached per page access token.
+ *
+ * Ids are kept for ttlMillis, and once maximumSize ids are cached the least recently used go
+ * first. Keep ttlMillis well below how long Facebook keeps reusable attachments.
+ */
+public class AttachmentIdCache {
+
+    private final Cache<Key, CompletableFuture<String>> cache;
+
+    public AttachmentIdCache(long maximumSize, long ttlMillis) {
+        this(maximumSize, ttlMillis, Ticker.systemTicker());
+    }
+
+    AttachmentIdCache(long maximumSize, long ttlMillis, @NonNull Ticker ticker) {
+        checkArgument(maximumSize > 0, "maximumSize must be positive");
+        checkArgument(ttlMillis > 0, "ttlMillis must be positive");
+
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .ticker(ticker)
+            .build();
+    }
+
+    /**
+     * The id of the attachment saved from the URL, or null if there is none yet.
+     */
+    public String getAttachmentId(@NonNull String pageAccessToken, @NonNull String url) {
+        CompletableFuture<String> attachmentId = cache.getIfPresent(new Key(pageAccessToken, url));
+        return attachmentId == null ? null : attachmentId.getNow(null);
+    }
+
+    /**
+     * Forgets the attachment saved from the URL, e.g. because Facebook no longer accepts its id.
+     */
+    public void invalidate(@NonNull String pageAccessToken, @NonNull String url) {
+        cache.invalidate(new Key(pageAccessToken, url));
+    }
+
+    /**
+     * Ids cached or being saved.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Makes the caller responsible for saving the attachment, unless someone else already is.
+     *
+     * @param upload completed by the caller through {@link #complete} if it is responsible
+     * @return null if the caller is responsible, otherwise the id, which completes with null if
+     *         saving fails
+     */
+    CompletableFuture<String> claim(String pageAccessToken, String url, CompletableFuture<String> upload) {
+        return cache.asMap().putIfAbsent(new Key(pageAccessToken, url), upload);
+    }
+
+    /**
+     * @param attachmentId null if the attachment could not be saved
+     */
+    void complete(String pageAccessToken, String url, CompletableFuture<String> upload, String attachmentId) {
+        if (attachmentId == null) {
+            cache.asMap().remove(new Key(pageAccessToken, url), upload);
+        }
+        upload.complete(attachmentId);
+    }
+
+    @EqualsAndHashCode
+    private static class Key {
+        private final String pageAccessToken;
+        private final String url;
+
+        Key(String pageAccessToken, String url) {
+            this.pageAccessToken = pageAccessToken;
+            this.url = url;
+        }
+    }
+}
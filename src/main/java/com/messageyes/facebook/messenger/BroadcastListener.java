@@ -0,0 +1,19 @@
+package com.messageyes.facebook.messenger;
+
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+
+/**
+ * Receives the outcome of each recipient of a {@link Broadcaster#broadcast broadcast} as soon as it
+ * is known. Called on the threads of the {@link Broadcaster}, up to one call per thread at a time,
+ * so it must be thread-safe. It may block, but while it does its thread neither takes recipients
+ * nor reports outcomes, for this or any other broadcast of the same broadcaster.
+ */
+@FunctionalInterface
+public interface BroadcastListener {
+
+    /**
+     * @param response the response if the message was sent, or null if it failed
+     * @param error why the message could not be sent, or null if it was sent
+     */
+    void onOutcome(String recipientId, MessageResponse response, Throwable error);
+}
@@ -0,0 +1,307 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.messageyes.facebook.messenger.bean.BroadcastResult;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends the same {@link OutboundMessage} to many recipients of a page.
+ *
+ * The message is serialized once per broadcast. The request body of each recipient is made by
+ * copying that template around the recipient id, so a large generic template is not rebuilt and
+ * reserialized for every recipient.
+ *
+ * Recipients are taken from the given {@link Iterable} only as sends complete, so it can be
+ * backed by a database cursor or a file. They are taken, and the listener is called, on the
+ * threads of the broadcaster, never on an I/O dispatcher thread or a thread of the client, so a
+ * slow cursor or listener only holds up the broadcasts of its own broadcaster. At most
+ * maxInFlight messages of a broadcast are sent at a time. Sends use the same path as
+ * {@link FacebookMessengerClient#sendOutboundMessageAsync}, so the retry policy and circuit
+ * breakers of the client apply.
+ */
+@Slf4j
+public class Broadcaster implements Closeable {
+
+    /**
+     * Most threads a broadcaster starts when it is not told how many.
+     */
+    public static final int DEFAULT_MAX_THREADS = 8;
+
+    private static final ObjectWriter MESSAGE_WRITER = FacebookMessengerClient.OBJECT_MAPPER.writerFor(OutboundMessage.class);
+
+    private static final byte[] BODY_PREFIX = "{\"recipient\":{\"id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_PREFIX = "\"},\"message\":".getBytes(StandardCharsets.UTF_8);
+
+    private final FacebookMessengerClient client;
+    private final int maxInFlight;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Runs broadcasts on up to maxInFlight threads of its own, but no more than
+     * {@link #DEFAULT_MAX_THREADS}.
+     */
+    public Broadcaster(@NonNull FacebookMessengerClient client, int maxInFlight) {
+        this(client, maxInFlight, Math.min(maxInFlight, DEFAULT_MAX_THREADS));
+    }
+
+    /**
+     * Runs broadcasts on a pool of the given number of threads, which {@link #close()} shuts down.
+     * The threads are only kept while there is work for them.
+     */
+    public Broadcaster(@NonNull FacebookMessengerClient client, int maxInFlight, int threads) {
+        this(client, maxInFlight, newPool(threads), true);
+    }
+
+    /**
+     * Runs broadcasts on the given executor, which is left running by {@link #close()}.
+     */
+    public Broadcaster(@NonNull FacebookMessengerClient client, int maxInFlight, @NonNull Executor executor) {
+        this(client, maxInFlight, executor, false);
+    }
+
+    private Broadcaster(FacebookMessengerClient client, int maxInFlight, Executor executor, boolean owned) {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+    }
+
+    private static ExecutorService newPool(int threads) {
+        checkArgument(threads > 0, "threads must be positive");
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("facebook-messenger-broadcast-%d").build());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Same as {@link #broadcast(String, OutboundMessage, Iterable, BroadcastListener)} without
+     * reporting the outcome of each recipient.
+     */
+    public CompletableFuture<BroadcastResult> broadcast(@NonNull String pageAccessToken, @NonNull OutboundMessage message, @NonNull Iterable<String> recipientIds) {
+        return broadcast(pageAccessToken, message, recipientIds, (recipientId, response, error) -> { });
+    }
+
+    /**
+     * Sends the message to every recipient. The listener is told the outcome of each recipient as it
+     * becomes known, and the returned future completes with the totals once every send is done. A
+     * failed recipient does not stop the broadcast, but the future fails if iterating the recipients
+     * fails.
+     */
+    public CompletableFuture<BroadcastResult> broadcast(@NonNull String pageAccessToken, @NonNull OutboundMessage message, @NonNull Iterable<String> recipientIds,
+        @NonNull BroadcastListener listener) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+
+        return broadcast(client.pageToken(pageAccessToken), message, recipientIds, listener);
+    }
+
+    /**
+     * Same as {@link #broadcast(PageToken, OutboundMessage, Iterable, BroadcastListener)} without
+     * reporting the outcome of each recipient.
+     */
+    public CompletableFuture<BroadcastResult> broadcast(@NonNull PageToken pageToken, @NonNull OutboundMessage message, @NonNull Iterable<String> recipientIds) {
+        return broadcast(pageToken, message, recipientIds, (recipientId, response, error) -> { });
+    }
+
+    /**
+     * Broadcasts with a token handle from a {@link PageTokenRegistry}. The broadcaster should be
+     * built on the client of the page's shard, {@link PageTokenRegistry#getClient(PageToken)}.
+     *
+     * @see #broadcast(String, OutboundMessage, Iterable, BroadcastListener)
+     */
+    public CompletableFuture<BroadcastResult> broadcast(@NonNull PageToken pageToken, @NonNull OutboundMessage message, @NonNull Iterable<String> recipientIds,
+        @NonNull BroadcastListener listener) {
+        client.validate(message);
+
+        CompletableFuture<BroadcastResult> result = new CompletableFuture<>();
+        byte[] messageBody;
+        try {
+            messageBody = MESSAGE_WRITER.writeValueAsBytes(message);
+        } catch (IOException e) {
+            result.completeExceptionally(new FacebookMessengerSendException("Error serializing message", e));
+            return result;
+        }
+
+        Broadcast broadcast = new Broadcast(pageToken, messageBody, recipientIds.iterator(), listener, result);
+        broadcast.activeWorkers.set(maxInFlight);
+        for (int i = 0; i < maxInFlight; i++) {
+            execute(() -> work(broadcast));
+        }
+        return result;
+    }
+
+    /**
+     * Shuts down the pool if the broadcaster created it. Broadcasts that are still running finish on
+     * the threads that complete their sends.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * The request body for one recipient: the recipient id followed by the serialized message.
+     */
+    static byte[] buildBody(String recipientId, byte[] messageBody) {
+        byte[] id = JsonStringEncoder.getInstance().quoteAsUTF8(recipientId);
+        byte[] body = new byte[BODY_PREFIX.length + id.length + MESSAGE_PREFIX.length + messageBody.length + 1];
+        int position = 0;
+        System.arraycopy(BODY_PREFIX, 0, body, position, BODY_PREFIX.length);
+        position += BODY_PREFIX.length;
+        System.arraycopy(id, 0, body, position, id.length);
+        position += id.length;
+        System.arraycopy(MESSAGE_PREFIX, 0, body, position, MESSAGE_PREFIX.length);
+        position += MESSAGE_PREFIX.length;
+        System.arraycopy(messageBody, 0, body, position, messageBody.length);
+        body[body.length - 1] = '}';
+        return body;
+    }
+
+    /**
+     * Sends to one recipient after another until the recipients run out. Each broadcast runs
+     * maxInFlight of these. Sends that complete synchronously are handled in a loop rather than
+     * recursively so a long run of them cannot overflow the stack.
+     */
+    private void work(Broadcast broadcast) {
+        String recipientId;
+        while ((recipientId = broadcast.next()) != null) {
+            CompletableFuture<MessageResponse> future = send(broadcast, recipientId);
+
+            String current = recipientId;
+            if (!future.isDone()) {
+                // Not on the I/O dispatcher thread that completed the send, as the recipients may
+                // come from a slow cursor.
+                future.whenCompleteAsync((response, e) -> {
+                    broadcast.onOutcome(current, response, e);
+                    work(broadcast);
+                }, this::execute);
+                return;
+            }
+            future.whenComplete((response, e) -> broadcast.onOutcome(current, response, e));
+        }
+        broadcast.onWorkerDone();
+    }
+
+    /**
+     * Runs the task on the executor, or right away once it no longer accepts tasks, so that a
+     * broadcast always finishes.
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private CompletableFuture<MessageResponse> send(Broadcast broadcast, String recipientId) {
+        try {
+            checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
+            return client.sendMessageBodyAsync(broadcast.pageToken, buildBody(recipientId, broadcast.messageBody), recipientId);
+        } catch (RuntimeException e) {
+            CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private static class Broadcast {
+        private final PageToken pageToken;
+        private final byte[] messageBody;
+        private final Iterator<String> recipientIds;
+        private final BroadcastListener listener;
+        private final CompletableFuture<BroadcastResult> result;
+
+        private final AtomicInteger activeWorkers = new AtomicInteger();
+        private final AtomicLong sentCount = new AtomicLong();
+        private final AtomicLong failedCount = new AtomicLong();
+        private RuntimeException iterationError;
+
+        Broadcast(PageToken pageToken, byte[] messageBody, Iterator<String> recipientIds, BroadcastListener listener,
+            CompletableFuture<BroadcastResult> result) {
+            this.pageToken = pageToken;
+            this.messageBody = messageBody;
+            this.recipientIds = recipientIds;
+            this.listener = listener;
+            this.result = result;
+        }
+
+        /**
+         * The next recipient, or null once there are none left or iterating has failed. A null
+         * recipient id is returned as blank so it fails on its own.
+         */
+        synchronized String next() {
+            if (iterationError != null) {
+                return null;
+            }
+            try {
+                return recipientIds.hasNext() ? StringUtils.defaultString(recipientIds.next()) : null;
+            } catch (RuntimeException e) {
+                iterationError = e;
+                return null;
+            }
+        }
+
+        void onOutcome(String recipientId, MessageResponse response, Throwable error) {
+            if (error == null) {
+                sentCount.incrementAndGet();
+            } else {
+                failedCount.incrementAndGet();
+            }
+            try {
+                listener.onOutcome(recipientId, response, error);
+            } catch (RuntimeException e) {
+                log.error("Broadcast listener failed for recipient: {}", recipientId, e);
+            }
+        }
+
+        void onWorkerDone() {
+            if (activeWorkers.decrementAndGet() > 0) {
+                return;
+            }
+            RuntimeException error;
+            synchronized (this) {
+                error = iterationError;
+            }
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                BroadcastResult broadcastResult = new BroadcastResult();
+                broadcastResult.setSentCount(sentCount.get());
+                broadcastResult.setFailedCount(failedCount.get());
+                result.complete(broadcastResult);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.messageyes.facebook.messenger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A circuit breaker over a count based sliding window of call outcomes. Instances are created and
+ * looked up through a {@link CircuitBreakerRegistry}.
+ *
+ * While closed, every call is allowed and its outcome recorded. Once the window holds enough calls
+ * and the failure or slow call rate reaches its threshold, the breaker opens and rejects calls for
+ * openDurationMillis. It then turns half-open and lets a few trial calls through, closing again if
+ * they all succeed and re-opening on the first failure.
+ *
+ * An end point breaker is asked by every send of every page, so a closed breaker allows and records
+ * calls without taking its monitor, using atomic counters over the window. The monitor is only
+ * taken to change state and while the breaker is open or half-open.
+ *
+ * Every change of state starts a new generation, and a permission is the generation it was given
+ * in. Outcomes of calls allowed in an earlier generation are ignored, so a call allowed while closed
+ * that finishes late is never taken for a trial call.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Returned by {@link #tryAcquirePermission()} when the call must be rejected.
+     */
+    public static final long REJECTED = -1;
+
+    private static final int FAILED = 1;
+    private static final int SLOW = 2;
+
+    private final CircuitBreakerConfig config;
+    private final Ticker ticker;
+    /**
+     * The last call time is only written once it is this much out of date, so that busy breakers
+     * do not write it on every call.
+     */
+    private final long lastCallResolutionNanos;
+
+    /**
+     * Replaced when the breaker closes, so that calls recorded by a stale reader cannot leak into
+     * the new window.
+     */
+    private volatile Window window;
+
+    private volatile State state = State.CLOSED;
+    /**
+     * Only changed under the monitor, always before state. A permission is read before the state
+     * and an outcome is checked after it, so neither can mix up a closed and a half-open generation.
+     */
+    private volatile long generation;
+    private long openedAtNanos;
+    private int trialPermits;
+    private int trialSuccesses;
+    private volatile long lastCallNanos;
+
+    CircuitBreaker(CircuitBreakerConfig config, Ticker ticker) {
+        this.config = config;
+        this.ticker = ticker;
+        this.lastCallResolutionNanos = TimeUnit.MILLISECONDS.toNanos(config.getIdleMillis()) / 10;
+        this.window = new Window(config.getSlidingWindowSize());
+        this.lastCallNanos = ticker.read();
+    }
+
+    /**
+     * Returns the permission, or {@link #REJECTED} if the call must be rejected. Every allowed call
+     * must be followed by a call to {@link #onResult(long, boolean, boolean)} with its permission.
+     */
+    public long tryAcquirePermission() {
+        long now = ticker.read();
+        if (now - lastCallNanos >= lastCallResolutionNanos) {
+            lastCallNanos = now;
+        }
+        long permission = generation;
+        if (state == State.CLOSED) {
+            return permission;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (now - openedAtNanos < TimeUnit.MILLISECONDS.toNanos(config.getOpenDurationMillis())) {
+                    return REJECTED;
+                }
+                trialPermits = config.getHalfOpenTrialCalls();
+                trialSuccesses = 0;
+                changeState(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialPermits == 0) {
+                    return REJECTED;
+                }
+                trialPermits--;
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * Gives back a permission for a call that ended up not being made.
+     */
+    public void releasePermission(long permission) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        synchronized (this) {
+            if (state == State.HALF_OPEN && permission == generation) {
+                trialPermits++;
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a call allowed with the permission.
+     */
+    public void onResult(long permission, boolean failed, boolean slow) {
+        State current = state;
+        if (permission != generation) {
+            // Allowed before the breaker last changed state; it says nothing about the current one.
+            return;
+        }
+        if (current == State.CLOSED) {
+            Window currentWindow = window;
+            currentWindow.record((failed ? FAILED : 0) | (slow ? SLOW : 0));
+            if (currentWindow.exceedsThresholds()) {
+                synchronized (this) {
+                    if (state == State.CLOSED && window == currentWindow) {
+                        open();
+                    }
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (permission != generation || state != State.HALF_OPEN) {
+                return;
+            }
+            if (failed || slow) {
+                open();
+            } else if (++trialSuccesses >= config.getHalfOpenTrialCalls()) {
+                close();
+            }
+        }
+    }
+
+    public State getState() {
+        State current = state;
+        if (current == State.OPEN) {
+            synchronized (this) {
+                if (state == State.OPEN && ticker.read() - openedAtNanos >= TimeUnit.MILLISECONDS.toNanos(config.getOpenDurationMillis())) {
+                    // Reported as half-open although the transition only happens on the next call.
+                    return State.HALF_OPEN;
+                }
+                return state;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Share of failed calls in the current window.
+     */
+    public double getFailureRate() {
+        Window current = window;
+        int calls = current.getCalls();
+        return calls == 0 ? 0 : (double) current.failedCalls.get() / calls;
+    }
+
+    /**
+     * Share of slow calls in the current window.
+     */
+    public double getSlowCallRate() {
+        Window current = window;
+        int calls = current.getCalls();
+        return calls == 0 ? 0 : (double) current.slowCalls.get() / calls;
+    }
+
+    /**
+     * Whether no call has been asked for in idleMillis and the breaker is not open, so that it can
+     * be dropped without rejecting calls it would have rejected.
+     */
+    boolean isIdle() {
+        return ticker.read() - lastCallNanos >= TimeUnit.MILLISECONDS.toNanos(config.getIdleMillis()) && getState() != State.OPEN;
+    }
+
+    private void open() {
+        openedAtNanos = ticker.read();
+        changeState(State.OPEN);
+    }
+
+    private void close() {
+        window = new Window(config.getSlidingWindowSize());
+        changeState(State.CLOSED);
+    }
+
+    private void changeState(State newState) {
+        generation++;
+        state = newState;
+    }
+
+    /**
+     * The outcomes of the most recent calls in a ring, with running counts of the failed and slow
+     * ones. Concurrent calls claim their slot with a single increment, and swapping the outcome into
+     * the slot tells each of them exactly what to take off the counts.
+     */
+    private class Window {
+        private final AtomicIntegerArray outcomes;
+        private final AtomicLong recordedCalls = new AtomicLong();
+        private final AtomicInteger failedCalls = new AtomicInteger();
+        private final AtomicInteger slowCalls = new AtomicInteger();
+
+        Window(int size) {
+            this.outcomes = new AtomicIntegerArray(size);
+        }
+
+        void record(int outcome) {
+            long call = recordedCalls.getAndIncrement();
+            int evicted = outcomes.getAndSet((int) (call % outcomes.length()), outcome);
+            int failedDelta = (outcome & FAILED) - (evicted & FAILED);
+            if (failedDelta != 0) {
+                failedCalls.addAndGet(failedDelta);
+            }
+            int slowDelta = ((outcome & SLOW) - (evicted & SLOW)) >> 1;
+            if (slowDelta != 0) {
+                slowCalls.addAndGet(slowDelta);
+            }
+        }
+
+        int getCalls() {
+            return (int) Math.min(recordedCalls.get(), outcomes.length());
+        }
+
+        boolean exceedsThresholds() {
+            int calls = getCalls();
+            return calls >= config.getMinimumCalls() &&
+                (failedCalls.get() >= config.getFailureRateThreshold() * calls ||
+                 slowCalls.get() >= config.getSlowCallRateThreshold() * calls);
+        }
+    }
+}
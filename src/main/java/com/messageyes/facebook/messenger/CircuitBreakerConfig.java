@@ -0,0 +1,53 @@
+package com.messageyes.facebook.messenger;
+
+import lombok.Data;
+
+/**
+ * Thresholds for the circuit breakers of a {@link CircuitBreakerRegistry}. The same settings apply
+ * to every page and end point.
+ */
+@Data
+public class CircuitBreakerConfig {
+    /**
+     * Number of most recent calls the failure and slow call rates are computed over.
+     */
+    private int slidingWindowSize = 50;
+
+    /**
+     * The breaker does not open before the window holds at least this many calls.
+     */
+    private int minimumCalls = 20;
+
+    /**
+     * Share of failed calls in the window, between 0 and 1, at which the breaker opens.
+     */
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * Share of slow calls in the window, between 0 and 1, at which the breaker opens. Only applies to
+     * end point breakers.
+     */
+    private double slowCallRateThreshold = 0.8;
+
+    /**
+     * Calls that take longer than this are slow.
+     */
+    private long slowCallDurationMillis = 10000;
+
+    /**
+     * How long an open breaker rejects calls before letting trial calls through.
+     */
+    private long openDurationMillis = 30000;
+
+    /**
+     * Number of trial calls let through while half-open. The breaker closes when all of them succeed
+     * and opens again as soon as one fails.
+     */
+    private int halfOpenTrialCalls = 3;
+
+    /**
+     * Breakers that have not been asked for a call for this long, and are not open, are dropped by
+     * {@link CircuitBreakerRegistry#evictIdle()}.
+     */
+    private long idleMillis = 600000;
+}
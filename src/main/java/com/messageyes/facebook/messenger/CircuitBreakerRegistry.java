@@ -0,0 +1,205 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.messageyes.facebook.messenger.CircuitBreaker.State;
+import com.messageyes.facebook.messenger.bean.CircuitOpenException;
+
+import lombok.NonNull;
+
+/**
+ * Circuit breakers for the pages and end points a {@link FacebookMessengerClient} sends to. Set it on
+ * {@link FacebookMessengerClientConfig} and every send attempt first asks both the breaker of its
+ * end point and the breaker of its page for permission, failing fast with a
+ * {@link CircuitOpenException} while either is open.
+ *
+ * End point breakers count transport failures, 5xx responses and temporary Graph API errors, and
+ * also open when calls get slow. Page breakers count the Graph API errors that concern the page as
+ * a whole, e.g. an invalid token, missing permissions, a blocked page or page level rate limiting.
+ * Errors that concern a single recipient do not count against the page.
+ *
+ * Use {@link #getPageStates()} and {@link #getEndPointStates()} to see which breakers are not closed.
+ * Pages are listed by {@link #getPageKey(String)}, so that monitoring never sees an access token.
+ *
+ * Breakers are kept for every page and end point used, including tokens that have since been
+ * replaced, until {@link #evictIdle()} drops the idle ones. Call it periodically.
+ */
+public class CircuitBreakerRegistry {
+
+    /**
+     * 4, 17, 32 and 613 are rate limits, 190 an invalid or expired token, 200 and 230 missing
+     * permissions and 368 a page blocked for policy reasons.
+     */
+    public static final Set<Long> DEFAULT_PAGE_ERROR_CODES = ImmutableSet.of(4L, 17L, 32L, 190L, 200L, 230L, 368L, 613L);
+
+    /**
+     * 1 and 2 are temporary API issues and 1200 is a temporary send message failure.
+     */
+    public static final Set<Long> DEFAULT_END_POINT_ERROR_CODES = ImmutableSet.of(1L, 2L, 1200L);
+
+    private final CircuitBreakerConfig config;
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, CircuitBreaker> pageBreakers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CircuitBreaker> endPointBreakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry() {
+        this(new CircuitBreakerConfig());
+    }
+
+    public CircuitBreakerRegistry(@NonNull CircuitBreakerConfig config) {
+        this(config, Ticker.systemTicker());
+    }
+
+    CircuitBreakerRegistry(@NonNull CircuitBreakerConfig config, @NonNull Ticker ticker) {
+        checkArgument(config.getSlidingWindowSize() > 0, "slidingWindowSize must be positive");
+        checkArgument(config.getHalfOpenTrialCalls() > 0, "halfOpenTrialCalls must be positive");
+
+        this.config = config;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Throws a {@link CircuitOpenException} if the call must not be made. Otherwise the call has to
+     * be reported with {@link #onResult(Permit, long, Throwable)}.
+     */
+    public Permit acquirePermission(@NonNull String endPoint, @NonNull String pageAccessToken) throws CircuitOpenException {
+        CircuitBreaker endPointBreaker = endPointBreakers.computeIfAbsent(endPoint, this::newBreaker);
+        long endPointPermission = endPointBreaker.tryAcquirePermission();
+        if (endPointPermission == CircuitBreaker.REJECTED) {
+            throw new CircuitOpenException("Circuit breaker for end point " + endPoint + " is open");
+        }
+        CircuitBreaker pageBreaker = pageBreakers.computeIfAbsent(pageAccessToken, this::newBreaker);
+        long pagePermission = pageBreaker.tryAcquirePermission();
+        if (pagePermission == CircuitBreaker.REJECTED) {
+            endPointBreaker.releasePermission(endPointPermission);
+            throw new CircuitOpenException("Circuit breaker for page is open");
+        }
+        return new Permit(endPointBreaker, endPointPermission, pageBreaker, pagePermission);
+    }
+
+    /**
+     * Records the outcome of a permitted call.
+     *
+     * @param error why the call failed, or null if it succeeded
+     */
+    public void onResult(@NonNull Permit permit, long durationNanos, Throwable error) {
+        boolean slow = durationNanos > TimeUnit.MILLISECONDS.toNanos(config.getSlowCallDurationMillis());
+
+        permit.endPointBreaker.onResult(permit.endPointPermission, error != null && isEndPointFailure(error), slow);
+        permit.pageBreaker.onResult(permit.pagePermission, error != null && isPageFailure(error), false);
+    }
+
+    /**
+     * The breakers of pages that are open or half-open, keyed by {@link #getPageKey(String)}.
+     */
+    public Map<String, State> getPageStates() {
+        return getStates(pageBreakers, CircuitBreakerRegistry::getPageKey);
+    }
+
+    /**
+     * The breakers of end points that are open or half-open, keyed by end point.
+     */
+    public Map<String, State> getEndPointStates() {
+        return getStates(endPointBreakers, Function.identity());
+    }
+
+    /**
+     * Drops the breakers that no call has asked for in idleMillis, unless they are open.
+     */
+    public void evictIdle() {
+        evictIdle(pageBreakers);
+        evictIdle(endPointBreakers);
+    }
+
+    /**
+     * Identifies a page in {@link #getPageStates()} without revealing its token: the first 16 hex
+     * digits of the token's SHA-256 digest.
+     */
+    public static String getPageKey(@NonNull String pageAccessToken) {
+        return Hashing.sha256().hashString(pageAccessToken, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    /**
+     * The breaker of the page, or null if nothing has been sent for it yet.
+     */
+    public CircuitBreaker getPageBreaker(@NonNull String pageAccessToken) {
+        return pageBreakers.get(pageAccessToken);
+    }
+
+    /**
+     * The breaker of the end point, or null if nothing has been sent to it yet.
+     */
+    public CircuitBreaker getEndPointBreaker(@NonNull String endPoint) {
+        return endPointBreakers.get(endPoint);
+    }
+
+    /**
+     * Whether the failure counts against the end point. Override to change which errors count.
+     */
+    protected boolean isEndPointFailure(Throwable error) {
+        Long errorCode = SendFailures.getErrorCode(error);
+        return errorCode != null ? DEFAULT_END_POINT_ERROR_CODES.contains(errorCode) : SendFailures.isTransientTransportFailure(error);
+    }
+
+    /**
+     * Whether the failure counts against the page. Override to change which errors count.
+     */
+    protected boolean isPageFailure(Throwable error) {
+        Long errorCode = SendFailures.getErrorCode(error);
+        return errorCode != null && DEFAULT_PAGE_ERROR_CODES.contains(errorCode);
+    }
+
+    private CircuitBreaker newBreaker(String key) {
+        return new CircuitBreaker(config, ticker);
+    }
+
+    private static Map<String, State> getStates(Map<String, CircuitBreaker> breakers, Function<String, String> publishedKey) {
+        Map<String, State> states = new HashMap<>();
+        breakers.forEach((key, breaker) -> {
+            State state = breaker.getState();
+            if (state != State.CLOSED) {
+                states.put(publishedKey.apply(key), state);
+            }
+        });
+        return states;
+    }
+
+    private static void evictIdle(ConcurrentMap<String, CircuitBreaker> breakers) {
+        breakers.forEach((key, breaker) -> {
+            if (breaker.isIdle()) {
+                breakers.remove(key, breaker);
+            }
+        });
+    }
+
+    /**
+     * The permissions of the end point and page breakers for one call, so that its outcome is only
+     * counted in the state of each breaker it was allowed in.
+     */
+    public static final class Permit {
+        private final CircuitBreaker endPointBreaker;
+        private final long endPointPermission;
+        private final CircuitBreaker pageBreaker;
+        private final long pagePermission;
+
+        private Permit(CircuitBreaker endPointBreaker, long endPointPermission, CircuitBreaker pageBreaker, long pagePermission) {
+            this.endPointBreaker = endPointBreaker;
+            this.endPointPermission = endPointPermission;
+            this.pageBreaker = pageBreaker;
+            this.pagePermission = pagePermission;
+        }
+    }
+}
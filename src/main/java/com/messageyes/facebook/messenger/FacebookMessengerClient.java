@@ -1,48 +1,107 @@
 package com.messageyes.facebook.messenger;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.HmacUtils;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.net.UrlEscapers;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.messageyes.facebook.messenger.bean.Attachment;
+import com.messageyes.facebook.messenger.bean.BatchRequest;
+import com.messageyes.facebook.messenger.bean.BatchResponse;
 import com.messageyes.facebook.messenger.bean.Callback;
+import com.messageyes.facebook.messenger.bean.CircuitOpenException;
 import com.messageyes.facebook.messenger.bean.Element;
 import com.messageyes.facebook.messenger.bean.ErrorResponse;
 import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
 import com.messageyes.facebook.messenger.bean.MessageRequest;
 import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.Messaging;
 import com.messageyes.facebook.messenger.bean.OutboundMessage;
 import com.messageyes.facebook.messenger.bean.OutboundPayload;
 import com.messageyes.facebook.messenger.bean.QuickReply;
 import com.messageyes.facebook.messenger.bean.User;
+import com.messageyes.facebook.messenger.bean.UserProfile;
+import com.messageyes.facebook.messenger.id.Ids;
+import com.messageyes.facebook.messenger.webhook.CallbackIngester;
+import com.messageyes.facebook.messenger.webhook.CallbackParser;
+import com.messageyes.facebook.messenger.webhook.IngestResult;
+import com.messageyes.facebook.messenger.webhook.LazyMessaging;
+import com.messageyes.facebook.messenger.webhook.RawEvent;
+import com.messageyes.facebook.messenger.webhook.RawEventScanner;
+import com.messageyes.facebook.messenger.webhook.SignatureVerifier;
 
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * A client for interacting with the Facebook Messenger API. Multiple pages can be supported as the
  * page access token is a parameter for methods that make API calls.
+ *
+ * The client is thread-safe and holds a pool of keep-alive connections to the Graph API, so a single
+ * long-lived instance should be shared and {@link #close()} called when it is no longer needed.
  */
-@RequiredArgsConstructor
 @Slf4j
-public class FacebookMessengerClient {
+public class FacebookMessengerClient implements Closeable {
 
     protected static final String DEFAULT_FACEBOOK_MESSAGE_ENDPOINT = "https://graph.facebook.com/v2.6/me/messages?access_token=";
     protected static final Integer DEFAULT_REQUEST_TIMEOUT = 30000;
@@ -54,18 +113,69 @@ public class FacebookMessengerClient {
 
     private static final String PAYLOAD_TEMPLATE_TYPE_GENERIC = "generic";
 
-    private static final int MAX_GENERIC_MESSAGE_TITLE_LENGTH = 80;
-    private static final int MAX_GENERIC_MESSAGE_SUBTITLE_LENGTH = 80;
+    private static final String USER_PROFILE_FIELDS = "first_name,last_name,profile_pic,locale,timezone,gender";
+
+    /**
+     * The Graph API accepts at most this many operations in a single batch request.
+     */
+    public static final int MAX_BATCH_SIZE = 50;
 
     protected static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
-    @NonNull
-    private String facebookMessageEndPoint;
+    /**
+     * Resolved once for all sends. It leaves the target stream open so it can write straight into
+     * the connection.
+     */
+    private static final ObjectWriter MESSAGE_REQUEST_WRITER = OBJECT_MAPPER.writerFor(MessageRequest.class)
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final CallbackParser CALLBACK_PARSER = new CallbackParser();
+    private static final RawEventScanner RAW_EVENT_SCANNER = new RawEventScanner();
+
+    private static final TypeReference<List<BatchResponse>> BATCH_RESPONSE_TYPE = new TypeReference<List<BatchResponse>>() { };
+
+    private final String facebookMessageEndPoint;
     /**
      * Timeout in milliseconds for requests sent to the Facebook Message endpoint.
      */
-    @NonNull
-    private Integer requestTimeout;
+    private final Integer requestTimeout;
+
+    private final FacebookMessengerClientConfig config;
+
+    /**
+     * Batch requests are sent to the root of the Graph API host with the message end point as the
+     * relative URL of each operation. Both are derived from facebookMessageEndPoint.
+     */
+    private final String batchEndPoint;
+    private final String batchRelativeUrl;
+
+    /**
+     * User profiles are read from the Graph API version of facebookMessageEndPoint, e.g.
+     * https://graph.facebook.com/v2.6/ followed by the user id.
+     */
+    private final String userProfileEndPoint;
+
+    private final CloseableHttpClient httpClient;
+
+    private final ConcurrentMap<String, SignatureVerifier> signatureVerifiers = new ConcurrentHashMap<>();
+
+    private volatile CloseableHttpAsyncClient asyncHttpClient;
+    /**
+     * Runs retry backoffs, attempt deadlines and connection eviction for the non-blocking engine.
+     */
+    private volatile ScheduledExecutorService timer;
+    /**
+     * Starts the image messages that waited for an attachment id, so that a popular image does not
+     * hold up the I/O dispatcher thread that saved it. Nothing else runs here, in particular no
+     * broadcast cursor or listener, so the hand-off never waits behind user code.
+     */
+    private volatile ExecutorService dispatcher;
+    /**
+     * Async sends waiting out a retry backoff on the timer, with the error of their last attempt.
+     * They are failed by {@link #close()}, which drops the scheduled retries.
+     */
+    private final ConcurrentMap<CompletableFuture<MessageResponse>, Throwable> pendingRetries = new ConcurrentHashMap<>();
+    private boolean closed;
 
     /**
      * This constructor makes use of the DEFAULT_FACEBOOK_MESSAGE_ENDPOINT
@@ -74,6 +184,51 @@ public class FacebookMessengerClient {
         this(DEFAULT_FACEBOOK_MESSAGE_ENDPOINT, DEFAULT_REQUEST_TIMEOUT);
     }
 
+    public FacebookMessengerClient(@NonNull String facebookMessageEndPoint, @NonNull Integer requestTimeout) {
+        this(facebookMessageEndPoint, requestTimeout, new FacebookMessengerClientConfig());
+    }
+
+    public FacebookMessengerClient(@NonNull String facebookMessageEndPoint, @NonNull Integer requestTimeout, @NonNull FacebookMessengerClientConfig config) {
+        this.facebookMessageEndPoint = facebookMessageEndPoint;
+        this.requestTimeout = requestTimeout;
+        this.config = config;
+
+        URI endPointURI = URI.create(facebookMessageEndPoint);
+        this.batchEndPoint = endPointURI.getScheme() + "://" + endPointURI.getRawAuthority() + "/";
+        this.batchRelativeUrl = StringUtils.removeStart(endPointURI.getRawPath(), "/");
+        String path = endPointURI.getRawPath();
+        int me = path.lastIndexOf("/me/");
+        this.userProfileEndPoint = batchEndPoint + (me > 0 ? path.substring(1, me + 1) : "");
+        checkArgument(config.getDispatcherThreadCount() > 0, "dispatcherThreadCount must be positive");
+
+        this.httpClient = buildHttpClient();
+    }
+
+    /**
+     * Closes the pooled connections, the non-blocking engine if it was started and the background
+     * threads. The client cannot be used to send messages afterwards, and asynchronous sends that
+     * are waiting to be retried fail with a {@link FacebookMessengerSendException}.
+     */
+    @Override
+    public void close() {
+        HttpClientUtils.closeQuietly(httpClient);
+        synchronized (this) {
+            closed = true;
+            IOUtils.closeQuietly(asyncHttpClient);
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+        }
+        pendingRetries.forEach((future, lastError) -> {
+            if (pendingRetries.remove(future, lastError)) {
+                future.completeExceptionally(new FacebookMessengerSendException("The client was closed while waiting to retry", lastError));
+            }
+        });
+    }
+
     public Callback deserializeCallback(@NonNull String callbackJSON) {
         checkArgument(StringUtils.isNotBlank(callbackJSON), "callbackJSON cannot be blank");
 
@@ -93,6 +248,100 @@ public class FacebookMessengerClient {
         return null;
     }
 
+    /**
+     * Passes every {@link Messaging} event of the callback to the consumer as soon as it has been
+     * read, without building the whole {@link Callback}. See {@link CallbackParser}.
+     *
+     * @return false if the callback is not a page object or cannot be read
+     */
+    public boolean deserializeCallback(@NonNull InputStream callbackJSON, @NonNull Consumer<Messaging> consumer) {
+        try {
+            return checkPageObject(CALLBACK_PARSER.parse(callbackJSON, consumer));
+        } catch (IOException e) {
+            log.error("Error deserializing callback JSON", e);
+            return false;
+        }
+    }
+
+    /**
+     * @see #deserializeCallback(InputStream, Consumer)
+     */
+    public boolean deserializeCallback(@NonNull byte[] callbackJSON, @NonNull Consumer<Messaging> consumer) {
+        try {
+            return checkPageObject(CALLBACK_PARSER.parse(callbackJSON, consumer));
+        } catch (IOException e) {
+            log.error("Error deserializing callback JSON", e);
+            return false;
+        }
+    }
+
+    /**
+     * @see #deserializeCallback(InputStream, Consumer)
+     */
+    public boolean deserializeCallback(@NonNull ByteBuffer callbackJSON, @NonNull Consumer<Messaging> consumer) {
+        try {
+            return checkPageObject(CALLBACK_PARSER.parse(callbackJSON, consumer));
+        } catch (IOException e) {
+            log.error("Error deserializing callback JSON", e);
+            return false;
+        }
+    }
+
+    /**
+     * Passes every event of the callback to the consumer as a {@link LazyMessaging}, which only
+     * deserializes the message, postback or other nested object when it is asked for.
+     *
+     * @return false if the callback is not a page object or cannot be read
+     */
+    public boolean deserializeCallbackLazily(@NonNull byte[] callbackJSON, @NonNull Consumer<LazyMessaging> consumer) {
+        try {
+            return checkPageObject(RAW_EVENT_SCANNER.scanLazily(callbackJSON, consumer));
+        } catch (IOException e) {
+            log.error("Error deserializing callback JSON", e);
+            return false;
+        }
+    }
+
+    /**
+     * Passes every event of the callback to the consumer as the original JSON bytes, without
+     * building any beans, e.g. to forward the events as they are. See {@link RawEventScanner}.
+     *
+     * @return false if the callback is not a page object or cannot be read
+     */
+    public boolean scanCallback(@NonNull byte[] callbackJSON, @NonNull Consumer<RawEvent> consumer) {
+        try {
+            return checkPageObject(RAW_EVENT_SCANNER.scan(callbackJSON, consumer));
+        } catch (IOException e) {
+            log.error("Error scanning callback JSON", e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks the signature of a webhook request and parses its body in a single pass over the
+     * stream. The events are only passed to the consumer if the signature matches. See
+     * {@link CallbackIngester}.
+     *
+     * @throws IOException if the body cannot be read, or is correctly signed but not valid JSON
+     */
+    public IngestResult ingestCallback(@NonNull String appSecretKey, @NonNull String signature, @NonNull InputStream requestBody,
+        @NonNull Consumer<Messaging> consumer) throws IOException {
+        checkArgument(StringUtils.isNotBlank(signature), "signature cannot be blank");
+
+        IngestResult result = new CallbackIngester(getSignatureVerifier(appSecretKey), CALLBACK_PARSER).ingest(signature, requestBody, consumer);
+        if (result != IngestResult.ACCEPTED) {
+            log.error("Rejected webhook callback: {}", result);
+        }
+        return result;
+    }
+
+    private static boolean checkPageObject(boolean pageObject) {
+        if (!pageObject) {
+            log.error("The callback JSON is not a page object");
+        }
+        return pageObject;
+    }
+
     /**
      * Validates the provided signature by comparing it to a HmacSHA1 encoded string generated using the
      * provided request body and app secret key.
@@ -100,16 +349,32 @@ public class FacebookMessengerClient {
      * https://developers.facebook.com/docs/messenger-platform/webhook-reference#security
      */
     public boolean isValidRequest(@NonNull String appSecretKey, @NonNull String signature, @NonNull String requestBody) {
-        checkArgument(StringUtils.isNotBlank(appSecretKey), "appSecretKey cannot be blank");
+        return isValidRequest(appSecretKey, signature, requestBody.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Same as {@link #isValidRequest(String, String, String)} on the raw request body. Verifiers are
+     * cached per app secret; see {@link SignatureVerifier}.
+     */
+    public boolean isValidRequest(@NonNull String appSecretKey, @NonNull String signature, @NonNull byte[] requestBody) {
         checkArgument(StringUtils.isNotBlank(signature), "signature cannot be blank");
 
-        try {
-            byte[] sha1 = HmacUtils.hmacSha1(appSecretKey.getBytes(StandardCharsets.UTF_8), requestBody.getBytes(StandardCharsets.UTF_8));
-            return StringUtils.equals("sha1=" + Hex.encodeHexString(sha1), signature);
-        } catch (Exception e) {
-            log.error("Failed to generate hex encoded HmacSHA1 for requestBody {}", requestBody, e);
-            return false;
-        }
+        return getSignatureVerifier(appSecretKey).isValid(signature, requestBody);
+    }
+
+    /**
+     * @see #isValidRequest(String, String, byte[])
+     */
+    public boolean isValidRequest(@NonNull String appSecretKey, @NonNull String signature, @NonNull ByteBuffer requestBody) {
+        checkArgument(StringUtils.isNotBlank(signature), "signature cannot be blank");
+
+        return getSignatureVerifier(appSecretKey).isValid(signature, requestBody);
+    }
+
+    private SignatureVerifier getSignatureVerifier(String appSecretKey) {
+        checkArgument(StringUtils.isNotBlank(appSecretKey), "appSecretKey cannot be blank");
+
+        return signatureVerifiers.computeIfAbsent(appSecretKey, SignatureVerifier::new);
     }
 
     /**
@@ -119,18 +384,429 @@ public class FacebookMessengerClient {
      * https://developers.facebook.com/docs/messenger-platform/send-api-reference/generic-template
      */
     public MessageResponse sendGenericMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull List<Element> elements, List<QuickReply> quickReplies) throws FacebookMessengerSendException {
+        return sendOutboundMessage(pageAccessToken, recipientId, buildGenericMessage(elements, quickReplies));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendGenericMessage(String, String, List, List)}.
+     */
+    public CompletableFuture<MessageResponse> sendGenericMessageAsync(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull List<Element> elements, List<QuickReply> quickReplies) {
+        return sendOutboundMessageAsync(pageAccessToken, recipientId, buildGenericMessage(elements, quickReplies));
+    }
+
+    /**
+     * @see #sendGenericMessage(String, String, List, List)
+     * @see #sendOutboundMessage(PageToken, String, OutboundMessage)
+     */
+    public MessageResponse sendGenericMessage(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull List<Element> elements, List<QuickReply> quickReplies) throws FacebookMessengerSendException {
+        return sendOutboundMessage(pageToken, recipientId, buildGenericMessage(elements, quickReplies));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendGenericMessage(PageToken, String, List, List)}.
+     */
+    public CompletableFuture<MessageResponse> sendGenericMessageAsync(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull List<Element> elements, List<QuickReply> quickReplies) {
+        return sendOutboundMessageAsync(pageToken, recipientId, buildGenericMessage(elements, quickReplies));
+    }
+
+    /**
+     * Sends an image attachment to the given recipient. With an {@link AttachmentIdCache} configured,
+     * the image is saved as a reusable attachment the first time and sent by id afterwards.
+     *
+     * https://developers.facebook.com/docs/messenger-platform/send-api-reference/image-attachment
+     */
+    public MessageResponse sendImageMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull String imageURL) throws FacebookMessengerSendException {
         checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
-        checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
-        checkArgument(CollectionUtils.isNotEmpty(elements), "elements cannot be empty");
 
-        checkArgument(CollectionUtils.size(quickReplies) <= 10, "Facebook only supports 10 or fewer quick replies per message");
+        return sendImageMessage(pageToken(pageAccessToken), recipientId, imageURL);
+    }
+
+    /**
+     * Asynchronous version of {@link #sendImageMessage(String, String, String)}. Messages for an
+     * image that is being saved are sent once its id is known, from one of dispatcherThreadCount
+     * threads of the client. As on the I/O dispatcher threads, dependent stages that do not use the
+     * *Async variants may run there and must not block.
+     */
+    public CompletableFuture<MessageResponse> sendImageMessageAsync(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull String imageURL) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
 
-        for (Element element : elements) {
-            if (StringUtils.length(element.getTitle()) > MAX_GENERIC_MESSAGE_TITLE_LENGTH ||
-                StringUtils.length(element.getSubtitle()) > MAX_GENERIC_MESSAGE_SUBTITLE_LENGTH) {
-                log.warn("Element title or subtitle too long: {}", element);
+        return sendImageMessageAsync(pageToken(pageAccessToken), recipientId, imageURL);
+    }
+
+    /**
+     * @see #sendImageMessage(String, String, String)
+     * @see #sendOutboundMessage(PageToken, String, OutboundMessage)
+     */
+    public MessageResponse sendImageMessage(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull String imageURL) throws FacebookMessengerSendException {
+        AttachmentIdCache attachmentIds = config.getAttachmentIdCache();
+        if (attachmentIds == null) {
+            return sendOutboundMessage(pageToken, recipientId, buildImageMessage(imageURL));
+        }
+
+        String pageAccessToken = pageToken.getAccessToken();
+        OutboundMessage reusableMessage = buildReusableImageMessage(imageURL);
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        CompletableFuture<String> attachmentId = attachmentIds.claim(pageAccessToken, imageURL, upload);
+        if (attachmentId == null) {
+            MessageResponse response = null;
+            try {
+                response = sendOutboundMessage(pageToken, recipientId, reusableMessage);
+                return response;
+            } finally {
+                attachmentIds.complete(pageAccessToken, imageURL, upload, response == null ? null : response.getAttachmentId());
+            }
+        }
+        return sendOutboundMessage(pageToken, recipientId, buildImageMessage(imageURL, attachmentId.join()));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendImageMessage(PageToken, String, String)}.
+     */
+    public CompletableFuture<MessageResponse> sendImageMessageAsync(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull String imageURL) {
+        AttachmentIdCache attachmentIds = config.getAttachmentIdCache();
+        if (attachmentIds == null) {
+            return sendOutboundMessageAsync(pageToken, recipientId, buildImageMessage(imageURL));
+        }
+
+        String pageAccessToken = pageToken.getAccessToken();
+        OutboundMessage reusableMessage = buildReusableImageMessage(imageURL);
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        CompletableFuture<String> attachmentId = attachmentIds.claim(pageAccessToken, imageURL, upload);
+        if (attachmentId == null) {
+            CompletableFuture<MessageResponse> future;
+            try {
+                future = sendOutboundMessageAsync(pageToken, recipientId, reusableMessage);
+            } catch (RuntimeException e) {
+                attachmentIds.complete(pageAccessToken, imageURL, upload, null);
+                throw e;
             }
+            return future.whenComplete((response, e) ->
+                attachmentIds.complete(pageAccessToken, imageURL, upload, response == null ? null : response.getAttachmentId()));
+        }
+        // The id may arrive on an I/O dispatcher thread, with many messages waiting for it.
+        return attachmentId.thenComposeAsync(id -> sendOutboundMessageAsync(pageToken, recipientId, buildImageMessage(imageURL, id)), this::dispatch);
+    }
+
+    /**
+     * Sends a text message to the given recipient.
+     *
+     * https://developers.facebook.com/docs/messenger-platform/send-api-reference/text-message
+     */
+    public MessageResponse sendTextMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull String messageText) throws FacebookMessengerSendException {
+        return sendOutboundMessage(pageAccessToken, recipientId, buildTextMessage(messageText));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendTextMessage(String, String, String)}.
+     */
+    public CompletableFuture<MessageResponse> sendTextMessageAsync(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull String messageText) {
+        return sendOutboundMessageAsync(pageAccessToken, recipientId, buildTextMessage(messageText));
+    }
+
+    /**
+     * @see #sendTextMessage(String, String, String)
+     * @see #sendOutboundMessage(PageToken, String, OutboundMessage)
+     */
+    public MessageResponse sendTextMessage(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull String messageText) throws FacebookMessengerSendException {
+        return sendOutboundMessage(pageToken, recipientId, buildTextMessage(messageText));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendTextMessage(PageToken, String, String)}.
+     */
+    public CompletableFuture<MessageResponse> sendTextMessageAsync(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull String messageText) {
+        return sendOutboundMessageAsync(pageToken, recipientId, buildTextMessage(messageText));
+    }
+
+    /**
+     * Sends a message to the given recipient. The {@link OutboundMessage} is only checked against
+     * the limits of the Send API, by the configured {@link OutboundMessageValidator}. It is up to the
+     * caller to ensure that the attributes set on the OutboundMessage otherwise represent a valid
+     * request payload that Facebook will accept.
+     */
+    public MessageResponse sendOutboundMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull OutboundMessage message) throws FacebookMessengerSendException {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+
+        return sendMessageRequest(pageToken(pageAccessToken), buildMessageRequest(recipientId, message));
+    }
+
+    /**
+     * Sends a message with a token handle from a {@link PageTokenRegistry}, which carries the
+     * validated token and the request URI, so nothing is concatenated or parsed per send. The
+     * registry must use the same end point as this client.
+     *
+     * @see #sendOutboundMessage(String, String, OutboundMessage)
+     */
+    public MessageResponse sendOutboundMessage(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull OutboundMessage message) throws FacebookMessengerSendException {
+        return sendMessageRequest(pageToken, buildMessageRequest(recipientId, message));
+    }
+
+    /**
+     * Sends a message to the given recipient without blocking the calling thread. The request is
+     * executed by a non-blocking I/O engine that is started the first time an asynchronous method is
+     * called, so a handful of threads can keep a large number of requests in flight.
+     *
+     * The returned future completes exceptionally with a {@link FacebookMessengerSendException} if the
+     * Facebook API rejects the message or the request fails. Dependent stages that do not use the
+     * *Async variants of {@link CompletableFuture} run on an I/O dispatcher thread and must not block.
+     */
+    public CompletableFuture<MessageResponse> sendOutboundMessageAsync(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull OutboundMessage message) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+
+        return sendMessageRequestAsync(pageToken(pageAccessToken), buildMessageRequest(recipientId, message));
+    }
+
+    /**
+     * Asynchronous version of {@link #sendOutboundMessage(PageToken, String, OutboundMessage)}.
+     */
+    public CompletableFuture<MessageResponse> sendOutboundMessageAsync(@NonNull PageToken pageToken, @NonNull String recipientId, @NonNull OutboundMessage message) {
+        return sendMessageRequestAsync(pageToken, buildMessageRequest(recipientId, message));
+    }
+
+    /**
+     * Looks up the public profile of a user who messaged the page, e.g. to greet them by name. Each
+     * call is a Graph API request; see {@link UserProfileCache} to avoid repeating them.
+     *
+     * https://developers.facebook.com/docs/messenger-platform/user-profile
+     *
+     * @throws IllegalArgumentException if the user id is not numeric
+     */
+    public UserProfile getUserProfile(@NonNull String pageAccessToken, @NonNull String userId) throws FacebookMessengerSendException {
+        HttpGet httpGet = new HttpGet(buildUserProfileURI(pageAccessToken, userId));
+        CloseableHttpResponse response = null;
+        try {
+            response = httpClient.execute(httpGet);
+            return readUserProfile(response);
+        } catch (IOException e) {
+            log.error("Error getting profile of user {}", userId, e);
+            throw new FacebookMessengerSendException("Error getting user profile", e);
+        } finally {
+            HttpClientUtils.closeQuietly(response);
         }
+    }
+
+    /**
+     * Asynchronous version of {@link #getUserProfile(String, String)}, on the same non-blocking
+     * engine as {@link #sendOutboundMessageAsync(String, String, OutboundMessage)}.
+     */
+    public CompletableFuture<UserProfile> getUserProfileAsync(@NonNull String pageAccessToken, @NonNull String userId) {
+        URI uri = buildUserProfileURI(pageAccessToken, userId);
+        CloseableHttpAsyncClient client = getAsyncHttpClient();
+
+        CompletableFuture<UserProfile> future = new CompletableFuture<>();
+        try {
+            client.execute(new HttpGet(uri), new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        future.complete(readUserProfile(response));
+                    } catch (FacebookMessengerSendException e) {
+                        future.completeExceptionally(e);
+                    } catch (IOException e) {
+                        log.error("Error reading profile of user {}", userId, e);
+                        future.completeExceptionally(new FacebookMessengerSendException("Error reading user profile", e));
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    log.error("Error getting profile of user {}", userId, e);
+                    future.completeExceptionally(new FacebookMessengerSendException("Error getting user profile", e));
+                }
+
+                @Override
+                public void cancelled() {
+                    future.completeExceptionally(new FacebookMessengerSendException("User profile request was cancelled", null));
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(new FacebookMessengerSendException("Error getting user profile", e));
+        }
+        return future;
+    }
+
+    private URI buildUserProfileURI(String pageAccessToken, String userId) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+        checkArgument(StringUtils.isNotBlank(userId), "userId cannot be blank");
+        // Anything else could change the path or query of the request.
+        checkArgument(Ids.parse(userId) != Ids.NO_ID, "userId must be a numeric id");
+
+        return URI.create(userProfileEndPoint + userId + "?fields=" + USER_PROFILE_FIELDS + "&access_token="
+            + UrlEscapers.urlFormParameterEscaper().escape(pageAccessToken));
+    }
+
+    private static UserProfile readUserProfile(HttpResponse response) throws IOException, FacebookMessengerSendException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode < 200 || statusCode >= 300) {
+            log.info("Failed to get user profile: {}", response);
+            throw readErrorResponse(response);
+        }
+        return OBJECT_MAPPER.readValue(response.getEntity().getContent(), UserProfile.class);
+    }
+
+    /**
+     * Sends up to {@link #MAX_BATCH_SIZE} message requests for a single page as one Graph API batch
+     * request. The returned futures correspond to the given requests by position and complete
+     * independently, so one failed message does not fail the rest of the batch.
+     *
+     * https://developers.facebook.com/docs/graph-api/making-multiple-requests
+     */
+    public List<CompletableFuture<MessageResponse>> sendMessageRequestBatchAsync(@NonNull String pageAccessToken, @NonNull List<MessageRequest> messageRequests) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+        checkArgument(CollectionUtils.isNotEmpty(messageRequests), "messageRequests cannot be empty");
+        checkArgument(messageRequests.size() <= MAX_BATCH_SIZE, "Facebook only supports " + MAX_BATCH_SIZE + " or fewer requests per batch");
+        for (MessageRequest messageRequest : messageRequests) {
+            if (messageRequest.getMessage() != null) {
+                validate(messageRequest.getMessage());
+            }
+        }
+        return sendValidatedBatchAsync(pageAccessToken, messageRequests);
+    }
+
+    /**
+     * Same as {@link #sendMessageRequestBatchAsync(String, List)} for requests made by
+     * {@link #buildMessageRequest(String, OutboundMessage)}, which have been validated already.
+     */
+    List<CompletableFuture<MessageResponse>> sendValidatedBatchAsync(String pageAccessToken, List<MessageRequest> messageRequests) {
+        List<CompletableFuture<MessageResponse>> futures = new ArrayList<>(messageRequests.size());
+        for (int i = 0; i < messageRequests.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+
+        HttpPost httpPost = new HttpPost(batchEndPoint);
+        try {
+            List<BatchRequest> batch = new ArrayList<>(messageRequests.size());
+            for (MessageRequest messageRequest : messageRequests) {
+                batch.add(buildBatchRequest(messageRequest));
+            }
+            httpPost.setEntity(new UrlEncodedFormEntity(Arrays.asList(
+                new BasicNameValuePair("access_token", pageAccessToken),
+                new BasicNameValuePair("include_headers", "false"),
+                new BasicNameValuePair("batch", OBJECT_MAPPER.writeValueAsString(batch))), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            failAll(futures, new FacebookMessengerSendException("Error serializing batch", e));
+            return futures;
+        }
+
+        CircuitBreakerRegistry circuitBreakers = config.getCircuitBreakers();
+        CircuitBreakerRegistry.Permit permit = null;
+        if (circuitBreakers != null) {
+            try {
+                permit = circuitBreakers.acquirePermission(batchEndPoint, pageAccessToken);
+            } catch (CircuitOpenException e) {
+                failAll(futures, e);
+                return futures;
+            }
+        }
+        long start = System.nanoTime();
+
+        try {
+            executeBatch(httpPost, messageRequests, futures, circuitBreakers, permit, start);
+        } catch (RuntimeException e) {
+            // E.g. the client was closed. The permission has to be given back all the same.
+            FacebookMessengerSendException error = new FacebookMessengerSendException("Error sending batch", e);
+            if (circuitBreakers != null) {
+                circuitBreakers.onResult(permit, System.nanoTime() - start, error);
+            }
+            failAll(futures, error);
+        }
+        return futures;
+    }
+
+    private void executeBatch(HttpPost httpPost, List<MessageRequest> messageRequests, List<CompletableFuture<MessageResponse>> futures,
+        CircuitBreakerRegistry circuitBreakers, CircuitBreakerRegistry.Permit permit, long start) {
+        getAsyncHttpClient().execute(httpPost, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                FacebookMessengerSendException error = null;
+                try {
+                    completeBatch(futures, response);
+                } catch (FacebookMessengerSendException e) {
+                    error = e;
+                } catch (IOException | RuntimeException e) {
+                    log.error("Error reading batch response for {} messageRequests", messageRequests.size(), e);
+                    error = new FacebookMessengerSendException("Error reading batch response", e);
+                }
+                onBatchResult(error);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                log.error("Error sending batch of {} messageRequests", messageRequests.size(), e);
+                onBatchResult(new FacebookMessengerSendException("Error sending batch", e));
+            }
+
+            private void onBatchResult(FacebookMessengerSendException error) {
+                if (circuitBreakers != null) {
+                    circuitBreakers.onResult(permit, System.nanoTime() - start, error);
+                }
+                if (error != null) {
+                    failAll(futures, error);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                onBatchResult(new FacebookMessengerSendException("Batch was cancelled", null));
+            }
+        });
+    }
+
+    private BatchRequest buildBatchRequest(MessageRequest messageRequest) throws IOException {
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.setMethod("POST");
+        batchRequest.setRelativeUrl(batchRelativeUrl);
+        batchRequest.setBody(URLEncodedUtils.format(Arrays.asList(
+            new BasicNameValuePair("recipient", OBJECT_MAPPER.writeValueAsString(messageRequest.getRecipient())),
+            new BasicNameValuePair("message", OBJECT_MAPPER.writeValueAsString(messageRequest.getMessage()))), StandardCharsets.UTF_8));
+        return batchRequest;
+    }
+
+    private void completeBatch(List<CompletableFuture<MessageResponse>> futures, HttpResponse response) throws IOException, FacebookMessengerSendException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode < 200 || statusCode >= 300) {
+            log.info("Failed to send batch response: {}", response);
+            throw readErrorResponse(response);
+        }
+
+        List<BatchResponse> batchResponses = OBJECT_MAPPER.readValue(response.getEntity().getContent(), BATCH_RESPONSE_TYPE);
+        for (int i = 0; i < futures.size(); i++) {
+            CompletableFuture<MessageResponse> future = futures.get(i);
+            // Operations that the Graph API did not get to in time are returned as null.
+            BatchResponse batchResponse = batchResponses != null && i < batchResponses.size() ? batchResponses.get(i) : null;
+            if (batchResponse == null || batchResponse.getCode() == null || batchResponse.getBody() == null) {
+                future.completeExceptionally(new FacebookMessengerSendException("Batch operation was not processed", null));
+            } else if (batchResponse.getCode() >= 200 && batchResponse.getCode() < 300) {
+                future.complete(OBJECT_MAPPER.readValue(batchResponse.getBody(), MessageResponse.class));
+            } else {
+                future.completeExceptionally(readBatchError(batchResponse));
+            }
+        }
+    }
+
+    /**
+     * The error of a failed batch operation, like {@link #readErrorResponse(HttpResponse)} does for
+     * a whole response.
+     */
+    private static FacebookMessengerSendException readBatchError(BatchResponse batchResponse) {
+        HttpResponseException statusException = new HttpResponseException(batchResponse.getCode(), "Batch operation failed");
+        try {
+            ErrorResponse errorResponse = OBJECT_MAPPER.readValue(batchResponse.getBody(), ErrorResponse.class);
+            if (errorResponse != null && errorResponse.getError() != null) {
+                return new FacebookMessengerSendException(errorResponse.getError());
+            }
+        } catch (IOException | RuntimeException e) {
+            statusException.addSuppressed(e);
+        }
+        return new FacebookMessengerSendException("Unexpected batch operation status " + batchResponse.getCode(), statusException);
+    }
+
+    private static void failAll(List<CompletableFuture<MessageResponse>> futures, Throwable e) {
+        futures.forEach(future -> future.completeExceptionally(e));
+    }
+
+    private OutboundMessage buildGenericMessage(@NonNull List<Element> elements, List<QuickReply> quickReplies) {
+        checkArgument(CollectionUtils.isNotEmpty(elements), "elements cannot be empty");
 
         Attachment attachment = new Attachment();
         OutboundPayload payload = new OutboundPayload();
@@ -144,98 +820,481 @@ public class FacebookMessengerClient {
         if (CollectionUtils.isNotEmpty(quickReplies)) {
             message.setQuickReplies(quickReplies);
         }
+        return message;
+    }
+
+    private OutboundMessage buildImageMessage(@NonNull String imageURL) {
+        checkArgument(StringUtils.isNotBlank(imageURL), "imageURL cannot be blank");
 
-        return sendOutboundMessage(pageAccessToken, recipientId, message);
+        OutboundPayload payload = new OutboundPayload();
+        payload.setUrl(imageURL);
+        return buildImageMessage(payload);
     }
 
-    /**
-     * Sends an image attachment to the given recipient.
-     *
-     * https://developers.facebook.com/docs/messenger-platform/send-api-reference/image-attachment
-     */
-    public MessageResponse sendImageMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull String imageURL) throws FacebookMessengerSendException {
-        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
-        checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
+    private OutboundMessage buildReusableImageMessage(@NonNull String imageURL) {
         checkArgument(StringUtils.isNotBlank(imageURL), "imageURL cannot be blank");
 
-        Attachment attachment = new Attachment();
         OutboundPayload payload = new OutboundPayload();
         payload.setUrl(imageURL);
+        payload.setReusable(true);
+        return buildImageMessage(payload);
+    }
+
+    /**
+     * Refers to the saved attachment, or falls back to the URL if it could not be saved.
+     */
+    private OutboundMessage buildImageMessage(String imageURL, String attachmentId) {
+        if (attachmentId == null) {
+            return buildImageMessage(imageURL);
+        }
+        OutboundPayload payload = new OutboundPayload();
+        payload.setAttachmentId(attachmentId);
+        return buildImageMessage(payload);
+    }
+
+    private static OutboundMessage buildImageMessage(OutboundPayload payload) {
+        Attachment attachment = new Attachment();
         attachment.setPayload(payload);
         attachment.setType(ATTACHMENT_TYPE_IMAGE);
 
         OutboundMessage message = new OutboundMessage();
         message.setAttachment(attachment);
-
-        return sendOutboundMessage(pageAccessToken, recipientId, message);
+        return message;
     }
 
-    /**
-     * Sends a text message to the given recipient.
-     *
-     * https://developers.facebook.com/docs/messenger-platform/send-api-reference/text-message
-     */
-    public MessageResponse sendTextMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull String messageText) throws FacebookMessengerSendException {
-        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
-        checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
+    private OutboundMessage buildTextMessage(@NonNull String messageText) {
         checkArgument(StringUtils.isNotBlank(messageText), "messageText cannot be blank");
 
         OutboundMessage message = new OutboundMessage();
         message.setText(messageText);
-
-        return sendOutboundMessage(pageAccessToken, recipientId, message);
+        return message;
     }
 
-    /**
-     * Sends a message to the given recipient. The {@link OutboundMessage} is not validated in any
-     * way. It is up to the caller to ensure that the attributes set on the OutboundMessage represent
-     * a valid request payload that Facebook will accept.
-     */
-    public MessageResponse sendOutboundMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull OutboundMessage message) throws FacebookMessengerSendException {
-        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+    MessageRequest buildMessageRequest(@NonNull String recipientId, @NonNull OutboundMessage message) {
         checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
+        validate(message);
 
         MessageRequest messageRequest = new MessageRequest();
         User recipient = new User();
         recipient.setId(recipientId);
         messageRequest.setRecipient(recipient);
         messageRequest.setMessage(message);
+        return messageRequest;
+    }
+
+    /**
+     * A handle for a token that is not registered with a {@link PageTokenRegistry}.
+     */
+    PageToken pageToken(String pageAccessToken) {
+        return new PageToken(null, pageAccessToken, URI.create(facebookMessageEndPoint + pageAccessToken), 0);
+    }
+
+    /**
+     * Runs the configured {@link OutboundMessageValidator}, if any.
+     */
+    void validate(OutboundMessage message) {
+        OutboundMessageValidator validator = config.getValidator();
+        if (validator != null) {
+            validator.validate(message);
+        }
+    }
+
+    private MessageResponse sendMessageRequest(@NonNull PageToken pageToken, @NonNull MessageRequest messageRequest) throws FacebookMessengerSendException {
+        RetryPolicy retryPolicy = config.getRetryPolicy();
+        if (retryPolicy != null) {
+            retryPolicy.onSend();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return executeMessageRequest(pageToken, messageRequest);
+            } catch (FacebookMessengerSendException | IOException e) {
+                long backoffMillis = retryPolicy == null ? -1 : retryPolicy.nextBackoffMillis(attempt, e);
+                if (backoffMillis < 0) {
+                    if (e instanceof FacebookMessengerSendException) {
+                        throw (FacebookMessengerSendException) e;
+                    }
+                    log.error("Error sending messageRequest: {}", messageRequest, e);
+                    return null;
+                }
+                log.debug("Retrying messageRequest in {} ms after attempt {} failed: {}", backoffMillis, attempt, e.getMessage());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new FacebookMessengerSendException("Interrupted while waiting to retry", ie);
+                }
+            }
+        }
+    }
+
+    private MessageResponse executeMessageRequest(PageToken pageToken, MessageRequest messageRequest) throws IOException, FacebookMessengerSendException {
+        String pageAccessToken = pageToken.getAccessToken();
+        CircuitBreakerRegistry circuitBreakers = config.getCircuitBreakers();
+        CircuitBreakerRegistry.Permit permit = circuitBreakers != null ? circuitBreakers.acquirePermission(facebookMessageEndPoint, pageAccessToken) : null;
+
+        CloseableHttpResponse response = null;
+        HttpPost httpPost = new HttpPost(pageToken.getMessageUri());
+        ScheduledFuture<?> deadline = null;
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            httpPost.setEntity(new JsonEntity(messageRequest, MESSAGE_REQUEST_WRITER));
+            long attemptTimeoutMillis = getAttemptTimeoutMillis();
+            if (attemptTimeoutMillis > 0) {
+                deadline = getTimer().schedule(httpPost::abort, attemptTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            response = httpClient.execute(httpPost);
+            return readMessageResponse(messageRequest, response);
+        } catch (IOException | FacebookMessengerSendException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (circuitBreakers != null) {
+                circuitBreakers.onResult(permit, System.nanoTime() - start, error);
+            }
+            // Consumes whatever is left of the entity so the connection goes back to the pool.
+            HttpClientUtils.closeQuietly(response);
+        }
+    }
+
+    private CompletableFuture<MessageResponse> sendMessageRequestAsync(@NonNull PageToken pageToken, @NonNull MessageRequest messageRequest) {
+        byte[] body;
+        try {
+            body = MESSAGE_REQUEST_WRITER.writeValueAsBytes(messageRequest);
+        } catch (IOException e) {
+            CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(new FacebookMessengerSendException("Error serializing messageRequest", e));
+            return future;
+        }
+        return sendMessageBodyAsync(pageToken, body, messageRequest);
+    }
+
+    /**
+     * Sends an already serialized {@link MessageRequest}. The body is reused by retries.
+     *
+     * @param messageRequest what to log for the request, e.g. the {@link MessageRequest} or the
+     *        recipient id
+     */
+    CompletableFuture<MessageResponse> sendMessageBodyAsync(@NonNull PageToken pageToken, @NonNull byte[] body, Object messageRequest) {
+        // Fails right away rather than on a later attempt if the client has been closed.
+        getAsyncHttpClient();
+
+        RetryPolicy retryPolicy = config.getRetryPolicy();
+        if (retryPolicy != null) {
+            retryPolicy.onSend();
+        }
+
+        CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+        attemptMessageRequestAsync(pageToken, body, messageRequest, 1, future);
+        return future;
+    }
+
+    /**
+     * Completes the future whatever happens, as retries run on the timer thread, where an exception
+     * would be lost.
+     */
+    private void attemptMessageRequestAsync(PageToken pageToken, byte[] body, Object messageRequest, int attempt, CompletableFuture<MessageResponse> future) {
+        try {
+            executeMessageRequestAsync(pageToken, body, messageRequest).whenComplete((response, e) -> {
+                if (e == null) {
+                    future.complete(response);
+                    return;
+                }
+                try {
+                    retryMessageRequestAsync(pageToken, body, messageRequest, attempt, future, e);
+                } catch (RuntimeException re) {
+                    re.addSuppressed(e);
+                    future.completeExceptionally(new FacebookMessengerSendException("Error retrying messageRequest", re));
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(new FacebookMessengerSendException("Error sending messageRequest", e));
+        }
+    }
+
+    private void retryMessageRequestAsync(PageToken pageToken, byte[] body, Object messageRequest, int attempt, CompletableFuture<MessageResponse> future,
+        Throwable e) {
+        RetryPolicy retryPolicy = config.getRetryPolicy();
+        long backoffMillis = retryPolicy == null ? -1 : retryPolicy.nextBackoffMillis(attempt, e);
+        if (backoffMillis < 0) {
+            future.completeExceptionally(e);
+            return;
+        }
+        log.debug("Retrying messageRequest in {} ms after attempt {} failed: {}", backoffMillis, attempt, e.getMessage());
+        pendingRetries.put(future, e);
+        try {
+            getTimer().schedule(() -> {
+                // Unless close() has failed it in the meantime.
+                if (pendingRetries.remove(future, e)) {
+                    attemptMessageRequestAsync(pageToken, body, messageRequest, attempt + 1, future);
+                }
+            }, backoffMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException re) {
+            // The client was closed before the retry could be scheduled.
+            pendingRetries.remove(future, e);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private CompletableFuture<MessageResponse> executeMessageRequestAsync(PageToken pageToken, byte[] body, Object messageRequest) {
+        CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+        String pageAccessToken = pageToken.getAccessToken();
+
+        CircuitBreakerRegistry circuitBreakers = config.getCircuitBreakers();
+        if (circuitBreakers != null) {
+            CircuitBreakerRegistry.Permit permit;
+            try {
+                permit = circuitBreakers.acquirePermission(facebookMessageEndPoint, pageAccessToken);
+            } catch (CircuitOpenException e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            long start = System.nanoTime();
+            future.whenComplete((response, e) -> circuitBreakers.onResult(permit, System.nanoTime() - start, e));
+        }
+
+        HttpPost httpPost = new HttpPost(pageToken.getMessageUri());
+        httpPost.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+
+        Future<HttpResponse> httpFuture;
+        try {
+            httpFuture = getAsyncHttpClient().execute(httpPost, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        future.complete(readMessageResponse(messageRequest, response));
+                    } catch (FacebookMessengerSendException e) {
+                        future.completeExceptionally(e);
+                    } catch (IOException e) {
+                        log.error("Error reading response for messageRequest: {}", messageRequest, e);
+                        future.completeExceptionally(new FacebookMessengerSendException("Error reading response", e));
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    log.error("Error sending messageRequest: {}", messageRequest, e);
+                    future.completeExceptionally(new FacebookMessengerSendException("Error sending messageRequest", e));
+                }
+
+                @Override
+                public void cancelled() {
+                    // Requests are only cancelled when they run past the attempt deadline.
+                    future.completeExceptionally(new FacebookMessengerSendException("Attempt deadline exceeded",
+                        new TimeoutException("Attempt deadline exceeded")));
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(new FacebookMessengerSendException("Error sending messageRequest", e));
+            return future;
+        }
+
+        long attemptTimeoutMillis = getAttemptTimeoutMillis();
+        if (attemptTimeoutMillis > 0 && !future.isDone()) {
+            try {
+                ScheduledFuture<?> deadline = getTimer().schedule(() -> httpFuture.cancel(true), attemptTimeoutMillis, TimeUnit.MILLISECONDS);
+                future.whenComplete((response, e) -> deadline.cancel(false));
+            } catch (RuntimeException e) {
+                // The client was closed while the request was being sent.
+                future.completeExceptionally(new FacebookMessengerSendException("The client has been closed", e));
+                httpFuture.cancel(true);
+            }
+        }
+        return future;
+    }
+
+    private long getAttemptTimeoutMillis() {
+        RetryPolicy retryPolicy = config.getRetryPolicy();
+        return retryPolicy == null ? 0 : retryPolicy.getAttemptTimeoutMillis();
+    }
+
+    private MessageResponse readMessageResponse(Object messageRequest, HttpResponse response) throws IOException, FacebookMessengerSendException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode >= 200 && statusCode < 300) {
+            log.debug("Successfully sent message. messageRequest: {}", messageRequest);
+            return OBJECT_MAPPER.readValue(response.getEntity().getContent(), MessageResponse.class);
+        } else {
+            log.info("Failed to send messageRequest: {} response: {}", messageRequest, response);
+            throw readErrorResponse(response);
+        }
+    }
+
+    /**
+     * Turns a non-2xx response into an exception. Responses without a Graph API error, e.g. from a
+     * proxy or load balancer, carry the HTTP status in an {@link HttpResponseException} cause.
+     */
+    private static FacebookMessengerSendException readErrorResponse(HttpResponse response) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpResponseException statusException = new HttpResponseException(statusCode, response.getStatusLine().getReasonPhrase());
+        try {
+            ErrorResponse errorResponse = OBJECT_MAPPER.readValue(response.getEntity().getContent(), ErrorResponse.class);
+            if (errorResponse != null && errorResponse.getError() != null) {
+                return new FacebookMessengerSendException(errorResponse.getError());
+            }
+        } catch (IOException | RuntimeException e) {
+            statusException.addSuppressed(e);
+        }
+        return new FacebookMessengerSendException("Unexpected response status " + statusCode, statusException);
+    }
+
+    /**
+     * The non-blocking engine is only started once an asynchronous method is used, so clients that
+     * only send synchronously do not pay for its I/O threads.
+     */
+    private CloseableHttpAsyncClient getAsyncHttpClient() {
+        CloseableHttpAsyncClient client = asyncHttpClient;
+        if (client == null) {
+            synchronized (this) {
+                checkState(!closed, "The client has been closed");
+                client = asyncHttpClient;
+                if (client == null) {
+                    client = buildAsyncHttpClient();
+                    client.start();
+                    asyncHttpClient = client;
+                }
+            }
+        }
+        return client;
+    }
 
-        return sendMessageRequest(pageAccessToken, messageRequest);
+    private ScheduledExecutorService getTimer() {
+        ScheduledExecutorService executor = timer;
+        if (executor == null) {
+            synchronized (this) {
+                checkState(!closed, "The client has been closed");
+                executor = timer;
+                if (executor == null) {
+                    executor = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("facebook-messenger-timer-%d").build());
+                    timer = executor;
+                }
+            }
+        }
+        return executor;
     }
 
-    private MessageResponse sendMessageRequest(@NonNull String pageAccessToken, @NonNull MessageRequest messageRequest) throws FacebookMessengerSendException {
+    /**
+     * Runs the task on the dispatcher, or right away once the client is closed, when it only fails
+     * its send.
+     */
+    private void dispatch(Runnable task) {
+        ExecutorService executor = dispatcher;
+        if (executor == null) {
+            synchronized (this) {
+                executor = dispatcher;
+                if (executor == null && !closed) {
+                    executor = Executors.newFixedThreadPool(config.getDispatcherThreadCount(),
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("facebook-messenger-dispatcher-%d").build());
+                    dispatcher = executor;
+                }
+            }
+        }
+        try {
+            if (executor != null) {
+                executor.execute(task);
+                return;
+            }
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime.
+        }
+        task.run();
+    }
 
+    private CloseableHttpClient buildHttpClient() {
         RequestConfig requestConfig = RequestConfig.custom()
                 .setSocketTimeout(requestTimeout)
                 .setConnectTimeout(requestTimeout)
+                .setConnectionRequestTimeout(requestTimeout)
                 .build();
-        CloseableHttpClient httpClient = HttpClients.custom()
-                .setDefaultRequestConfig(requestConfig)
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+            config.getConnectionTimeToLiveMillis(), TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(config.getMaxConnectionsTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivityMillis());
+
+        HttpClientBuilder builder = HttpClients.custom();
+        builder.setDefaultRequestConfig(requestConfig);
+        builder.setConnectionManager(connectionManager);
+        builder.setKeepAliveStrategy(new KeepAliveStrategy(config.getKeepAliveMillis()));
+        builder.evictExpiredConnections();
+        if (config.getIdleConnectionTimeoutMillis() > 0) {
+            builder.evictIdleConnections(config.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        return builder.build();
+    }
+
+    private CloseableHttpAsyncClient buildAsyncHttpClient() {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setSocketTimeout(requestTimeout)
+                .setConnectTimeout(requestTimeout)
+                .setConnectionRequestTimeout(requestTimeout)
                 .build();
-        CloseableHttpResponse response = null;
-        HttpPost httpPost = null;
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(config.getIoThreadCount())
+                .setConnectTimeout(requestTimeout)
+                .setSoTimeout(requestTimeout)
+                .build();
+
+        PoolingNHttpClientConnectionManager connectionManager;
         try {
-            httpPost = new HttpPost(facebookMessageEndPoint + pageAccessToken);
-            httpPost.setEntity(new StringEntity(OBJECT_MAPPER.writeValueAsString(messageRequest), ContentType.APPLICATION_JSON));
-            response = httpClient.execute(httpPost);
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig),
+                null, getDefaultRegistry(), null, null, config.getConnectionTimeToLiveMillis(), TimeUnit.MILLISECONDS);
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Unable to start the I/O reactor", e);
+        }
+        connectionManager.setMaxTotal(config.getMaxConnectionsTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        scheduleConnectionEviction(connectionManager);
 
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode >= 200 && statusCode < 300) {
-                log.debug("Successfully sent message. messageRequest: {}", messageRequest);
-                return OBJECT_MAPPER.readValue(response.getEntity().getContent(), MessageResponse.class);
-            } else {
-                log.info("Failed to send messageRequest: {} response: {}", messageRequest, response);
-                ErrorResponse errorResponse = OBJECT_MAPPER.readValue(
-                    response.getEntity().getContent(), ErrorResponse.class);
-                throw new FacebookMessengerSendException(errorResponse.getError());
+        return HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(new KeepAliveStrategy(config.getKeepAliveMillis()))
+                .build();
+    }
+
+    /**
+     * The non-blocking connection manager has no built-in evictor, so expired and idle connections
+     * are closed periodically on the timer.
+     */
+    private void scheduleConnectionEviction(PoolingNHttpClientConnectionManager connectionManager) {
+        long idleConnectionTimeoutMillis = config.getIdleConnectionTimeoutMillis();
+        long period = idleConnectionTimeoutMillis > 0 ? Math.max(idleConnectionTimeoutMillis / 2, 1000) : 5000;
+        getTimer().scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            if (idleConnectionTimeoutMillis > 0) {
+                connectionManager.closeIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS);
             }
-        } catch (IOException e) {
-            log.error("Error sending messageRequest: {}", messageRequest, e);
-            return null;
-        } finally {
-            HttpClientUtils.closeQuietly(response);
-            HttpClientUtils.closeQuietly(httpClient);
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static Registry<SchemeIOSessionStrategy> getDefaultRegistry() {
+        return RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                .build();
+    }
+
+    /**
+     * Honors the Keep-Alive header when the server sends one and otherwise falls back to the
+     * configured keep-alive duration.
+     */
+    private static class KeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+        private final long defaultKeepAliveMillis;
+
+        KeepAliveStrategy(long defaultKeepAliveMillis) {
+            this.defaultKeepAliveMillis = defaultKeepAliveMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long keepAlive = super.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? keepAlive : defaultKeepAliveMillis;
         }
     }
 }
@@ -0,0 +1,78 @@
+package com.messageyes.facebook.messenger;
+
+import lombok.Data;
+
+/**
+ * Tuning options for a {@link FacebookMessengerClient}. The defaults are sensible for a single
+ * process sending to the Graph API on behalf of many pages; all Send API traffic goes to the same
+ * host, so the per-route limit is usually the one that matters.
+ */
+@Data
+public class FacebookMessengerClientConfig {
+    /**
+     * Maximum number of pooled connections across all routes.
+     */
+    private int maxConnectionsTotal = 200;
+
+    /**
+     * Maximum number of pooled connections to a single host.
+     */
+    private int maxConnectionsPerRoute = 100;
+
+    /**
+     * How long an idle connection is kept alive when the server does not send a Keep-Alive
+     * header. A value of zero or less keeps connections alive indefinitely.
+     */
+    private long keepAliveMillis = 30000;
+
+    /**
+     * Connections idle for longer than this are closed by a background evictor. A value of zero
+     * or less disables idle eviction.
+     */
+    private long idleConnectionTimeoutMillis = 60000;
+
+    /**
+     * Total time to live of a pooled connection regardless of keep-alive. A value of zero or less
+     * means connections never expire.
+     */
+    private long connectionTimeToLiveMillis = -1;
+
+    /**
+     * Pooled connections that have been inactive for this long are re-validated before reuse.
+     */
+    private int validateAfterInactivityMillis = 2000;
+
+    /**
+     * Number of I/O dispatcher threads used by the non-blocking engine behind the asynchronous
+     * send methods.
+     */
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of threads that start the image messages that waited for their attachment to be
+     * saved. Starting a send does not block, so one is usually enough.
+     */
+    private int dispatcherThreadCount = 1;
+
+    /**
+     * Retries failed sends when set. Retries are disabled by default because a message whose
+     * response was lost may then be delivered twice.
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * Fails sends fast while the page or end point they go to keeps failing, when set.
+     */
+    private CircuitBreakerRegistry circuitBreakers;
+
+    /**
+     * Has Facebook save images as reusable attachments and sends them by id, when set.
+     */
+    private AttachmentIdCache attachmentIdCache;
+
+    /**
+     * Checks every outgoing message against the limits of the Send API. Setting it to null turns
+     * the checks off.
+     */
+    private OutboundMessageValidator validator = new OutboundMessageValidator(ValidationMode.WARN);
+}
@@ -0,0 +1,64 @@
+package com.messageyes.facebook.messenger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import lombok.NonNull;
+
+/**
+ * An entity that serializes a value as JSON straight into the connection output stream, without an
+ * intermediate String or byte[]. The writer should be created once and reused, so serializers are
+ * resolved only once; Jackson recycles its own encoding buffers per thread.
+ *
+ * The entity is repeatable, so it can be sent again by a retry. The length is not known up front,
+ * so it is sent with chunked transfer encoding. {@link #getContent()} serializes the value into
+ * memory and is only meant for engines that need to pull the content and for logging.
+ */
+class JsonEntity extends AbstractHttpEntity {
+
+    private final Object value;
+    private final ObjectWriter writer;
+
+    /**
+     * @param writer must not close the target stream, see
+     *        {@link com.fasterxml.jackson.core.JsonGenerator.Feature#AUTO_CLOSE_TARGET}
+     */
+    JsonEntity(@NonNull Object value, @NonNull ObjectWriter writer) {
+        this.value = value;
+        this.writer = writer;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new ByteArrayInputStream(writer.writeValueAsBytes(value));
+    }
+
+    @Override
+    public void writeTo(@NonNull OutputStream outstream) throws IOException {
+        writer.writeValue(outstream, value);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+
+import lombok.NonNull;
+
+/**
+ * A token bucket per key, typically a page access token. Each bucket is a single atomic "theoretical
+ * arrival time" that is advanced with compare-and-set (the generic cell rate algorithm), so buckets
+ * never block each other and a busy page does not slow down any other page.
+ *
+ * Buckets that have been idle long enough to be full again carry no state and are dropped by
+ * {@link #evictIdle()}. Per-key rates set with {@link #setRate(String, double, int)} are kept until
+ * they are cleared.
+ */
+public class KeyedRateLimiter {
+
+    private final Ticker ticker;
+    private final Rate defaultRate;
+    private final ConcurrentMap<String, Rate> rates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param permitsPerSecond the sustained rate allowed for each key
+     * @param burst how many permits a key that has been idle can take at once
+     */
+    public KeyedRateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, Ticker.systemTicker());
+    }
+
+    KeyedRateLimiter(double permitsPerSecond, int burst, @NonNull Ticker ticker) {
+        this.defaultRate = new Rate(permitsPerSecond, burst);
+        this.ticker = ticker;
+    }
+
+    /**
+     * Overrides the default rate for a single key.
+     */
+    public void setRate(@NonNull String key, double permitsPerSecond, int burst) {
+        rates.put(key, new Rate(permitsPerSecond, burst));
+    }
+
+    public void clearRate(@NonNull String key) {
+        rates.remove(key);
+    }
+
+    /**
+     * Takes a permit if one is available right now.
+     */
+    public boolean tryAcquire(@NonNull String key) {
+        return reserve(key, 0, TimeUnit.NANOSECONDS) == 0;
+    }
+
+    /**
+     * Reserves the next permit for the key as long as it becomes available within maxWait.
+     *
+     * @return how long in nanoseconds the caller has to wait before using the permit, or -1 if no
+     *         permit is available within maxWait, in which case nothing is reserved
+     */
+    public long reserve(@NonNull String key, long maxWait, @NonNull TimeUnit unit) {
+        Rate rate = rates.getOrDefault(key, defaultRate);
+        long maxWaitNanos = unit.toNanos(maxWait);
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+
+        while (true) {
+            long now = ticker.read();
+            long arrival = bucket.get();
+            long start = arrival == Long.MIN_VALUE ? now : Math.max(arrival, now);
+            long wait = start - rate.toleranceNanos - now;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (bucket.compareAndSet(arrival, start + rate.intervalNanos)) {
+                return Math.max(wait, 0);
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets of keys that have been idle long enough to be full again. Dropping such a
+     * bucket does not change future decisions, except that a request racing with the eviction may
+     * get one permit more than the burst allows.
+     */
+    public void evictIdle() {
+        long now = ticker.read();
+        buckets.entrySet().removeIf(entry -> {
+            long arrival = entry.getValue().get();
+            return arrival == Long.MIN_VALUE || arrival <= now;
+        });
+    }
+
+    int getBucketCount() {
+        return buckets.size();
+    }
+
+    private static class Rate {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+
+        Rate(double permitsPerSecond, int burst) {
+            checkArgument(permitsPerSecond > 0, "permitsPerSecond must be positive");
+            checkArgument(burst > 0, "burst must be positive");
+
+            intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            toleranceNanos = intervalNanos * (burst - 1);
+        }
+    }
+}
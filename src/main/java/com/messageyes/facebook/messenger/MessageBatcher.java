@@ -0,0 +1,178 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.MessageRequest;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Collects outbound messages per page access token and sends them as Graph API batch requests. A
+ * batch is sent once it holds maxBatchSize messages or once the first message in it has waited for
+ * maxDelayMillis, whichever comes first. Each caller gets its own future, which completes with the
+ * result of its message only.
+ *
+ * This is intended for broadcast style workloads where many messages are sent for the same page in
+ * a short period of time.
+ *
+ * Once the batcher is closed, messages are no longer accepted and their futures fail right away.
+ */
+@Slf4j
+public class MessageBatcher implements Closeable {
+
+    private final FacebookMessengerClient client;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+
+    private final ConcurrentMap<String, PendingBatch> pendingBatches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("facebook-messenger-batcher-%d").build());
+    private volatile boolean closed;
+
+    public MessageBatcher(@NonNull FacebookMessengerClient client, int maxBatchSize, long maxDelayMillis) {
+        checkArgument(maxBatchSize > 0 && maxBatchSize <= FacebookMessengerClient.MAX_BATCH_SIZE,
+            "maxBatchSize must be between 1 and " + FacebookMessengerClient.MAX_BATCH_SIZE);
+        checkArgument(maxDelayMillis >= 0, "maxDelayMillis cannot be negative");
+
+        this.client = client;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Queues a message to be sent in the next batch for the given page. The returned future completes
+     * exceptionally with a {@link FacebookMessengerSendException} if this message, or the batch as a
+     * whole, fails.
+     */
+    public CompletableFuture<MessageResponse> sendOutboundMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull OutboundMessage message) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+
+        CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+        add(pageAccessToken, client.buildMessageRequest(recipientId, message), future);
+        return future;
+    }
+
+    /**
+     * The number of messages waiting for their batch to be sent.
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (PendingBatch batch : pendingBatches.values()) {
+            synchronized (batch) {
+                count += batch.requests.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sends every pending batch right away and stops the flush timer. A message added concurrently
+     * either makes it into one of those batches or fails.
+     */
+    @Override
+    public void close() {
+        // Set before the batches are sealed, so that add sees it in any batch created afterwards.
+        closed = true;
+        for (PendingBatch batch : pendingBatches.values()) {
+            flushIfPending(batch);
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void add(String pageAccessToken, MessageRequest messageRequest, CompletableFuture<MessageResponse> future) {
+        while (true) {
+            PendingBatch batch = pendingBatches.computeIfAbsent(pageAccessToken, PendingBatch::new);
+            boolean full;
+            synchronized (batch) {
+                if (batch.sealed) {
+                    // Lost a race with a flush of this batch; a new one is created on the next pass.
+                    continue;
+                }
+                if (closed) {
+                    pendingBatches.remove(pageAccessToken, batch);
+                    future.completeExceptionally(new FacebookMessengerSendException("Batcher is closed", null));
+                    return;
+                }
+                batch.requests.add(messageRequest);
+                batch.futures.add(future);
+                full = batch.requests.size() >= maxBatchSize;
+                if (full) {
+                    seal(batch);
+                } else if (batch.requests.size() == 1) {
+                    scheduler.schedule(() -> flushIfPending(batch), maxDelayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full) {
+                send(batch);
+            }
+            return;
+        }
+    }
+
+    private void flushIfPending(PendingBatch batch) {
+        synchronized (batch) {
+            if (batch.sealed) {
+                return;
+            }
+            seal(batch);
+        }
+        send(batch);
+    }
+
+    /**
+     * Must be called while holding the batch lock. A sealed batch accepts no more messages.
+     */
+    private void seal(PendingBatch batch) {
+        batch.sealed = true;
+        pendingBatches.remove(batch.pageAccessToken, batch);
+    }
+
+    private void send(PendingBatch batch) {
+        log.debug("Sending batch of {} messageRequests", batch.requests.size());
+        try {
+            List<CompletableFuture<MessageResponse>> results = client.sendValidatedBatchAsync(batch.pageAccessToken, batch.requests);
+            for (int i = 0; i < results.size(); i++) {
+                CompletableFuture<MessageResponse> future = batch.futures.get(i);
+                results.get(i).whenComplete((response, e) -> {
+                    if (e == null) {
+                        future.complete(response);
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            log.error("Error sending batch of {} messageRequests", batch.requests.size(), e);
+            FacebookMessengerSendException sendException = new FacebookMessengerSendException("Error sending batch", e);
+            batch.futures.forEach(future -> future.completeExceptionally(sendException));
+        }
+    }
+
+    private static class PendingBatch {
+        private final String pageAccessToken;
+        private final List<MessageRequest> requests = new ArrayList<>();
+        private final List<CompletableFuture<MessageResponse>> futures = new ArrayList<>();
+        private boolean sealed;
+
+        PendingBatch(String pageAccessToken) {
+            this.pageAccessToken = pageAccessToken;
+        }
+    }
+}
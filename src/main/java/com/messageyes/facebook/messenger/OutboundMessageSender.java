@@ -0,0 +1,17 @@
+package com.messageyes.facebook.messenger;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+
+/**
+ * Anything that can send an {@link OutboundMessage} asynchronously, e.g.
+ * {@link FacebookMessengerClient#sendOutboundMessageAsync}, {@link SendScheduler#sendOutboundMessage}
+ * or {@link MessageBatcher#sendOutboundMessage}. Lets send pipeline stages be layered on top of each
+ * other.
+ */
+@FunctionalInterface
+public interface OutboundMessageSender {
+    CompletableFuture<MessageResponse> send(String pageAccessToken, String recipientId, OutboundMessage message);
+}
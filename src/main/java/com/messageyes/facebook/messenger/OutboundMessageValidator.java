@@ -0,0 +1,243 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Ticker;
+import com.messageyes.facebook.messenger.bean.Attachment;
+import com.messageyes.facebook.messenger.bean.Button;
+import com.messageyes.facebook.messenger.bean.Element;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.OutboundPayload;
+import com.messageyes.facebook.messenger.bean.QuickReply;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Checks an {@link OutboundMessage} against the limits of the Send API before it is sent. The
+ * client runs it on every send path when it is set on the {@link FacebookMessengerClientConfig},
+ * which it is by default.
+ *
+ * The message, its elements, buttons and quick replies are checked in a single pass that allocates
+ * nothing unless a limit is broken. Too many items or a payload that is too long always fail with
+ * an IllegalArgumentException. Text that is too long is handled according to the
+ * {@link ValidationMode}. Every violation is counted, see {@link #getViolationCount(Violation)}.
+ *
+ * https://developers.facebook.com/docs/messenger-platform/send-api-reference
+ */
+@Slf4j
+public class OutboundMessageValidator {
+
+    public static final int MAX_TEXT_LENGTH = 640;
+    public static final int MAX_ELEMENTS = 10;
+    public static final int MAX_ELEMENT_TITLE_LENGTH = 80;
+    public static final int MAX_ELEMENT_SUBTITLE_LENGTH = 80;
+    public static final int MAX_BUTTONS = 3;
+    public static final int MAX_BUTTON_TITLE_LENGTH = 20;
+    public static final int MAX_QUICK_REPLIES = 10;
+    public static final int MAX_QUICK_REPLY_TITLE_LENGTH = 20;
+    public static final int MAX_PAYLOAD_LENGTH = 1000;
+
+    private static final long DEFAULT_WARN_INTERVAL_MILLIS = 60000;
+
+    /**
+     * A limit of the Send API.
+     */
+    public enum Violation {
+        TEXT_TOO_LONG("text", MAX_TEXT_LENGTH),
+        ELEMENT_TITLE_TOO_LONG("element title", MAX_ELEMENT_TITLE_LENGTH),
+        ELEMENT_SUBTITLE_TOO_LONG("element subtitle", MAX_ELEMENT_SUBTITLE_LENGTH),
+        BUTTON_TITLE_TOO_LONG("button title", MAX_BUTTON_TITLE_LENGTH),
+        QUICK_REPLY_TITLE_TOO_LONG("quick reply title", MAX_QUICK_REPLY_TITLE_LENGTH),
+        PAYLOAD_TOO_LONG("payload", MAX_PAYLOAD_LENGTH),
+        TOO_MANY_ELEMENTS("elements", MAX_ELEMENTS),
+        TOO_MANY_BUTTONS("buttons", MAX_BUTTONS),
+        TOO_MANY_QUICK_REPLIES("quick replies", MAX_QUICK_REPLIES);
+
+        private final String subject;
+        @Getter
+        private final int limit;
+
+        Violation(String subject, int limit) {
+            this.subject = subject;
+            this.limit = limit;
+        }
+
+        String describe() {
+            return name().startsWith("TOO_MANY")
+                ? "Facebook only supports " + limit + " or fewer " + subject + " per message"
+                : "The " + subject + " is longer than " + limit + " characters";
+        }
+    }
+
+    @Getter
+    private final ValidationMode mode;
+    private final long warnIntervalNanos;
+    private final Ticker ticker;
+    private final LongAdder[] violationCounts = new LongAdder[Violation.values().length];
+    private final LongAdder unwarnedCount = new LongAdder();
+    private final AtomicLong nextWarnNanos;
+
+    public OutboundMessageValidator(@NonNull ValidationMode mode) {
+        this(mode, DEFAULT_WARN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param warnIntervalMillis in {@link ValidationMode#WARN}, how long to wait after a warning
+     *        before logging the next one
+     */
+    public OutboundMessageValidator(@NonNull ValidationMode mode, long warnIntervalMillis) {
+        this(mode, warnIntervalMillis, Ticker.systemTicker());
+    }
+
+    OutboundMessageValidator(@NonNull ValidationMode mode, long warnIntervalMillis, @NonNull Ticker ticker) {
+        checkArgument(warnIntervalMillis >= 0, "warnIntervalMillis cannot be negative");
+
+        this.mode = mode;
+        this.warnIntervalNanos = TimeUnit.MILLISECONDS.toNanos(warnIntervalMillis);
+        this.ticker = ticker;
+        this.nextWarnNanos = new AtomicLong(ticker.read());
+        for (int i = 0; i < violationCounts.length; i++) {
+            violationCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Checks the message, shortening its text in {@link ValidationMode#TRUNCATE}. Messages within
+     * the limits are not modified, so they can be shared between threads.
+     *
+     * @throws IllegalArgumentException if the message breaks a limit that cannot be fixed, or
+     *         any limit in {@link ValidationMode#STRICT}
+     */
+    public void validate(@NonNull OutboundMessage message) {
+        if (isTooLong(message.getText(), Violation.TEXT_TOO_LONG)) {
+            message.setText(onTooLong(message.getText(), Violation.TEXT_TOO_LONG));
+        }
+
+        Attachment attachment = message.getAttachment();
+        if (attachment != null && attachment.getPayload() != null) {
+            validate(attachment.getPayload());
+        }
+
+        List<QuickReply> quickReplies = message.getQuickReplies();
+        if (quickReplies != null) {
+            checkCount(quickReplies.size(), Violation.TOO_MANY_QUICK_REPLIES);
+            for (int i = 0; i < quickReplies.size(); i++) {
+                QuickReply quickReply = quickReplies.get(i);
+                if (quickReply != null) {
+                    if (isTooLong(quickReply.getTitle(), Violation.QUICK_REPLY_TITLE_TOO_LONG)) {
+                        quickReply.setTitle(onTooLong(quickReply.getTitle(), Violation.QUICK_REPLY_TITLE_TOO_LONG));
+                    }
+                    checkPayload(quickReply.getPayload());
+                }
+            }
+        }
+    }
+
+    private void validate(OutboundPayload payload) {
+        if (isTooLong(payload.getText(), Violation.TEXT_TOO_LONG)) {
+            payload.setText(onTooLong(payload.getText(), Violation.TEXT_TOO_LONG));
+        }
+
+        List<Element> elements = payload.getElements();
+        if (elements != null) {
+            checkCount(elements.size(), Violation.TOO_MANY_ELEMENTS);
+            for (int i = 0; i < elements.size(); i++) {
+                Element element = elements.get(i);
+                if (element != null) {
+                    if (isTooLong(element.getTitle(), Violation.ELEMENT_TITLE_TOO_LONG)) {
+                        element.setTitle(onTooLong(element.getTitle(), Violation.ELEMENT_TITLE_TOO_LONG));
+                    }
+                    if (isTooLong(element.getSubtitle(), Violation.ELEMENT_SUBTITLE_TOO_LONG)) {
+                        element.setSubtitle(onTooLong(element.getSubtitle(), Violation.ELEMENT_SUBTITLE_TOO_LONG));
+                    }
+                }
+            }
+        }
+
+        List<Button> buttons = payload.getButtons();
+        if (buttons != null) {
+            checkCount(buttons.size(), Violation.TOO_MANY_BUTTONS);
+            for (int i = 0; i < buttons.size(); i++) {
+                Button button = buttons.get(i);
+                if (button != null) {
+                    if (isTooLong(button.getTitle(), Violation.BUTTON_TITLE_TOO_LONG)) {
+                        button.setTitle(onTooLong(button.getTitle(), Violation.BUTTON_TITLE_TOO_LONG));
+                    }
+                    checkPayload(button.getPayload());
+                }
+            }
+        }
+    }
+
+    /**
+     * Violations of the limit seen so far, including those that failed the send.
+     */
+    public long getViolationCount(@NonNull Violation violation) {
+        return violationCounts[violation.ordinal()].sum();
+    }
+
+    private static boolean isTooLong(String text, Violation violation) {
+        return text != null && text.length() > violation.getLimit();
+    }
+
+    /**
+     * @return the text to send instead, which is only different in {@link ValidationMode#TRUNCATE}
+     */
+    private String onTooLong(String text, Violation violation) {
+        violationCounts[violation.ordinal()].increment();
+        switch (mode) {
+            case STRICT:
+                throw new IllegalArgumentException(violation.describe());
+            case TRUNCATE:
+                return truncate(text, violation.getLimit());
+            default:
+                warn(violation);
+                return text;
+        }
+    }
+
+    private void checkCount(int count, Violation violation) {
+        if (count > violation.getLimit()) {
+            violationCounts[violation.ordinal()].increment();
+            throw new IllegalArgumentException(violation.describe());
+        }
+    }
+
+    /**
+     * Payloads are never truncated, as they would no longer mean anything to the app.
+     */
+    private void checkPayload(String payload) {
+        if (payload != null && payload.length() > MAX_PAYLOAD_LENGTH) {
+            violationCounts[Violation.PAYLOAD_TOO_LONG.ordinal()].increment();
+            throw new IllegalArgumentException(Violation.PAYLOAD_TOO_LONG.describe());
+        }
+    }
+
+    /**
+     * Cuts before a surrogate pair rather than through it.
+     */
+    private static String truncate(String text, int length) {
+        int end = Character.isHighSurrogate(text.charAt(length - 1)) ? length - 1 : length;
+        return text.substring(0, end);
+    }
+
+    /**
+     * Logs at most one warning per warnIntervalMillis, with the number of violations since the last
+     * one.
+     */
+    private void warn(Violation violation) {
+        unwarnedCount.increment();
+        long now = ticker.read();
+        long next = nextWarnNanos.get();
+        if (now - next >= 0 && nextWarnNanos.compareAndSet(next, now + warnIntervalNanos)) {
+            log.warn("{} violations of Send API limits since the last warning, most recently: {}", unwarnedCount.sumThenReset(), violation.describe());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.messageyes.facebook.messenger;
+
+import java.net.URI;
+
+/**
+ * A page access token that has been validated once, together with the request URI built from it
+ * and the shard of the {@link PageTokenRegistry} that sends for the page. Handles are immutable:
+ * rotating a token registers a new handle, and sends already holding the old one finish with it.
+ */
+public final class PageToken {
+    private final String pageId;
+    private final String accessToken;
+    private final URI messageUri;
+    private final int shard;
+
+    PageToken(String pageId, String accessToken, URI messageUri, int shard) {
+        this.pageId = pageId;
+        this.accessToken = accessToken;
+        this.messageUri = messageUri;
+        this.shard = shard;
+    }
+
+    /**
+     * The page the token belongs to, or null if it was not registered.
+     */
+    public String getPageId() {
+        return pageId;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * The message end point with the token as its access_token parameter.
+     */
+    public URI getMessageUri() {
+        return messageUri;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * Leaves out the token, so that handles can be logged.
+     */
+    @Override
+    public String toString() {
+        return "PageToken(pageId=" + pageId + ", shard=" + shard + ")";
+    }
+}
@@ -0,0 +1,202 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.messageyes.facebook.messenger.bean.Element;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.MessageRequest;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.QuickReply;
+
+import lombok.NonNull;
+
+/**
+ * Sends messages by page id for apps that manage many pages. Tokens are validated and turned into
+ * request URIs once, when they are registered, rather than on every send.
+ *
+ * Pages are spread over a number of shards, each a {@link FacebookMessengerClient} with its own
+ * connection pools, so a page that is slow to answer only ties up the connections of its shard.
+ * The connection limits of the config apply to each shard. The config itself, including its retry
+ * policy and circuit breakers, is shared by all shards.
+ *
+ * Registering a page again rotates its token without pausing anyone: sends that already started,
+ * including their retries, finish with the old token, and later sends use the new one.
+ *
+ * Outbound, text, image and generic messages and batches are sent by page id. For a broadcast,
+ * build a {@link Broadcaster} on {@link #getClient(PageToken)} and pass it the page's handle.
+ */
+public class PageTokenRegistry implements Closeable {
+
+    private final String facebookMessageEndPoint;
+    private final FacebookMessengerClient[] shards;
+    private final ConcurrentMap<String, PageToken> tokens = new ConcurrentHashMap<>();
+
+    /**
+     * Uses the default end point, request timeout and config.
+     */
+    public PageTokenRegistry(int shards) {
+        this(FacebookMessengerClient.DEFAULT_FACEBOOK_MESSAGE_ENDPOINT, FacebookMessengerClient.DEFAULT_REQUEST_TIMEOUT,
+            new FacebookMessengerClientConfig(), shards);
+    }
+
+    public PageTokenRegistry(@NonNull String facebookMessageEndPoint, @NonNull Integer requestTimeout, @NonNull FacebookMessengerClientConfig config, int shards) {
+        checkArgument(shards > 0, "shards must be positive");
+
+        this.facebookMessageEndPoint = facebookMessageEndPoint;
+        this.shards = new FacebookMessengerClient[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new FacebookMessengerClient(facebookMessageEndPoint, requestTimeout, config);
+        }
+    }
+
+    /**
+     * Registers the page's token, replacing the one it had.
+     *
+     * @return the handle that sends for the page will use
+     * @throws IllegalArgumentException if the token is blank or cannot be part of a URI
+     */
+    public PageToken register(@NonNull String pageId, @NonNull String pageAccessToken) {
+        checkArgument(StringUtils.isNotBlank(pageId), "pageId cannot be blank");
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+
+        int shard = Math.floorMod(pageId.hashCode(), shards.length);
+        PageToken pageToken = new PageToken(pageId, pageAccessToken, URI.create(facebookMessageEndPoint + pageAccessToken), shard);
+        tokens.put(pageId, pageToken);
+        return pageToken;
+    }
+
+    /**
+     * @return whether the page was registered
+     */
+    public boolean unregister(@NonNull String pageId) {
+        return tokens.remove(pageId) != null;
+    }
+
+    /**
+     * The current handle of the page, or null if it is not registered.
+     */
+    public PageToken getToken(@NonNull String pageId) {
+        return tokens.get(pageId);
+    }
+
+    /**
+     * Registered pages.
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    /**
+     * The client of the page's shard, e.g. for batches or broadcasts.
+     */
+    public FacebookMessengerClient getClient(@NonNull PageToken pageToken) {
+        return shards[pageToken.getShard()];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendOutboundMessage(String, String, OutboundMessage)
+     */
+    public MessageResponse sendOutboundMessage(@NonNull String pageId, @NonNull String recipientId, @NonNull OutboundMessage message) throws FacebookMessengerSendException {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendOutboundMessage(pageToken, recipientId, message);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendOutboundMessageAsync(String, String, OutboundMessage)
+     */
+    public CompletableFuture<MessageResponse> sendOutboundMessageAsync(@NonNull String pageId, @NonNull String recipientId, @NonNull OutboundMessage message) {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendOutboundMessageAsync(pageToken, recipientId, message);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendTextMessage(String, String, String)
+     */
+    public MessageResponse sendTextMessage(@NonNull String pageId, @NonNull String recipientId, @NonNull String messageText) throws FacebookMessengerSendException {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendTextMessage(pageToken, recipientId, messageText);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendTextMessageAsync(String, String, String)
+     */
+    public CompletableFuture<MessageResponse> sendTextMessageAsync(@NonNull String pageId, @NonNull String recipientId, @NonNull String messageText) {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendTextMessageAsync(pageToken, recipientId, messageText);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendImageMessage(String, String, String)
+     */
+    public MessageResponse sendImageMessage(@NonNull String pageId, @NonNull String recipientId, @NonNull String imageURL) throws FacebookMessengerSendException {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendImageMessage(pageToken, recipientId, imageURL);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendImageMessageAsync(String, String, String)
+     */
+    public CompletableFuture<MessageResponse> sendImageMessageAsync(@NonNull String pageId, @NonNull String recipientId, @NonNull String imageURL) {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendImageMessageAsync(pageToken, recipientId, imageURL);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendGenericMessage(String, String, List, List)
+     */
+    public MessageResponse sendGenericMessage(@NonNull String pageId, @NonNull String recipientId, @NonNull List<Element> elements, List<QuickReply> quickReplies) throws FacebookMessengerSendException {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendGenericMessage(pageToken, recipientId, elements, quickReplies);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendGenericMessageAsync(String, String, List, List)
+     */
+    public CompletableFuture<MessageResponse> sendGenericMessageAsync(@NonNull String pageId, @NonNull String recipientId, @NonNull List<Element> elements, List<QuickReply> quickReplies) {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendGenericMessageAsync(pageToken, recipientId, elements, quickReplies);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page is not registered
+     * @see FacebookMessengerClient#sendMessageRequestBatchAsync(String, List)
+     */
+    public List<CompletableFuture<MessageResponse>> sendMessageRequestBatchAsync(@NonNull String pageId, @NonNull List<MessageRequest> messageRequests) {
+        PageToken pageToken = getRegisteredToken(pageId);
+        return shards[pageToken.getShard()].sendMessageRequestBatchAsync(pageToken.getAccessToken(), messageRequests);
+    }
+
+    /**
+     * Closes the clients of all shards.
+     */
+    @Override
+    public void close() {
+        for (FacebookMessengerClient client : shards) {
+            client.close();
+        }
+    }
+
+    private PageToken getRegisteredToken(String pageId) {
+        PageToken pageToken = tokens.get(pageId);
+        checkArgument(pageToken != null, "page is not registered: %s", pageId);
+        return pageToken;
+    }
+}
@@ -0,0 +1,169 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Sends messages so that the messages for a single recipient of a page go out one at a time and in
+ * the order they were submitted, while messages for different recipients are sent in parallel.
+ *
+ * Each recipient with messages waiting has a lane, a FIFO queue whose head is in flight. Lanes live
+ * in a {@link ConcurrentHashMap} and are only touched through its per-bin atomic operations, so
+ * recipients do not contend with each other. A lane is dropped as soon as it is empty, which keeps
+ * memory proportional to the number of waiting messages rather than to the number of recipients
+ * ever seen. The number of waiting messages is capped by maxPendingMessages.
+ *
+ * A failed message does not hold up its lane; the next message for the recipient is sent and the
+ * failure is reported through the future of the failed message only.
+ */
+public class RecipientOrderedSender implements OutboundMessageSender {
+
+    private final OutboundMessageSender sender;
+    private final int maxPendingMessages;
+
+    private final ConcurrentMap<LaneKey, Queue<Task>> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+
+    public RecipientOrderedSender(@NonNull FacebookMessengerClient client, int maxPendingMessages) {
+        this(client::sendOutboundMessageAsync, maxPendingMessages);
+    }
+
+    /**
+     * @param sender the stage that actually sends, e.g. a {@link SendScheduler}
+     * @param maxPendingMessages messages waiting or in flight across all recipients, beyond which
+     *        new messages are rejected
+     */
+    public RecipientOrderedSender(@NonNull OutboundMessageSender sender, int maxPendingMessages) {
+        checkArgument(maxPendingMessages > 0, "maxPendingMessages must be positive");
+
+        this.sender = sender;
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /**
+     * Queues the message behind any other message for the same recipient of the same page. The
+     * returned future fails with a {@link RejectedExecutionException} if too many messages are
+     * already pending.
+     */
+    @Override
+    public CompletableFuture<MessageResponse> send(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull OutboundMessage message) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+        checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
+
+        Task task = new Task(pageAccessToken, recipientId, message, new CompletableFuture<>());
+        if (pendingMessages.incrementAndGet() > maxPendingMessages) {
+            pendingMessages.decrementAndGet();
+            task.future.completeExceptionally(new RejectedExecutionException("Too many pending messages"));
+            return task.future;
+        }
+
+        LaneKey key = new LaneKey(pageAccessToken, recipientId);
+        boolean[] idle = new boolean[1];
+        lanes.compute(key, (k, lane) -> {
+            if (lane == null) {
+                lane = new ArrayDeque<>(2);
+            }
+            idle[0] = lane.isEmpty();
+            lane.add(task);
+            return lane;
+        });
+        if (idle[0]) {
+            run(key, task);
+        }
+        return task.future;
+    }
+
+    /**
+     * The number of messages waiting or in flight across all recipients.
+     */
+    public int getPendingCount() {
+        return pendingMessages.get();
+    }
+
+    /**
+     * The number of recipients that have messages waiting or in flight.
+     */
+    public int getActiveLaneCount() {
+        return lanes.size();
+    }
+
+    /**
+     * Sends the task and then every task queued behind it. Sends that complete synchronously are
+     * handled in a loop rather than recursively so a long lane cannot overflow the stack.
+     */
+    private void run(LaneKey key, Task task) {
+        while (task != null) {
+            CompletableFuture<MessageResponse> result;
+            try {
+                result = sender.send(task.pageAccessToken, task.recipientId, task.message);
+            } catch (RuntimeException e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+
+            Task current = task;
+            if (!result.isDone()) {
+                result.whenComplete((response, e) -> {
+                    complete(current, response, e);
+                    run(key, advance(key));
+                });
+                return;
+            }
+
+            result.whenComplete((response, e) -> complete(current, response, e));
+            task = advance(key);
+        }
+    }
+
+    private void complete(Task task, MessageResponse response, Throwable e) {
+        pendingMessages.decrementAndGet();
+        if (e == null) {
+            task.future.complete(response);
+        } else {
+            task.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Removes the finished head of the lane and returns the next task, dropping the lane if it is
+     * empty.
+     */
+    private Task advance(LaneKey key) {
+        Task[] next = new Task[1];
+        lanes.computeIfPresent(key, (k, lane) -> {
+            lane.poll();
+            next[0] = lane.peek();
+            return lane.isEmpty() ? null : lane;
+        });
+        return next[0];
+    }
+
+    @Value
+    private static class LaneKey {
+        String pageAccessToken;
+        String recipientId;
+    }
+
+    @Value
+    private static class Task {
+        String pageAccessToken;
+        String recipientId;
+        OutboundMessage message;
+        CompletableFuture<MessageResponse> future;
+    }
+}
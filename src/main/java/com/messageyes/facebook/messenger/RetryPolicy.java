@@ -0,0 +1,140 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableSet;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Decides whether and when a failed send is retried. Set it on {@link FacebookMessengerClientConfig}
+ * to have every send method of the client retry on its own.
+ *
+ * Transport failures, 5xx responses and the Graph API errors that Facebook documents as temporary or
+ * rate limiting are retried with exponential backoff and full jitter. Everything else, e.g. an
+ * invalid token or a user that cannot be messaged, fails on the first attempt.
+ *
+ * Retries are capped by a budget shared by all sends of the client: every send deposits
+ * retryBudgetRatio of a retry, so during an outage retries add at most that share of extra traffic
+ * instead of multiplying it by maxAttempts.
+ *
+ * Note that a transport failure does not prove that Facebook did not receive the message, so a
+ * retried message may occasionally be delivered twice.
+ *
+ * https://developers.facebook.com/docs/messenger-platform/send-api-reference/errors
+ */
+@Getter
+public class RetryPolicy {
+
+    /**
+     * 1 and 2 are temporary API issues, 4, 17, 32 and 613 are rate limits and 1200 is a temporary
+     * send message failure.
+     */
+    public static final Set<Long> DEFAULT_RETRYABLE_ERROR_CODES = ImmutableSet.of(1L, 2L, 4L, 17L, 32L, 613L, 1200L);
+
+    private static final long TOKEN_SCALE = 1000;
+    private static final long INITIAL_RETRY_BALANCE = 10 * TOKEN_SCALE;
+    private static final long MAX_RETRY_BALANCE = 100 * TOKEN_SCALE;
+
+    /**
+     * Total number of attempts per send, including the first one.
+     */
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    /**
+     * Retries allowed as a share of sends, e.g. 0.1 for at most one retry per ten sends.
+     */
+    private final double retryBudgetRatio;
+    /**
+     * Each attempt is aborted after this long. A value of zero or less only applies the request
+     * timeout of the client.
+     */
+    private final long attemptTimeoutMillis;
+
+    @Getter(AccessLevel.NONE)
+    private final AtomicLong retryBalance = new AtomicLong(INITIAL_RETRY_BALANCE);
+
+    /**
+     * Three attempts, backoff starting at 200 ms up to 5 s, a 10% retry budget and a 10 s deadline
+     * per attempt.
+     */
+    public RetryPolicy() {
+        this(3, 200, 5000, 0.1, 10000);
+    }
+
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, double retryBudgetRatio, long attemptTimeoutMillis) {
+        checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+        checkArgument(initialBackoffMillis >= 0, "initialBackoffMillis cannot be negative");
+        checkArgument(maxBackoffMillis >= initialBackoffMillis, "maxBackoffMillis cannot be less than initialBackoffMillis");
+        checkArgument(retryBudgetRatio >= 0, "retryBudgetRatio cannot be negative");
+
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.retryBudgetRatio = retryBudgetRatio;
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+    }
+
+    /**
+     * Called once per send, before its first attempt. Adds to the retry budget.
+     */
+    public void onSend() {
+        long deposit = (long) (retryBudgetRatio * TOKEN_SCALE);
+        retryBalance.accumulateAndGet(deposit, (balance, amount) -> Math.min(balance + amount, MAX_RETRY_BALANCE));
+    }
+
+    /**
+     * Returns how long to wait before the next attempt, or -1 if the send should fail with the given
+     * error.
+     *
+     * @param attempt the attempt that just failed, starting at 1
+     */
+    public long nextBackoffMillis(int attempt, Throwable error) {
+        if (attempt >= maxAttempts || !isRetryable(error) || !tryWithdrawRetry()) {
+            return -1;
+        }
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Whether the error is worth another attempt, regardless of the attempt count and budget.
+     */
+    public boolean isRetryable(Throwable error) {
+        error = SendFailures.unwrap(error);
+        if (error instanceof FacebookMessengerSendException) {
+            FacebookMessengerSendException sendException = (FacebookMessengerSendException) error;
+            if (sendException.getErrorCode() != null) {
+                return isRetryableError(sendException.getErrorCode(), sendException.getErrorSubCode());
+            }
+        }
+        return SendFailures.isTransientTransportFailure(error);
+    }
+
+    /**
+     * Whether an error returned by the Graph API is temporary. Override to change which errors are
+     * retried.
+     */
+    protected boolean isRetryableError(long code, Long subcode) {
+        return DEFAULT_RETRYABLE_ERROR_CODES.contains(code);
+    }
+
+    private boolean tryWithdrawRetry() {
+        while (true) {
+            long balance = retryBalance.get();
+            if (balance < TOKEN_SCALE) {
+                return false;
+            }
+            if (retryBalance.compareAndSet(balance, balance - TOKEN_SCALE)) {
+                return true;
+            }
+        }
+    }
+}
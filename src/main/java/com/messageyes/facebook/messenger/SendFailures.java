@@ -0,0 +1,57 @@
+package com.messageyes.facebook.messenger;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.HttpResponseException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+
+/**
+ * Helpers for classifying why a send failed, shared by the retry and circuit breaker logic.
+ */
+final class SendFailures {
+
+    private SendFailures() {
+    }
+
+    /**
+     * Unwraps the {@link CompletionException} that dependent stages of a CompletableFuture see.
+     */
+    static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * The Graph API error code of the failure, or null if it did not come from a Graph API error.
+     */
+    static Long getErrorCode(Throwable error) {
+        error = unwrap(error);
+        return error instanceof FacebookMessengerSendException ? ((FacebookMessengerSendException) error).getErrorCode() : null;
+    }
+
+    /**
+     * Whether the failure happened on the way to or from the Graph API rather than in it: connection
+     * problems, timeouts and 5xx or 429 responses without a Graph API error. Serialization and
+     * response parsing problems are not transient and do not count.
+     */
+    static boolean isTransientTransportFailure(Throwable error) {
+        error = unwrap(error);
+        if (error instanceof FacebookMessengerSendException) {
+            if (((FacebookMessengerSendException) error).getErrorCode() != null) {
+                return false;
+            }
+            error = error.getCause();
+        }
+        if (error instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) error).getStatusCode();
+            return statusCode >= 500 || statusCode == 429;
+        }
+        return (error instanceof IOException && !(error instanceof JsonProcessingException)) || error instanceof TimeoutException;
+    }
+}
@@ -0,0 +1,208 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.RateLimitExceededException;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends messages through a {@link FacebookMessengerClient} while keeping each page within its send
+ * budget, so a single busy page cannot trigger platform throttling for itself or use up capacity
+ * that other pages need.
+ *
+ * A message for a page that is over budget is queued until its permit becomes available, as long as
+ * that happens within maxQueueDelayMillis and the page has fewer than maxQueueDepthPerPage messages
+ * waiting. Otherwise the returned future fails with a {@link RateLimitExceededException}. A
+ * maxQueueDelayMillis of zero rejects instead of queueing. Once the scheduler is closed, queued
+ * and new messages fail the same way.
+ */
+@Slf4j
+public class SendScheduler implements Closeable {
+
+    private static final long EVICTION_INTERVAL_MILLIS = 60000;
+
+    private final FacebookMessengerClient client;
+    private final KeyedRateLimiter rateLimiter;
+    private final long maxQueueDelayMillis;
+    private final int maxQueueDepthPerPage;
+
+    private final ConcurrentMap<String, Integer> queueDepths = new ConcurrentHashMap<>();
+    private final AtomicInteger totalQueueDepth = new AtomicInteger();
+    private final Set<QueuedSend> queuedSends = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("facebook-messenger-scheduler-%d").build());
+
+    public SendScheduler(@NonNull FacebookMessengerClient client, @NonNull KeyedRateLimiter rateLimiter, long maxQueueDelayMillis, int maxQueueDepthPerPage) {
+        checkArgument(maxQueueDelayMillis >= 0, "maxQueueDelayMillis cannot be negative");
+        checkArgument(maxQueueDepthPerPage >= 0, "maxQueueDepthPerPage cannot be negative");
+
+        this.client = client;
+        this.rateLimiter = rateLimiter;
+        this.maxQueueDelayMillis = maxQueueDelayMillis;
+        this.maxQueueDepthPerPage = maxQueueDepthPerPage;
+
+        scheduler.scheduleWithFixedDelay(rateLimiter::evictIdle, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the message right away if the page is within its budget, and otherwise queues or rejects
+     * it. The message is sent with {@link FacebookMessengerClient#sendOutboundMessageAsync}.
+     */
+    public CompletableFuture<MessageResponse> sendOutboundMessage(@NonNull String pageAccessToken, @NonNull String recipientId, @NonNull OutboundMessage message) {
+        checkArgument(StringUtils.isNotBlank(pageAccessToken), "pageAccessToken cannot be blank");
+        checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
+
+        if (closed) {
+            return rejected("Scheduler is closed");
+        }
+        if (rateLimiter.tryAcquire(pageAccessToken)) {
+            return client.sendOutboundMessageAsync(pageAccessToken, recipientId, message);
+        }
+
+        if (!enqueue(pageAccessToken)) {
+            return rejected("Send queue for page is full");
+        }
+
+        long waitNanos = rateLimiter.reserve(pageAccessToken, maxQueueDelayMillis, TimeUnit.MILLISECONDS);
+        if (waitNanos < 0) {
+            dequeue(pageAccessToken);
+            return rejected("Page is over its send budget");
+        }
+
+        totalQueueDepth.incrementAndGet();
+        QueuedSend send = new QueuedSend(pageAccessToken, recipientId, message);
+        queuedSends.add(send);
+        try {
+            scheduler.schedule(send, waitNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime.
+            send.reject("Scheduler is closed");
+        }
+        return send.future;
+    }
+
+    /**
+     * The number of messages waiting for a permit for the given page.
+     */
+    public int getQueueDepth(@NonNull String pageAccessToken) {
+        return queueDepths.getOrDefault(pageAccessToken, 0);
+    }
+
+    /**
+     * The number of messages waiting for a permit across all pages.
+     */
+    public int getQueueDepth() {
+        return totalQueueDepth.get();
+    }
+
+    /**
+     * Stops the scheduler. Messages that are still queued are not sent, and their futures fail with a
+     * {@link RateLimitExceededException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        queuedSends.forEach(send -> send.reject("Scheduler is closed"));
+    }
+
+    /**
+     * Counts a message as queued, unless the page's queue is full. Queue depths only change within
+     * compute, and pages with nothing queued are dropped, so a count can never get lost.
+     */
+    private boolean enqueue(String pageAccessToken) {
+        boolean[] enqueued = new boolean[1];
+        queueDepths.compute(pageAccessToken, (k, depth) -> {
+            int current = depth == null ? 0 : depth;
+            if (current >= maxQueueDepthPerPage) {
+                return depth;
+            }
+            enqueued[0] = true;
+            return current + 1;
+        });
+        return enqueued[0];
+    }
+
+    /**
+     * Counts a message as no longer queued.
+     */
+    private void dequeue(String pageAccessToken) {
+        queueDepths.computeIfPresent(pageAccessToken, (k, depth) -> depth == 1 ? null : depth - 1);
+    }
+
+    private static CompletableFuture<MessageResponse> rejected(String reason) {
+        log.debug("Rejected message: {}", reason);
+        CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+        future.completeExceptionally(new RateLimitExceededException(reason));
+        return future;
+    }
+
+    /**
+     * A message waiting for its permit. It is either sent or rejected, whichever claims it first.
+     */
+    private class QueuedSend implements Runnable {
+        private final String pageAccessToken;
+        private final String recipientId;
+        private final OutboundMessage message;
+        private final CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+
+        QueuedSend(String pageAccessToken, String recipientId, OutboundMessage message) {
+            this.pageAccessToken = pageAccessToken;
+            this.recipientId = recipientId;
+            this.message = message;
+        }
+
+        @Override
+        public void run() {
+            if (!claim()) {
+                return;
+            }
+            try {
+                client.sendOutboundMessageAsync(pageAccessToken, recipientId, message).whenComplete((response, e) -> {
+                    if (e == null) {
+                        future.complete(response);
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        void reject(String reason) {
+            if (claim()) {
+                log.debug("Rejected queued message: {}", reason);
+                future.completeExceptionally(new RateLimitExceededException(reason));
+            }
+        }
+
+        private boolean claim() {
+            if (!queuedSends.remove(this)) {
+                return false;
+            }
+            dequeue(pageAccessToken);
+            totalQueueDepth.decrementAndGet();
+            return true;
+        }
+    }
+}
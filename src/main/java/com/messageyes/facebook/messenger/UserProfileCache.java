@@ -0,0 +1,202 @@
+package com.messageyes.facebook.messenger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.UserProfile;
+
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caches user profiles looked up with {@link FacebookMessengerClient#getUserProfileAsync}, so that
+ * a burst of messages from the same user costs at most one Graph API request.
+ *
+ * Concurrent lookups of a profile that is not cached yet share a single request. Profiles are
+ * kept for ttlMillis. A profile read after refreshAfterMillis is still returned right away, and a
+ * single request in the background replaces it, so profiles that are in use never expire in front
+ * of a caller. A failed refresh keeps the old profile, and the next refresh waits another
+ * refreshAfterMillis, so a failing Graph API is not asked again on every read; a failed lookup is
+ * not cached, and the next lookup tries again. Once the cache holds maximumSize profiles, the
+ * least recently used go first.
+ *
+ * Profiles are cached per page and user, as user ids are scoped to a page.
+ */
+@Slf4j
+public class UserProfileCache {
+
+    private final FacebookMessengerClient client;
+    private final long refreshAfterNanos;
+    private final Ticker ticker;
+    private final Cache<Key, Entry> cache;
+
+    /**
+     * @param maximumSize how many profiles to keep at most
+     * @param ttlMillis how long a profile is kept after it was looked up
+     * @param refreshAfterMillis how old a profile has to be for a lookup to refresh it; at least
+     *        ttlMillis turns refreshing off
+     */
+    public UserProfileCache(@NonNull FacebookMessengerClient client, long maximumSize, long ttlMillis, long refreshAfterMillis) {
+        this(client, maximumSize, ttlMillis, refreshAfterMillis, Ticker.systemTicker());
+    }
+
+    UserProfileCache(@NonNull FacebookMessengerClient client, long maximumSize, long ttlMillis, long refreshAfterMillis, @NonNull Ticker ticker) {
+        checkArgument(maximumSize > 0, "maximumSize must be positive");
+        checkArgument(ttlMillis > 0, "ttlMillis must be positive");
+        checkArgument(refreshAfterMillis > 0, "refreshAfterMillis must be positive");
+
+        this.client = client;
+        this.refreshAfterNanos = TimeUnit.MILLISECONDS.toNanos(refreshAfterMillis);
+        this.ticker = ticker;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .ticker(ticker)
+            .build();
+    }
+
+    /**
+     * The user's profile, from the cache if it is there.
+     */
+    public UserProfile getUserProfile(@NonNull String pageAccessToken, @NonNull String userId) throws FacebookMessengerSendException {
+        try {
+            return getUserProfileAsync(pageAccessToken, userId).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FacebookMessengerSendException("Interrupted while getting user profile", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FacebookMessengerSendException) {
+                throw (FacebookMessengerSendException) e.getCause();
+            }
+            throw new FacebookMessengerSendException("Error getting user profile", e.getCause());
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #getUserProfile(String, String)}. Cached profiles are returned
+     * as completed futures. Every caller gets its own future, so cancelling or completing it does
+     * not affect the lookup shared with other callers.
+     */
+    public CompletableFuture<UserProfile> getUserProfileAsync(@NonNull String pageAccessToken, @NonNull String userId) {
+        Key key = new Key(pageAccessToken, userId);
+        Entry entry;
+        try {
+            entry = cache.get(key, () -> load(key));
+        } catch (ExecutionException e) {
+            CompletableFuture<UserProfile> future = new CompletableFuture<>();
+            future.completeExceptionally(e.getCause());
+            return future;
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+        if (entry.profile.isCompletedExceptionally()) {
+            // The lookup failed before its entry was added, so the entry could not remove itself.
+            cache.asMap().remove(key, entry);
+            return copy(entry.profile);
+        }
+        if (ticker.read() - entry.refreshAfterNanos >= 0 && entry.profile.isDone() && entry.refreshing.compareAndSet(false, true)) {
+            refresh(key, entry);
+        }
+        return copy(entry.profile);
+    }
+
+    /**
+     * Forgets the user's profile, e.g. after the user changed it.
+     */
+    public void invalidate(@NonNull String pageAccessToken, @NonNull String userId) {
+        cache.invalidate(new Key(pageAccessToken, userId));
+    }
+
+    /**
+     * Profiles cached or being looked up.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * A future that completes like the given one, with the same exception rather than a
+     * {@link java.util.concurrent.CompletionException}.
+     */
+    private static CompletableFuture<UserProfile> copy(CompletableFuture<UserProfile> profile) {
+        CompletableFuture<UserProfile> copy = new CompletableFuture<>();
+        profile.whenComplete((result, e) -> {
+            if (e != null) {
+                copy.completeExceptionally(e);
+            } else {
+                copy.complete(result);
+            }
+        });
+        return copy;
+    }
+
+    private Entry load(Key key) {
+        Entry entry = new Entry(client.getUserProfileAsync(key.pageAccessToken, key.userId), ticker.read() + refreshAfterNanos);
+        // Failures are not cached.
+        entry.profile.whenComplete((profile, e) -> {
+            if (e != null) {
+                cache.asMap().remove(key, entry);
+            }
+        });
+        return entry;
+    }
+
+    private void refresh(Key key, Entry entry) {
+        long start = ticker.read();
+        CompletableFuture<UserProfile> refreshed;
+        try {
+            refreshed = client.getUserProfileAsync(key.pageAccessToken, key.userId);
+        } catch (RuntimeException e) {
+            refreshFailed(key, entry, e);
+            return;
+        }
+        refreshed.whenComplete((profile, e) -> {
+            if (e != null) {
+                refreshFailed(key, entry, e);
+                return;
+            }
+            cache.asMap().replace(key, entry, new Entry(CompletableFuture.completedFuture(profile), start + refreshAfterNanos));
+        });
+    }
+
+    private void refreshFailed(Key key, Entry entry, Throwable e) {
+        log.debug("Keeping profile of user {} after failing to refresh it", key.userId, e);
+        entry.refreshAfterNanos = ticker.read() + refreshAfterNanos;
+        entry.refreshing.set(false);
+    }
+
+    @EqualsAndHashCode
+    private static class Key {
+        private final String pageAccessToken;
+        private final String userId;
+
+        Key(String pageAccessToken, String userId) {
+            this.pageAccessToken = pageAccessToken;
+            this.userId = userId;
+        }
+    }
+
+    private static class Entry {
+        private final CompletableFuture<UserProfile> profile;
+        /**
+         * Ticker time from which a read refreshes the profile. Only written while refreshing is set.
+         */
+        private volatile long refreshAfterNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(CompletableFuture<UserProfile> profile, long refreshAfterNanos) {
+            this.profile = profile;
+            this.refreshAfterNanos = refreshAfterNanos;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.messageyes.facebook.messenger;
+
+/**
+ * What an {@link OutboundMessageValidator} does with text that is longer than Facebook allows.
+ * Limits that Facebook enforces by rejecting the message, such as the number of quick replies,
+ * always fail the send.
+ */
+public enum ValidationMode {
+    /**
+     * Fails the send with an IllegalArgumentException.
+     */
+    STRICT,
+
+    /**
+     * Shortens the text to the limit, in place.
+     */
+    TRUNCATE,
+
+    /**
+     * Sends the message as it is, counts the violation and logs a warning now and then.
+     */
+    WARN
+}
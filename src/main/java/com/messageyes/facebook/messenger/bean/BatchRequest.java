@@ -0,0 +1,26 @@
+package com.messageyes.facebook.messenger.bean;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+
+/**
+ * One operation inside a Graph API batch request. Up to 50 of them can be sent in a single HTTP
+ * request; the body uses the same form encoding that a standalone request would.
+ *
+ * https://developers.facebook.com/docs/graph-api/making-multiple-requests
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(Include.NON_NULL)
+public class BatchRequest {
+    private String method;
+
+    @JsonProperty("relative_url")
+    private String relativeUrl;
+
+    private String body;
+}
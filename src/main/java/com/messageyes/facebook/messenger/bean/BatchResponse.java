@@ -0,0 +1,19 @@
+package com.messageyes.facebook.messenger.bean;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import lombok.Data;
+
+/**
+ * The result of one {@link BatchRequest}. The Graph API returns these in the same order as the
+ * requests were given. The body is the JSON that a standalone request would have returned, as a
+ * string, e.g. a {@link MessageResponse} or an {@link ErrorResponse}.
+ *
+ * https://developers.facebook.com/docs/graph-api/making-multiple-requests
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BatchResponse {
+    private Integer code;
+    private String body;
+}
@@ -0,0 +1,12 @@
+package com.messageyes.facebook.messenger.bean;
+
+import lombok.Data;
+
+/**
+ * Totals of a finished broadcast. The outcome of each recipient is reported while the broadcast runs.
+ */
+@Data
+public class BroadcastResult {
+    private long sentCount;
+    private long failedCount;
+}
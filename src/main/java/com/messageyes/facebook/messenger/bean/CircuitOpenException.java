@@ -0,0 +1,13 @@
+package com.messageyes.facebook.messenger.bean;
+
+/**
+ * Thrown without contacting the Facebook API when recent sends for the same page or end point have
+ * failed often enough for its circuit breaker to open.
+ */
+public class CircuitOpenException extends FacebookMessengerSendException {
+    private static final long serialVersionUID = 3470581262458962114L;
+
+    public CircuitOpenException(String message) {
+        super(message, null);
+    }
+}
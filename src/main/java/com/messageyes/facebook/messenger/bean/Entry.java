@@ -2,9 +2,15 @@ package com.messageyes.facebook.messenger.bean;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.messageyes.facebook.messenger.id.Ids;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
  * A {@link Callback} is composed of a list of Entry instances.
@@ -18,9 +24,38 @@ import lombok.Data;
  * @see Callback
  */
 @Data
+@ToString(exclude = "parsedId")
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Entry {
+    private static final long UNPARSED = Long.MIN_VALUE;
+
     private String id;
     private Long time;
     private List<Messaging> messaging;
+
+    /**
+     * The page id parsed by {@link #getLongId()}, or UNPARSED until it is first asked for. Transient,
+     * so equals and hashCode ignore it.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient volatile long parsedId = UNPARSED;
+
+    public void setId(String id) {
+        this.id = id;
+        this.parsedId = UNPARSED;
+    }
+
+    /**
+     * The page id as a long, or {@link Ids#NO_ID} if it is not numeric. Parsed on the first call.
+     */
+    @JsonIgnore
+    public long getLongId() {
+        long longId = parsedId;
+        if (longId == UNPARSED) {
+            longId = Ids.parse(id);
+            parsedId = longId;
+        }
+        return longId;
+    }
 }
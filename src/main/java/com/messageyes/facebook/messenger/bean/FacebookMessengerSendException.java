@@ -15,4 +15,15 @@ public class FacebookMessengerSendException extends Exception {
         errorCode = error.getCode();
         errorSubCode = error.getErrorSubcode();
     }
+
+    /**
+     * Used when a message could not be sent for reasons other than an error returned by the
+     * Facebook API, such as a transport failure. The error codes are null in that case.
+     */
+    public FacebookMessengerSendException(String message, Throwable cause) {
+        super(message, cause);
+
+        errorCode = null;
+        errorSubCode = null;
+    }
 }
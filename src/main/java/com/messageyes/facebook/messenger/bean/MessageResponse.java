@@ -19,4 +19,10 @@ public class MessageResponse {
 
     @JsonProperty("message_id")
     private String messageId;
+
+    /**
+     * Set when the message saved a reusable attachment.
+     */
+    @JsonProperty("attachment_id")
+    private String attachmentId;
 }
@@ -38,6 +38,19 @@ public class OutboundPayload {
      */
     private String url;
 
+    /**
+     * Asks Facebook to keep the attachment at url, so that later messages of the page can send it
+     * by attachmentId. The id is returned in the {@link MessageResponse}.
+     */
+    @JsonProperty("is_reusable")
+    private Boolean reusable;
+
+    /**
+     * Id of an attachment saved earlier by sending it with reusable set. Replaces the url.
+     */
+    @JsonProperty("attachment_id")
+    private String attachmentId;
+
     /**
      * The message template type. Used by message templates.
      */
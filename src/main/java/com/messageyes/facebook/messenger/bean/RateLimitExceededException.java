@@ -0,0 +1,13 @@
+package com.messageyes.facebook.messenger.bean;
+
+/**
+ * Thrown when a message is not sent because its page has used up its send budget and the message
+ * could not be queued.
+ */
+public class RateLimitExceededException extends FacebookMessengerSendException {
+    private static final long serialVersionUID = -2315843014373093628L;
+
+    public RateLimitExceededException(String message) {
+        super(message, null);
+    }
+}
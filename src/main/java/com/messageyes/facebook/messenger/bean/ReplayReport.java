@@ -0,0 +1,27 @@
+package com.messageyes.facebook.messenger.bean;
+
+import lombok.Data;
+
+/**
+ * Results of replaying a capture log. Latencies run from when a request was due, according to its
+ * recorded arrival time and the replay speed, to when the pipeline finished with it, so they include
+ * any time the request had to wait for earlier ones.
+ */
+@Data
+public class ReplayReport {
+    private long requestCount;
+
+    /**
+     * Requests the pipeline rejected or failed on.
+     */
+    private long failedCount;
+
+    private long elapsedNanos;
+    private double requestsPerSecond;
+
+    private long p50LatencyNanos;
+    private long p90LatencyNanos;
+    private long p99LatencyNanos;
+    private long p999LatencyNanos;
+    private long maxLatencyNanos;
+}
@@ -1,8 +1,14 @@
 package com.messageyes.facebook.messenger.bean;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.messageyes.facebook.messenger.id.Ids;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
  * The user ids that the Facebook Messenger platform uses are page-scoped IDs (PSID).
@@ -11,7 +17,36 @@ import lombok.Data;
  * https://developers.facebook.com/docs/messenger-platform/webhook-reference
  */
 @Data
+@ToString(exclude = "parsedId")
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class User {
+    private static final long UNPARSED = Long.MIN_VALUE;
+
     private String id;
+
+    /**
+     * Filled in by the first {@link #getLongId()}, so that ids nobody asks for as a long are never
+     * parsed. Transient to keep it out of equals and hashCode.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient volatile long parsedId = UNPARSED;
+
+    public void setId(String id) {
+        this.id = id;
+        this.parsedId = UNPARSED;
+    }
+
+    /**
+     * The id as a long, or {@link Ids#NO_ID} if it is not numeric. Parsed on the first call.
+     */
+    @JsonIgnore
+    public long getLongId() {
+        long longId = parsedId;
+        if (longId == UNPARSED) {
+            longId = Ids.parse(id);
+            parsedId = longId;
+        }
+        return longId;
+    }
 }
@@ -0,0 +1,36 @@
+package com.messageyes.facebook.messenger.bean;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+
+/**
+ * Public profile of a user, as far as the page is allowed to see it.
+ *
+ * https://developers.facebook.com/docs/messenger-platform/user-profile
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class UserProfile {
+    @JsonProperty("first_name")
+    private String firstName;
+
+    @JsonProperty("last_name")
+    private String lastName;
+
+    /**
+     * URL of the profile picture. It expires after a while, so it should not be stored.
+     */
+    @JsonProperty("profile_pic")
+    private String profilePic;
+
+    private String locale;
+
+    /**
+     * Offset from UTC in hours, e.g. -7 or 5.5.
+     */
+    private Double timezone;
+
+    private String gender;
+}
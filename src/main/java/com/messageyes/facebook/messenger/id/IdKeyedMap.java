@@ -0,0 +1,103 @@
+package com.messageyes.facebook.messenger.id;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import lombok.NonNull;
+
+/**
+ * A concurrent map keyed by Facebook ids, for state kept per user or per page.
+ *
+ * Numeric ids, which is what Facebook sends, are kept as longs in lock-striped
+ * {@link LongObjectHashMap}s, so a mapping costs two array slots instead of a String, a boxed
+ * hash node and its entry. Any other id falls back to a {@link ConcurrentHashMap}, so callers never
+ * need to care which kind of id they have. Both can be looked up by String; numeric ids can also
+ * be looked up by long without creating a String.
+ */
+public class IdKeyedMap<V> {
+
+    private static final int STRIPES = 16;
+
+    @SuppressWarnings("unchecked")
+    private final LongObjectHashMap<V>[] stripes = (LongObjectHashMap<V>[]) new LongObjectHashMap<?>[STRIPES];
+    private final ConcurrentMap<String, V> others = new ConcurrentHashMap<>();
+
+    public IdKeyedMap() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongObjectHashMap<>();
+        }
+    }
+
+    public V get(@NonNull String id) {
+        long numericId = Ids.parse(id);
+        return numericId == Ids.NO_ID ? others.get(id) : get(numericId);
+    }
+
+    public V get(long id) {
+        LongObjectHashMap<V> stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.get(id);
+        }
+    }
+
+    /**
+     * Replaces the value of the id with what the function returns for the current value, which is
+     * null if there is none. Returning null removes the mapping. The function runs atomically with
+     * respect to other changes to the same id, and must be quick, since it may hold up other ids.
+     *
+     * @return the new value
+     */
+    public V compute(@NonNull String id, @NonNull UnaryOperator<V> function) {
+        long numericId = Ids.parse(id);
+        if (numericId == Ids.NO_ID) {
+            return others.compute(id, (k, value) -> function.apply(value));
+        }
+        return compute(numericId, function);
+    }
+
+    /**
+     * @see #compute(String, UnaryOperator)
+     */
+    public V compute(long id, @NonNull UnaryOperator<V> function) {
+        LongObjectHashMap<V> stripe = stripe(id);
+        synchronized (stripe) {
+            V value = function.apply(stripe.get(id));
+            if (value == null) {
+                stripe.remove(id);
+            } else {
+                stripe.put(id, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Removes every value the predicate matches. Each value is tested atomically with respect to
+     * changes to its id.
+     */
+    public void removeIf(@NonNull Predicate<? super V> predicate) {
+        for (LongObjectHashMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.removeIf((id, value) -> predicate.test(value));
+            }
+        }
+        others.forEach((id, value) -> others.computeIfPresent(id, (k, current) -> predicate.test(current) ? null : current));
+    }
+
+    public int size() {
+        int size = others.size();
+        for (LongObjectHashMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private LongObjectHashMap<V> stripe(long id) {
+        // Sequential ids should still spread over the stripes.
+        return stripes[(int) ((id * 0x9e3779b97f4a7c15L) >>> 60)];
+    }
+}
@@ -0,0 +1,73 @@
+package com.messageyes.facebook.messenger.id;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Page-scoped user ids and page ids are decimal numbers sent as strings. These helpers convert
+ * them to and from longs, which take no allocation to store, hash or compare.
+ *
+ * Only ids that survive the round trip are converted: up to 18 digits, without a sign or leading
+ * zeros. Anything else is {@link #NO_ID}, and should be kept as a string.
+ */
+public final class Ids {
+
+    /**
+     * Not an id, or one that cannot be represented as a long.
+     */
+    public static final long NO_ID = -1;
+
+    /**
+     * Every number with this many digits fits in a long.
+     */
+    private static final int MAX_DIGITS = 18;
+
+    private Ids() {
+    }
+
+    public static long parse(CharSequence id) {
+        if (id == null || !isValidLength(id.length()) || (id.charAt(0) == '0' && id.length() > 1)) {
+            return NO_ID;
+        }
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            int digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_ID;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the id without creating a String, e.g. from
+     * {@link com.fasterxml.jackson.core.JsonParser#getTextCharacters()}.
+     */
+    public static long parse(char[] chars, int offset, int length) {
+        if (!isValidLength(length) || (chars[offset] == '0' && length > 1)) {
+            return NO_ID;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_ID;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * The id as Facebook sends it.
+     */
+    public static String toString(long id) {
+        checkArgument(id >= 0, "id cannot be negative");
+
+        return Long.toString(id);
+    }
+
+    private static boolean isValidLength(int length) {
+        return length > 0 && length <= MAX_DIGITS;
+    }
+}
@@ -0,0 +1,198 @@
+package com.messageyes.facebook.messenger.id;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import lombok.NonNull;
+
+/**
+ * A hash map from long keys to non-null values, without boxing the keys or allocating an entry
+ * per mapping. Keys and values live in two parallel arrays that are probed linearly, and removal
+ * shifts later entries back instead of leaving tombstones.
+ *
+ * Not thread-safe; see {@link IdKeyedMap} for a concurrent map keyed by ids.
+ */
+public class LongObjectHashMap<V> {
+
+    private static final int MIN_CAPACITY = 4;
+    private static final long PHI = 0x9e3779b97f4a7c15L;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of mappings the map can hold without growing
+     */
+    public LongObjectHashMap(int expectedSize) {
+        checkArgument(expectedSize >= 0 && expectedSize <= 1 << 29, "expectedSize must be between 0 and 2^29");
+
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize * 2 - 1)) << 1);
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return values[find(key)] != null;
+    }
+
+    /**
+     * The value of the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) values[find(key)];
+    }
+
+    /**
+     * @return the previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, @NonNull V value) {
+        int slot = find(key);
+        V previous = (V) values[slot];
+        if (previous == null) {
+            if ((size + 1) * 2 > values.length) {
+                grow();
+                slot = find(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        return previous;
+    }
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = find(key);
+        V previous = (V) values[slot];
+        if (previous != null) {
+            removeAt(slot);
+        }
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Calls the consumer with every mapping, in no particular order. The map must not be changed
+     * while doing so.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(@NonNull EntryConsumer<? super V> consumer) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                consumer.accept(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Removes every mapping the predicate matches.
+     *
+     * @return the number of mappings removed
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(@NonNull EntryPredicate<? super V> predicate) {
+        int removed = 0;
+        int slot = 0;
+        // Start at an empty slot, so no entry can be shifted back past the start of the scan and
+        // entries wrapping around the end are seen exactly once.
+        while (values[slot] != null) {
+            slot++;
+        }
+        int current = (slot + 1) & mask;
+        for (int visited = 0; visited < values.length;) {
+            if (values[current] != null && predicate.test(keys[current], (V) values[current])) {
+                // Another entry may be shifted into this slot, so look at it again.
+                removeAt(current);
+                removed++;
+            } else {
+                current = (current + 1) & mask;
+                visited++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * The slot of the key, or the empty slot where it would go.
+     */
+    private int find(long key) {
+        int slot = slot(key);
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int slot(long key) {
+        long hash = key * PHI;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Empties the slot and moves back any following entry that would otherwise no longer be found.
+     */
+    private void removeAt(int slot) {
+        size--;
+        int empty = slot;
+        for (int current = (slot + 1) & mask; values[current] != null; current = (current + 1) & mask) {
+            int home = slot(keys[current]);
+            // Move the entry if its home slot is not between the empty slot and where it is now.
+            if (((current - home) & mask) >= ((current - empty) & mask)) {
+                keys[empty] = keys[current];
+                values[empty] = values[current];
+                empty = current;
+            }
+        }
+        values[empty] = null;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(values.length * 2);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != null) {
+                int newSlot = find(oldKeys[slot]);
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    public interface EntryPredicate<V> {
+        boolean test(long key, V value);
+    }
+}
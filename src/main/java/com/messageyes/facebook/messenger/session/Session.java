@@ -0,0 +1,31 @@
+package com.messageyes.facebook.messenger.session;
+
+import lombok.Data;
+
+/**
+ * Conversation state kept per user and page by a {@link SessionStore}. Sessions are stored as
+ * compact binary records, so their encoded size is limited by
+ * {@link SessionStoreConfig#getMaxSessionBytes()}.
+ */
+@Data
+public class Session {
+    /**
+     * Where the user is in the bot's conversation flow. Set by the application.
+     */
+    private String flowStep;
+
+    /**
+     * Payload of the last postback the user sent.
+     */
+    private String lastPostbackPayload;
+
+    /**
+     * Payload of the last quick reply the user chose.
+     */
+    private String quickReplyContext;
+
+    /**
+     * Timestamp of the last event of the user.
+     */
+    private Long lastEventTimestamp;
+}
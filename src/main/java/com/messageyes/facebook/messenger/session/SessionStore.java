@@ -0,0 +1,496 @@
+package com.messageyes.facebook.messenger.session;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+import com.messageyes.facebook.messenger.id.Ids;
+
+import lombok.NonNull;
+
+/**
+ * Keeps a {@link Session} per page and user outside the Java heap, so that millions of
+ * conversations add nothing to garbage collection. Sessions expire ttlMillis after they were last
+ * written, and when a segment is full the session closest to expiring in a small sample is evicted
+ * to make room.
+ *
+ * The store is split into independently locked segments of fixed size slots, which are open
+ * addressing tables with linear probing. A slot holds:
+ *
+ * <pre>
+ * long  page id
+ * long  user id
+ * long  expiry, in epoch milliseconds, or 0 if the slot is empty
+ * int   length of the encoded session
+ * byte* the encoded session
+ * </pre>
+ *
+ * With {@link SessionStoreConfig#getFile()} set, each segment is a memory mapping of that file,
+ * and the sessions are still there when the store is opened again after a restart, instead of
+ * every conversation starting over at once. The operating system writes the mapping back to the
+ * file on its own schedule; {@link #flush()} forces it. Ids are the numeric ids Facebook sends, as
+ * read by {@link Ids}.
+ */
+public class SessionStore implements Closeable {
+
+    public static final int MAGIC = 0x46424d53;
+    public static final short VERSION = 1;
+
+    static final int FILE_HEADER_SIZE = 64;
+
+    private static final int PAGE_OFFSET = 0;
+    private static final int SENDER_OFFSET = 8;
+    private static final int EXPIRES_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int VALUE_OFFSET = 28;
+
+    private static final long EMPTY = 0;
+    private static final long PHI = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Occupied slots looked at to pick a session to evict.
+     */
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final Segment[] segments;
+    private final int slotSize;
+    private final int maxSessionBytes;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final FileChannel channel;
+
+    /**
+     * @throws IOException if the file cannot be mapped, or was written with a different layout
+     */
+    public SessionStore(@NonNull SessionStoreConfig config) throws IOException {
+        this(config, System::currentTimeMillis);
+    }
+
+    SessionStore(@NonNull SessionStoreConfig config, @NonNull LongSupplier clock) throws IOException {
+        checkArgument(config.getSegments() >= 1 && config.getSegments() <= 1 << 16, "segments must be between 1 and 2^16");
+        checkArgument(config.getSlotsPerSegment() >= 2 && config.getSlotsPerSegment() <= 1 << 30, "slotsPerSegment must be between 2 and 2^30");
+        checkArgument(config.getMaxSessionBytes() >= 0 && config.getMaxSessionBytes() <= 1 << 16, "maxSessionBytes must be between 0 and 2^16");
+        checkArgument(config.getTtlMillis() > 0, "ttlMillis must be positive");
+
+        int segmentCount = roundUpToPowerOfTwo(config.getSegments());
+        int slots = roundUpToPowerOfTwo(config.getSlotsPerSegment());
+        this.slotSize = (VALUE_OFFSET + config.getMaxSessionBytes() + 7) & ~7;
+        checkArgument((long) slots * slotSize <= Integer.MAX_VALUE, "a segment must not be larger than 2 GB");
+
+        this.maxSessionBytes = config.getMaxSessionBytes();
+        this.ttlMillis = config.getTtlMillis();
+        this.clock = clock;
+        this.segments = new Segment[segmentCount];
+
+        int segmentBytes = slots * slotSize;
+        if (config.getFile() == null) {
+            this.channel = null;
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = new Segment(ByteBuffer.allocateDirect(segmentBytes), slots, slotSize);
+            }
+            return;
+        }
+
+        this.channel = FileChannel.open(config.getFile(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long fileSize = FILE_HEADER_SIZE + (long) segmentCount * segmentBytes;
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putInt(segmentCount).putInt(slots).putInt(slotSize).clear();
+            if (channel.size() == 0) {
+                channel.write(header, 0);
+            } else {
+                ByteBuffer existing = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                channel.read(existing, 0);
+                existing.clear();
+                if (existing.getInt(0) != MAGIC) {
+                    throw new IOException("Not a session store: " + config.getFile());
+                }
+                if (!existing.equals(header) || channel.size() != fileSize) {
+                    throw new IOException("Session store was written with a different layout: " + config.getFile());
+                }
+            }
+            for (int i = 0; i < segmentCount; i++) {
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, FILE_HEADER_SIZE + (long) i * segmentBytes, segmentBytes);
+                segments[i] = new Segment(mapping, slots, slotSize);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The user's session with the page, or null if there is none or it has expired.
+     *
+     * @throws IllegalArgumentException if an id is not numeric
+     */
+    public Session get(String pageId, String userId) {
+        return get(toId(pageId), toId(userId));
+    }
+
+    public Session get(long pageId, long userId) {
+        long hash = hash(pageId, userId);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            int slot = segment.find(pageId, userId, hash);
+            if (segment.expires(slot) == EMPTY) {
+                return null;
+            }
+            if (segment.expires(slot) <= clock.getAsLong()) {
+                segment.removeAt(slot);
+                return null;
+            }
+            return decode(segment.buffer, segment.offset(slot));
+        }
+    }
+
+    /**
+     * Stores the session and restarts its time to live, evicting another session of the segment if
+     * it is full.
+     *
+     * @throws IllegalArgumentException if an id is not numeric, or the session takes more than
+     *     maxSessionBytes
+     */
+    public void put(String pageId, String userId, @NonNull Session session) {
+        put(toId(pageId), toId(userId), session);
+    }
+
+    public void put(long pageId, long userId, @NonNull Session session) {
+        byte[] encoded = encode(session);
+        long hash = hash(pageId, userId);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            segment.put(pageId, userId, hash, encoded, clock.getAsLong() + ttlMillis);
+        }
+    }
+
+    /**
+     * Updates the session atomically: no other thread reads or writes the user's session with the
+     * page in the meantime. The function is called with null if there is no session, and the
+     * session is removed if it returns null. It should be quick, as it holds up every other
+     * session of the segment.
+     *
+     * @return what the function returned
+     * @throws IllegalArgumentException if an id is not numeric, or the updated session takes more
+     *     than maxSessionBytes, in which case the stored session is left as it was
+     */
+    public Session compute(String pageId, String userId, @NonNull UnaryOperator<Session> function) {
+        return compute(toId(pageId), toId(userId), function);
+    }
+
+    public Session compute(long pageId, long userId, @NonNull UnaryOperator<Session> function) {
+        long hash = hash(pageId, userId);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            long now = clock.getAsLong();
+            int slot = segment.find(pageId, userId, hash);
+            long expires = segment.expires(slot);
+            Session current = expires == EMPTY || expires <= now ? null : decode(segment.buffer, segment.offset(slot));
+            Session updated = function.apply(current);
+            if (updated == null) {
+                if (expires != EMPTY) {
+                    segment.removeAt(slot);
+                }
+            } else {
+                segment.put(pageId, userId, hash, encode(updated), now + ttlMillis);
+            }
+            return updated;
+        }
+    }
+
+    /**
+     * @return whether there was a session
+     */
+    public boolean remove(String pageId, String userId) {
+        return remove(toId(pageId), toId(userId));
+    }
+
+    public boolean remove(long pageId, long userId) {
+        long hash = hash(pageId, userId);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            int slot = segment.find(pageId, userId, hash);
+            if (segment.expires(slot) == EMPTY) {
+                return false;
+            }
+            segment.removeAt(slot);
+            return true;
+        }
+    }
+
+    /**
+     * Removes every expired session. Expired sessions are never returned, and they make room for
+     * new ones first, so this only needs to run to keep {@link #size()} accurate.
+     *
+     * @return the number of sessions removed
+     */
+    public int evictExpired() {
+        int removed = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                removed += segment.evictExpired(clock.getAsLong());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Sessions held, including expired ones that have not been removed yet.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the sessions back to the file. Does nothing without a file.
+     */
+    public void flush() {
+        if (channel == null) {
+            return;
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                ((MappedByteBuffer) segment.buffer).force();
+            }
+        }
+    }
+
+    /**
+     * Flushes the sessions and closes the file. The memory itself is released once the store is
+     * garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+
+    private static long toId(String id) {
+        long value = Ids.parse(id);
+        checkArgument(value != Ids.NO_ID, "not a numeric id: %s", id);
+        return value;
+    }
+
+    private static long hash(long pageId, long userId) {
+        long hash = (pageId * PHI + userId) * PHI;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Strings are written as a short length followed by UTF-8, with a length of -1 for null.
+     */
+    private byte[] encode(Session session) {
+        ByteBuffer buffer = ByteBuffer.allocate(maxSessionBytes);
+        try {
+            putString(buffer, session.getFlowStep());
+            putString(buffer, session.getLastPostbackPayload());
+            putString(buffer, session.getQuickReplyContext());
+            if (session.getLastEventTimestamp() == null) {
+                buffer.put((byte) 0);
+            } else {
+                buffer.put((byte) 1).putLong(session.getLastEventTimestamp());
+            }
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException("session takes more than " + maxSessionBytes + " bytes", e);
+        }
+        byte[] encoded = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new BufferOverflowException();
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static Session decode(ByteBuffer segmentBuffer, int slotOffset) {
+        ByteBuffer buffer = segmentBuffer.duplicate();
+        buffer.position(slotOffset + VALUE_OFFSET);
+        Session session = new Session();
+        session.setFlowStep(getString(buffer));
+        session.setLastPostbackPayload(getString(buffer));
+        session.setQuickReplyContext(getString(buffer));
+        if (buffer.get() != 0) {
+            session.setLastEventTimestamp(buffer.getLong());
+        }
+        return session;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One open addressing table of slots. At most three quarters of the slots are used, so probing
+     * always ends at an empty slot. Not thread safe; the store locks the segment.
+     */
+    private static class Segment {
+        private final ByteBuffer buffer;
+        private final int slotSize;
+        private final int mask;
+        private final int maxSize;
+        private int size;
+
+        Segment(ByteBuffer buffer, int slots, int slotSize) {
+            this.buffer = buffer;
+            this.slotSize = slotSize;
+            this.mask = slots - 1;
+            this.maxSize = Math.max(1, slots / 4 * 3);
+            for (int slot = 0; slot < slots; slot++) {
+                if (expires(slot) != EMPTY) {
+                    size++;
+                }
+            }
+        }
+
+        int offset(int slot) {
+            return slot * slotSize;
+        }
+
+        long expires(int slot) {
+            return buffer.getLong(offset(slot) + EXPIRES_OFFSET);
+        }
+
+        /**
+         * The slot of the key, or the empty slot where it would go.
+         */
+        int find(long pageId, long userId, long hash) {
+            int slot = (int) hash & mask;
+            while (expires(slot) != EMPTY
+                && (buffer.getLong(offset(slot) + PAGE_OFFSET) != pageId || buffer.getLong(offset(slot) + SENDER_OFFSET) != userId)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void put(long pageId, long userId, long hash, byte[] encoded, long expires) {
+            int slot = find(pageId, userId, hash);
+            if (expires(slot) == EMPTY) {
+                if (size >= maxSize) {
+                    evictOne();
+                    slot = find(pageId, userId, hash);
+                }
+                size++;
+            }
+            int offset = offset(slot);
+            buffer.putLong(offset + PAGE_OFFSET, pageId);
+            buffer.putLong(offset + SENDER_OFFSET, userId);
+            buffer.putLong(offset + EXPIRES_OFFSET, expires);
+            buffer.putInt(offset + LENGTH_OFFSET, encoded.length);
+            ByteBuffer value = buffer.duplicate();
+            value.position(offset + VALUE_OFFSET);
+            value.put(encoded);
+        }
+
+        /**
+         * Removes the session closest to expiring among a few from a random place in the table.
+         * Expired sessions are always the closest.
+         */
+        private void evictOne() {
+            int slot = ThreadLocalRandom.current().nextInt(mask + 1);
+            int victim = -1;
+            long victimExpires = Long.MAX_VALUE;
+            for (int sampled = 0; sampled < EVICTION_SAMPLE && sampled < size; slot = (slot + 1) & mask) {
+                long expires = expires(slot);
+                if (expires != EMPTY) {
+                    sampled++;
+                    if (expires < victimExpires) {
+                        victim = slot;
+                        victimExpires = expires;
+                    }
+                }
+            }
+            removeAt(victim);
+        }
+
+        int evictExpired(long now) {
+            int removed = 0;
+            int slot = 0;
+            // Start at an empty slot, so no session can be shifted back past the start of the scan
+            // and sessions wrapping around the end are seen exactly once.
+            while (expires(slot) != EMPTY) {
+                slot++;
+            }
+            int current = (slot + 1) & mask;
+            for (int visited = 0; visited <= mask;) {
+                long expires = expires(current);
+                if (expires != EMPTY && expires <= now) {
+                    // Another session may be shifted into this slot, so look at it again.
+                    removeAt(current);
+                    removed++;
+                } else {
+                    current = (current + 1) & mask;
+                    visited++;
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Empties the slot and moves back any following session that would otherwise no longer be
+         * found.
+         */
+        void removeAt(int slot) {
+            int gap = slot;
+            for (int current = (gap + 1) & mask; expires(current) != EMPTY; current = (current + 1) & mask) {
+                int offset = offset(current);
+                int home = (int) hash(buffer.getLong(offset + PAGE_OFFSET), buffer.getLong(offset + SENDER_OFFSET)) & mask;
+                if (((current - home) & mask) >= ((current - gap) & mask)) {
+                    copy(current, gap);
+                    gap = current;
+                }
+            }
+            buffer.putLong(offset(gap) + EXPIRES_OFFSET, EMPTY);
+            size--;
+        }
+
+        private void copy(int from, int to) {
+            int fromOffset = offset(from);
+            int toOffset = offset(to);
+            int length = VALUE_OFFSET + buffer.getInt(fromOffset + LENGTH_OFFSET);
+            for (int i = 0; i < length; i += 8) {
+                buffer.putLong(toOffset + i, buffer.getLong(fromOffset + i));
+            }
+        }
+    }
+}
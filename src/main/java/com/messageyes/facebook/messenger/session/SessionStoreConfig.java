@@ -0,0 +1,39 @@
+package com.messageyes.facebook.messenger.session;
+
+import java.nio.file.Path;
+
+import lombok.Data;
+
+/**
+ * Layout and eviction settings of a {@link SessionStore}. Memory use is fixed upfront at roughly
+ * segments * slotsPerSegment * (maxSessionBytes + 28) bytes, none of it on the Java heap.
+ */
+@Data
+public class SessionStoreConfig {
+    /**
+     * Number of independently locked segments. More segments let more threads work at once.
+     */
+    private int segments = 16;
+
+    /**
+     * Slots in each segment, rounded up to a power of two. At most three quarters of them are used,
+     * so the store holds up to segments * slotsPerSegment * 3 / 4 sessions before it evicts.
+     */
+    private int slotsPerSegment = 65536;
+
+    /**
+     * Largest encoded session. Every slot reserves this much.
+     */
+    private int maxSessionBytes = 200;
+
+    /**
+     * How long after it was last written a session expires.
+     */
+    private long ttlMillis = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Keeps the sessions in this memory-mapped file when set, so they survive restarts. A file
+     * written with a different layout is rejected.
+     */
+    private Path file;
+}
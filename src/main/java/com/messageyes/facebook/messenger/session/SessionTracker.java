@@ -0,0 +1,80 @@
+package com.messageyes.facebook.messenger.session;
+
+import java.util.function.Consumer;
+
+import com.messageyes.facebook.messenger.bean.InboundMessage;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.User;
+import com.messageyes.facebook.messenger.id.Ids;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Updates the sender's {@link Session} from each webhook event before passing it on, so that
+ * handlers further down, e.g. an {@link com.messageyes.facebook.messenger.webhook.EventDispatcher},
+ * find it current in the {@link SessionStore}.
+ *
+ * Postbacks set the last postback payload, quick replies the quick reply context, and every event
+ * with a timestamp the last event timestamp. Delivery and read receipts are passed on without
+ * touching the session, as are events whose ids are not numeric. An update that would make the
+ * session larger than {@link SessionStoreConfig#getMaxSessionBytes()} is logged and skipped, and
+ * the event is passed on all the same.
+ */
+@Slf4j
+public class SessionTracker implements Consumer<Messaging> {
+
+    private final SessionStore store;
+    private final Consumer<Messaging> downstream;
+
+    /**
+     * @param downstream receives every event once the session is updated
+     */
+    public SessionTracker(@NonNull SessionStore store, @NonNull Consumer<Messaging> downstream) {
+        this.store = store;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(Messaging messaging) {
+        try {
+            update(messaging);
+        } catch (IllegalArgumentException e) {
+            log.warn("Session of user {} with page {} not updated: {}", getId(messaging.getSender()), getId(messaging.getRecipient()), e.getMessage());
+        }
+        downstream.accept(messaging);
+    }
+
+    private void update(Messaging messaging) {
+        if (messaging.getMessage() == null && messaging.getPostback() == null && messaging.getOptin() == null) {
+            return;
+        }
+        long pageId = getLongId(messaging.getRecipient());
+        long userId = getLongId(messaging.getSender());
+        if (pageId == Ids.NO_ID || userId == Ids.NO_ID) {
+            return;
+        }
+        store.compute(pageId, userId, session -> {
+            Session updated = session == null ? new Session() : session;
+            InboundMessage message = messaging.getMessage();
+            if (message != null && message.getQuickReply() != null) {
+                updated.setQuickReplyContext(message.getQuickReply().getPayload());
+            }
+            if (messaging.getPostback() != null) {
+                updated.setLastPostbackPayload(messaging.getPostback().getPayload());
+            }
+            if (messaging.getTimestamp() != null) {
+                updated.setLastEventTimestamp(messaging.getTimestamp());
+            }
+            return updated;
+        });
+    }
+
+    private static String getId(User user) {
+        return user == null ? null : user.getId();
+    }
+
+    private static long getLongId(User user) {
+        return user == null ? Ids.NO_ID : user.getLongId();
+    }
+}
@@ -0,0 +1,152 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+
+import com.messageyes.facebook.messenger.bean.Messaging;
+
+import lombok.NonNull;
+
+/**
+ * Verifies and parses a webhook request body in a single pass over the stream. Every byte read is
+ * fed to the signature {@link Mac} and to the streaming {@link CallbackParser} at the same time, so
+ * the body never has to be held in memory as a whole, neither as bytes nor as a String.
+ *
+ * Parsed events are held back until the end of the body has been reached and the signature has been
+ * checked, and are only passed on if it matches. Nothing from an unsigned or forged request reaches
+ * the consumer.
+ */
+public class CallbackIngester {
+
+    private static final int DRAIN_BUFFER_SIZE = 512;
+
+    private final SignatureVerifier signatureVerifier;
+    private final CallbackParser callbackParser;
+
+    public CallbackIngester(@NonNull String appSecretKey) {
+        this(new SignatureVerifier(appSecretKey), new CallbackParser());
+    }
+
+    public CallbackIngester(@NonNull SignatureVerifier signatureVerifier, @NonNull CallbackParser callbackParser) {
+        this.signatureVerifier = signatureVerifier;
+        this.callbackParser = callbackParser;
+    }
+
+    /**
+     * Reads the body to its end, checks the signature and, if it matches, passes every event of the
+     * callback to the consumer in order. The stream is not closed.
+     *
+     * @param signature the X-Hub-Signature header
+     * @throws IOException if the body cannot be read, or if it is correctly signed but not valid
+     *         JSON. A body that is neither is reported as {@link IngestResult#INVALID_SIGNATURE}.
+     */
+    public IngestResult ingest(@NonNull String signature, @NonNull InputStream body, @NonNull Consumer<Messaging> consumer) throws IOException {
+        MacInputStream signedBody = new MacInputStream(body, signatureVerifier.getMac());
+        List<Messaging> events = new ArrayList<>();
+        boolean pageObject = false;
+        IOException parseError = null;
+        try {
+            pageObject = callbackParser.parse(signedBody, events::add);
+        } catch (IOException e) {
+            if (signedBody.failed) {
+                throw e;
+            }
+            parseError = e;
+        }
+        // The parser stops early on a callback that is not a page object or is not valid JSON, and
+        // may leave trailing whitespace unread, but the signature covers the whole body.
+        signedBody.drain();
+
+        if (!signatureVerifier.verify(signature)) {
+            return IngestResult.INVALID_SIGNATURE;
+        }
+        if (parseError != null) {
+            throw parseError;
+        }
+        if (!pageObject) {
+            return IngestResult.NOT_PAGE_OBJECT;
+        }
+        events.forEach(consumer);
+        return IngestResult.ACCEPTED;
+    }
+
+    /**
+     * Feeds every byte read through it to a {@link Mac}. Skipping is done by reading, so skipped
+     * bytes are signed too.
+     */
+    private static class MacInputStream extends FilterInputStream {
+        private final Mac mac;
+        /**
+         * Whether reading the underlying stream failed, as opposed to parsing what was read.
+         */
+        private boolean failed;
+
+        MacInputStream(InputStream in, Mac mac) {
+            super(in);
+            this.mac = mac;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = in.read();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (b >= 0) {
+                mac.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count;
+            try {
+                count = in.read(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (count > 0) {
+                mac.update(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.max(0, Math.min(n, DRAIN_BUFFER_SIZE))];
+            long skipped = 0;
+            int count;
+            while (skipped < n && (count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) > 0) {
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            // Usually the parser has already reached the end, so only allocate if there is more.
+            if (read() < 0) {
+                return;
+            }
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // Keep reading to the end.
+            }
+        }
+    }
+}
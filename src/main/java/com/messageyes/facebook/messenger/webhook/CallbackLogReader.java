@@ -0,0 +1,113 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.NonNull;
+
+/**
+ * Reads a log written by a {@link CallbackRecorder} through a memory mapping, one record at a time.
+ * Bodies are returned as slices of the mapping, so reading a record copies nothing.
+ *
+ * A single mapping covers at most 2 GB, which is also the largest log that can be read.
+ */
+public class CallbackLogReader implements Closeable {
+
+    private static final int RECORD_HEADER_SIZE = 10;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+
+    private long arrivalNanos;
+    private String signature;
+    private ByteBuffer body;
+
+    /**
+     * @throws IOException if the file cannot be read or is not a capture log
+     */
+    public CallbackLogReader(@NonNull Path log) throws IOException {
+        this.channel = FileChannel.open(log, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Capture log is larger than 2 GB: " + log);
+            }
+            this.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapping.remaining() < CallbackRecorder.FILE_HEADER_SIZE || mapping.getInt() != CallbackRecorder.MAGIC) {
+                throw new IOException("Not a capture log: " + log);
+            }
+            short version = mapping.getShort();
+            if (version != CallbackRecorder.VERSION) {
+                throw new IOException("Unsupported capture log version " + version + ": " + log);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false at the end of the log, or at a record cut short by a crash
+     */
+    public boolean next() {
+        if (mapping.remaining() < RECORD_HEADER_SIZE) {
+            return false;
+        }
+        int start = mapping.position();
+        long arrival = mapping.getLong();
+        int signatureLength = mapping.getShort();
+        if (signatureLength < 0 || mapping.remaining() < signatureLength + 4) {
+            mapping.position(start);
+            return false;
+        }
+        byte[] signatureBytes = new byte[signatureLength];
+        mapping.get(signatureBytes);
+        int bodyLength = mapping.getInt();
+        if (bodyLength < 0 || mapping.remaining() < bodyLength) {
+            mapping.position(start);
+            return false;
+        }
+
+        ByteBuffer slice = mapping.slice();
+        slice.limit(bodyLength);
+        mapping.position(mapping.position() + bodyLength);
+
+        this.arrivalNanos = arrival;
+        this.signature = signatureLength == 0 ? null : new String(signatureBytes, StandardCharsets.US_ASCII);
+        this.body = slice.asReadOnlyBuffer();
+        return true;
+    }
+
+    /**
+     * Nanoseconds between opening the recorder and the arrival of the current record.
+     */
+    public long getArrivalNanos() {
+        return arrivalNanos;
+    }
+
+    /**
+     * The X-Hub-Signature header of the current record, or null if there was none.
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * The body of the current record. Each call returns a new view that can be read independently.
+     */
+    public ByteBuffer getBody() {
+        return body.duplicate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,151 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.messageyes.facebook.messenger.bean.Callback;
+import com.messageyes.facebook.messenger.bean.Messaging;
+
+import lombok.NonNull;
+
+/**
+ * Reads webhook callbacks with Jackson's streaming parser and hands every {@link Messaging} event to
+ * a consumer as soon as it has been read, instead of building the whole {@link Callback} first.
+ * Memory use therefore depends on the size of a single event rather than on how many entries
+ * Facebook batched into the callback.
+ *
+ * The object field is checked as soon as it is read, and a callback that is not a page object is
+ * rejected without reading any further. Facebook sends the object field first; if it comes after
+ * the entries, the events read so far are held back until the object field has been checked.
+ *
+ * https://developers.facebook.com/docs/messenger-platform/webhook-reference#format
+ */
+public class CallbackParser {
+
+    public static final String CALLBACK_OBJECT_PAGE = "page";
+
+    private static final String FIELD_OBJECT = "object";
+    private static final String FIELD_ENTRY = "entry";
+    private static final String FIELD_MESSAGING = "messaging";
+
+    /**
+     * Leaves the streams it is given open; closing them is up to the caller.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    private static final JsonFactory JSON_FACTORY = OBJECT_MAPPER.getFactory();
+    private static final ObjectReader MESSAGING_READER = OBJECT_MAPPER.readerFor(Messaging.class);
+
+    /**
+     * Passes every event of the callback to the consumer, in the order they appear.
+     *
+     * @return false if the callback is not a page object, in which case no event is passed on
+     * @throws IOException if the callback cannot be read or is not valid JSON. Events read before
+     *         the error have already been passed on.
+     */
+    public boolean parse(@NonNull InputStream callbackJSON, @NonNull Consumer<Messaging> consumer) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(callbackJSON)) {
+            return parse(parser, consumer);
+        }
+    }
+
+    /**
+     * @see #parse(InputStream, Consumer)
+     */
+    public boolean parse(@NonNull byte[] callbackJSON, @NonNull Consumer<Messaging> consumer) throws IOException {
+        return parse(callbackJSON, 0, callbackJSON.length, consumer);
+    }
+
+    /**
+     * @see #parse(InputStream, Consumer)
+     */
+    public boolean parse(@NonNull byte[] callbackJSON, int offset, int length, @NonNull Consumer<Messaging> consumer) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(callbackJSON, offset, length)) {
+            return parse(parser, consumer);
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of the buffer without changing its position.
+     *
+     * @see #parse(InputStream, Consumer)
+     */
+    public boolean parse(@NonNull ByteBuffer callbackJSON, @NonNull Consumer<Messaging> consumer) throws IOException {
+        if (callbackJSON.hasArray()) {
+            return parse(callbackJSON.array(), callbackJSON.arrayOffset() + callbackJSON.position(), callbackJSON.remaining(), consumer);
+        }
+        return parse(new ByteBufferBackedInputStream(callbackJSON.duplicate()), consumer);
+    }
+
+    private boolean parse(JsonParser parser, Consumer<Messaging> consumer) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Callback is not a JSON object", parser.getCurrentLocation());
+        }
+
+        boolean pageObject = false;
+        List<Messaging> heldBack = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (FIELD_OBJECT.equals(fieldName)) {
+                if (!CALLBACK_OBJECT_PAGE.equals(value == JsonToken.VALUE_STRING ? parser.getText() : null)) {
+                    return false;
+                }
+                pageObject = true;
+                if (heldBack != null) {
+                    heldBack.forEach(consumer);
+                    heldBack = null;
+                }
+            } else if (FIELD_ENTRY.equals(fieldName) && value == JsonToken.START_ARRAY) {
+                if (pageObject) {
+                    readEntries(parser, consumer);
+                } else {
+                    heldBack = heldBack == null ? new ArrayList<>() : heldBack;
+                    readEntries(parser, heldBack::add);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return pageObject;
+    }
+
+    private static void readEntries(JsonParser parser, Consumer<Messaging> consumer) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_ARRAY && FIELD_MESSAGING.equals(fieldName)) {
+                    readMessaging(parser, consumer);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void readMessaging(JsonParser parser, Consumer<Messaging> consumer) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                consumer.accept(MESSAGING_READER.readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Ticker;
+
+import lombok.NonNull;
+
+/**
+ * Appends webhook requests to a capture log as they arrive, for replaying them later with a
+ * {@link CallbackReplayer}. Set it on a {@link WebhookServerConfig}, or call
+ * {@link #record(String, byte[])} from any other webhook end point before the request is verified.
+ *
+ * The log starts with {@link #MAGIC} and {@link #VERSION}, followed by one record per request:
+ *
+ * <pre>
+ * long  nanoseconds since the recorder was opened
+ * short length of the X-Hub-Signature header, in bytes
+ * byte* the header, in ASCII
+ * int   length of the body
+ * byte* the body, exactly as received
+ * </pre>
+ *
+ * All numbers are big-endian. Records are written whole with gathering writes, and a record cut
+ * short by a crash is ignored when reading. Appending to an existing log starts counting
+ * arrival times from zero again; the replayer does not wait for records that go back in time.
+ */
+public class CallbackRecorder implements Closeable {
+
+    public static final int MAGIC = 0x46424d43;
+    public static final short VERSION = 1;
+
+    static final int FILE_HEADER_SIZE = 6;
+    static final int MAX_SIGNATURE_LENGTH = Short.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final Ticker ticker;
+    private final long startNanos;
+    /**
+     * Arrival time and signature length.
+     */
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(10);
+    private final ByteBuffer bodyLength = ByteBuffer.allocate(4);
+
+    /**
+     * Opens the log for appending, creating it if it does not exist.
+     */
+    public CallbackRecorder(@NonNull Path log) throws IOException {
+        this(log, Ticker.systemTicker());
+    }
+
+    CallbackRecorder(@NonNull Path log, @NonNull Ticker ticker) throws IOException {
+        this.channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.ticker = ticker;
+        this.startNanos = ticker.read();
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putShort(VERSION);
+            header.flip();
+            writeFully(header);
+        }
+    }
+
+    /**
+     * @param signature the X-Hub-Signature header, or null if there was none
+     */
+    public void record(String signature, @NonNull byte[] body) throws IOException {
+        record(signature, ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Records the remaining bytes of the buffer without changing its position.
+     *
+     * @see #record(String, byte[])
+     */
+    public synchronized void record(String signature, @NonNull ByteBuffer body) throws IOException {
+        byte[] signatureBytes = signature == null ? new byte[0] : signature.getBytes(StandardCharsets.US_ASCII);
+        checkArgument(signatureBytes.length <= MAX_SIGNATURE_LENGTH, "signature is too long");
+
+        recordHeader.clear();
+        recordHeader.putLong(ticker.read() - startNanos).putShort((short) signatureBytes.length).flip();
+        bodyLength.clear();
+        bodyLength.putInt(body.remaining()).flip();
+        writeFully(recordHeader, ByteBuffer.wrap(signatureBytes), bodyLength, body.duplicate());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+}
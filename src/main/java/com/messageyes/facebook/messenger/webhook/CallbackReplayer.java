@@ -0,0 +1,150 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.messageyes.facebook.messenger.FacebookMessengerClient;
+import com.messageyes.facebook.messenger.bean.ReplayReport;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Replays a log written by a {@link CallbackRecorder} through a webhook pipeline and measures how
+ * it keeps up, e.g. to benchmark a change to signature verification or parsing against production
+ * traffic.
+ *
+ * Requests are fed one at a time, in the order they were recorded. At a speed of 1 they are fed as
+ * far apart as they arrived, at a speed of 2 twice as fast, and at {@link #MAXIMUM_SPEED} as fast as
+ * the pipeline takes them.
+ *
+ * It can also be run on its own, with the log, the app secret and optionally the speed as
+ * arguments, to replay the log through {@link #verifyAndParse} and print the report.
+ */
+@Slf4j
+public class CallbackReplayer {
+
+    public static final double MAXIMUM_SPEED = Double.POSITIVE_INFINITY;
+
+    private static final int INITIAL_LATENCY_CAPACITY = 1024;
+
+    private final ReplayTarget target;
+
+    public CallbackReplayer(@NonNull ReplayTarget target) {
+        this.target = target;
+    }
+
+    /**
+     * The usual pipeline: {@link FacebookMessengerClient#isValidRequest} followed by
+     * {@link FacebookMessengerClient#deserializeCallback}, discarding the events.
+     */
+    public static ReplayTarget verifyAndParse(@NonNull FacebookMessengerClient client, @NonNull String appSecretKey) {
+        return (signature, body) -> signature != null && client.isValidRequest(appSecretKey, signature, body)
+            && client.deserializeCallback(body, messaging -> { });
+    }
+
+    /**
+     * Replays the whole log and reports on it once it is done.
+     *
+     * @param speed how much faster than recorded to replay the requests
+     */
+    public ReplayReport replay(@NonNull Path log, double speed) throws IOException {
+        checkArgument(speed > 0, "speed must be positive");
+
+        long[] latencies = new long[INITIAL_LATENCY_CAPACITY];
+        int count = 0;
+        long failedCount = 0;
+        long start;
+        long end;
+        try (CallbackLogReader reader = new CallbackLogReader(log)) {
+            start = System.nanoTime();
+            long recordedElapsed = 0;
+            long previousArrival = -1;
+            while (reader.next()) {
+                long due;
+                if (speed == MAXIMUM_SPEED) {
+                    due = System.nanoTime();
+                } else {
+                    long arrival = reader.getArrivalNanos();
+                    // A log that was appended to starts over at zero; those requests are due right away.
+                    recordedElapsed += previousArrival < 0 ? 0 : Math.max(0, arrival - previousArrival);
+                    previousArrival = arrival;
+                    due = start + (long) (recordedElapsed / speed);
+                    waitUntil(due);
+                }
+
+                if (!feed(reader)) {
+                    failedCount++;
+                }
+
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - due;
+            }
+            end = System.nanoTime();
+        }
+        return report(latencies, count, failedCount, end - start);
+    }
+
+    private boolean feed(CallbackLogReader reader) {
+        try {
+            return target.accept(reader.getSignature(), reader.getBody());
+        } catch (Exception e) {
+            log.debug("Replayed request failed", e);
+            return false;
+        }
+    }
+
+    private static void waitUntil(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static ReplayReport report(long[] latencies, int count, long failedCount, long elapsedNanos) {
+        Arrays.sort(latencies, 0, count);
+
+        ReplayReport report = new ReplayReport();
+        report.setRequestCount(count);
+        report.setFailedCount(failedCount);
+        report.setElapsedNanos(elapsedNanos);
+        report.setRequestsPerSecond(elapsedNanos == 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+        report.setP50LatencyNanos(percentile(latencies, count, 0.5));
+        report.setP90LatencyNanos(percentile(latencies, count, 0.9));
+        report.setP99LatencyNanos(percentile(latencies, count, 0.99));
+        report.setP999LatencyNanos(percentile(latencies, count, 0.999));
+        report.setMaxLatencyNanos(count == 0 ? 0 : latencies[count - 1]);
+        return report;
+    }
+
+    /**
+     * The smallest latency that at least the given share of the sorted latencies do not exceed.
+     */
+    private static long percentile(long[] sortedLatencies, int count, double share) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(share * count) - 1;
+        return sortedLatencies[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: CallbackReplayer <capture log> <app secret> [speed, or max]");
+            System.exit(1);
+        }
+        double speed = args.length < 3 ? 1 : "max".equals(args[2]) ? MAXIMUM_SPEED : Double.parseDouble(args[2]);
+        try (FacebookMessengerClient client = new FacebookMessengerClient()) {
+            ReplayReport report = new CallbackReplayer(verifyAndParse(client, args[1])).replay(Paths.get(args[0]), speed);
+            System.out.println(report);
+        }
+    }
+}
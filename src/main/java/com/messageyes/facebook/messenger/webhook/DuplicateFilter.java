@@ -0,0 +1,280 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.common.base.Ticker;
+import com.messageyes.facebook.messenger.bean.InboundMessage;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.bean.User;
+
+import lombok.NonNull;
+
+/**
+ * Drops webhook events that Facebook delivered more than once, e.g. because the webhook was slow
+ * to acknowledge a callback, and passes everything else on.
+ *
+ * Messages are recognized by their mid, deliveries and reads by sender, watermark and seq, and
+ * postbacks and optins by sender, timestamp and payload. Only a 64 bit fingerprint of that key is
+ * kept. Events that carry none of it, e.g. a postback without a timestamp, are always passed on.
+ *
+ * Fingerprints live in two generations of fixed size open addressing tables. New fingerprints go
+ * into the current generation, and lookups check both, without locking. The current generation
+ * becomes the previous one, and the previous one is dropped, once it is windowMillis old or half
+ * full. An event is therefore recognized for at least windowMillis, as long as fewer than
+ * capacity / 2 distinct events arrive in that time, and memory stays at 16 bytes per unit of
+ * capacity. If {@link #getEarlyRotationCount()} keeps growing, the capacity is too small for the
+ * traffic.
+ */
+public class DuplicateFilter implements Consumer<Messaging> {
+
+    private static final long EMPTY = 0;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Consumer<Messaging> downstream;
+    private final int capacity;
+    private final long windowNanos;
+    private final Ticker ticker;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    private final LongAdder duplicateCount = new LongAdder();
+    private final LongAdder uniqueCount = new LongAdder();
+    private final LongAdder unkeyedCount = new LongAdder();
+    private final LongAdder earlyRotationCount = new LongAdder();
+
+    /**
+     * @param downstream receives every event that is not a duplicate
+     * @param capacity slots per generation, rounded up to a power of two
+     * @param windowMillis how long a generation takes new fingerprints
+     */
+    public DuplicateFilter(@NonNull Consumer<Messaging> downstream, int capacity, long windowMillis) {
+        this(downstream, capacity, windowMillis, Ticker.systemTicker());
+    }
+
+    DuplicateFilter(@NonNull Consumer<Messaging> downstream, int capacity, long windowMillis, @NonNull Ticker ticker) {
+        checkArgument(capacity >= 2 && capacity <= 1 << 30, "capacity must be between 2 and 2^30");
+        checkArgument(windowMillis > 0, "windowMillis must be positive");
+
+        this.downstream = downstream;
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.ticker = ticker;
+        this.current = new Generation(this.capacity, ticker.read());
+        this.previous = new Generation(this.capacity, ticker.read());
+    }
+
+    /**
+     * Passes the event on unless it has been seen before.
+     */
+    @Override
+    public void accept(Messaging messaging) {
+        if (!isDuplicate(messaging)) {
+            downstream.accept(messaging);
+        }
+    }
+
+    /**
+     * Whether the event has been seen before. Remembers it if it has not.
+     */
+    public boolean isDuplicate(@NonNull Messaging messaging) {
+        long fingerprint = fingerprint(messaging);
+        if (fingerprint == EMPTY) {
+            unkeyedCount.increment();
+            return false;
+        }
+
+        Generation generation = getCurrentGeneration();
+        if (previous.contains(fingerprint) || !generation.add(fingerprint)) {
+            duplicateCount.increment();
+            return true;
+        }
+        uniqueCount.increment();
+        return false;
+    }
+
+    /**
+     * Events dropped as duplicates.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.sum();
+    }
+
+    /**
+     * Events seen for the first time.
+     */
+    public long getUniqueCount() {
+        return uniqueCount.sum();
+    }
+
+    /**
+     * Events passed on because they carry nothing to recognize them by.
+     */
+    public long getUnkeyedCount() {
+        return unkeyedCount.sum();
+    }
+
+    /**
+     * Generations retired because they were half full before windowMillis had passed.
+     */
+    public long getEarlyRotationCount() {
+        return earlyRotationCount.sum();
+    }
+
+    private Generation getCurrentGeneration() {
+        Generation generation = current;
+        boolean expired = ticker.read() - generation.createdNanos >= windowNanos;
+        boolean full = generation.size.get() >= capacity / 2;
+        if (!expired && !full) {
+            return generation;
+        }
+        synchronized (this) {
+            if (current == generation) {
+                if (!expired) {
+                    earlyRotationCount.increment();
+                }
+                previous = generation;
+                current = new Generation(capacity, ticker.read());
+            }
+            return current;
+        }
+    }
+
+    /**
+     * A fingerprint of what identifies the event, or {@link #EMPTY} if nothing does.
+     */
+    static long fingerprint(Messaging messaging) {
+        InboundMessage message = messaging.getMessage();
+        if (message != null) {
+            return message.getMid() == null ? EMPTY : finish(hash(hash(FNV_OFFSET_BASIS, 'm'), message.getMid()));
+        }
+        String senderId = getId(messaging.getSender());
+        String recipientId = getId(messaging.getRecipient());
+        if (messaging.getDelivery() != null) {
+            return fingerprint('d', senderId, recipientId, messaging.getDelivery());
+        }
+        if (messaging.getRead() != null) {
+            return fingerprint('r', senderId, recipientId, messaging.getRead());
+        }
+        if (messaging.getTimestamp() == null) {
+            return EMPTY;
+        }
+        long hash;
+        if (messaging.getPostback() != null) {
+            hash = hash(hash(FNV_OFFSET_BASIS, 'p'), messaging.getPostback().getPayload());
+        } else if (messaging.getOptin() != null) {
+            hash = hash(hash(FNV_OFFSET_BASIS, 'o'), messaging.getOptin().getRef());
+        } else {
+            return EMPTY;
+        }
+        return finish(hash(hash(hash(hash, senderId), recipientId), messaging.getTimestamp()));
+    }
+
+    private static long fingerprint(char type, String senderId, String recipientId, StatusUpdate statusUpdate) {
+        if (statusUpdate.getWatermark() == null && statusUpdate.getSeq() == null) {
+            return EMPTY;
+        }
+        long hash = hash(hash(hash(FNV_OFFSET_BASIS, type), senderId), recipientId);
+        hash = hash(hash, statusUpdate.getWatermark() == null ? -1 : statusUpdate.getWatermark());
+        return finish(hash(hash, statusUpdate.getSeq() == null ? -1 : statusUpdate.getSeq()));
+    }
+
+    private static long hash(long hash, char value) {
+        hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+        return (hash ^ (value >>> 8)) * FNV_PRIME;
+    }
+
+    /**
+     * Hashes the characters followed by a separator, so that adjacent values cannot run into each
+     * other.
+     */
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = hash(hash, value.charAt(i));
+            }
+        }
+        return hash(hash, '\uffff');
+    }
+
+    private static long hash(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits so that the low bits used for the slot index depend on all of them.
+     */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static String getId(User user) {
+        return user == null ? null : user.getId();
+    }
+
+    /**
+     * An open addressing set of fingerprints with linear probing. Slots only ever go from empty to a
+     * fingerprint, so concurrent adds of the same fingerprint meet in the same slot.
+     */
+    private static class Generation {
+        private final AtomicLongArray slots;
+        private final AtomicInteger size = new AtomicInteger();
+        private final long createdNanos;
+
+        Generation(int capacity, long createdNanos) {
+            this.slots = new AtomicLongArray(capacity);
+            this.createdNanos = createdNanos;
+        }
+
+        boolean contains(long fingerprint) {
+            int mask = slots.length() - 1;
+            for (int i = (int) fingerprint & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                long slot = slots.get(i);
+                if (slot == fingerprint) {
+                    return true;
+                }
+                if (slot == EMPTY) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns false if the fingerprint was already there. A full table, which rotation normally
+         * prevents, accepts the fingerprint without storing it.
+         */
+        boolean add(long fingerprint) {
+            int mask = slots.length() - 1;
+            for (int i = (int) fingerprint & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                long slot = slots.get(i);
+                if (slot == EMPTY) {
+                    if (slots.compareAndSet(i, EMPTY, fingerprint)) {
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    slot = slots.get(i);
+                }
+                if (slot == fingerprint) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.messageyes.facebook.messenger.bean.InboundMessage;
+import com.messageyes.facebook.messenger.bean.InboundPayload;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.Optin;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.bean.User;
+
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hands webhook events to typed handlers on a pool of worker threads.
+ *
+ * Events of one sender to one page are handled one at a time and in the order they were
+ * dispatched, so a conversation is never reordered, while events of different senders are handled
+ * in parallel. As in {@link com.messageyes.facebook.messenger.RecipientOrderedSender}, each sender
+ * with events waiting has a FIFO lane that is dropped as soon as it is empty.
+ *
+ * At most maxPendingEvents events can be waiting or being handled. Once that many are, dispatching
+ * blocks until the handlers catch up, which slows down the webhook instead of letting the backlog
+ * grow without bound.
+ *
+ * A message with a quick reply goes to the quick reply handler if there is one, and to the message
+ * handler otherwise. Events that no handler was registered for go to the unhandled handler, if any.
+ * Handler failures are logged and do not affect other events.
+ *
+ * The dispatcher is a {@link Consumer}, so it can be given straight to
+ * {@link CallbackParser#parse} or {@link CallbackIngester#ingest}.
+ */
+@Slf4j
+public class EventDispatcher implements Consumer<Messaging>, Closeable {
+
+    /**
+     * A worker hands a busy lane back to the pool after this many events, so one chatty sender
+     * cannot hold on to a thread.
+     */
+    private static final int MAX_EVENTS_PER_RUN = 64;
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Semaphore permits;
+    private final int maxPendingEvents;
+
+    private final ConcurrentMap<LaneKey, Queue<Messaging>> lanes = new ConcurrentHashMap<>();
+
+    private volatile EventHandler<InboundMessage> messageHandler;
+    private volatile EventHandler<InboundPayload> quickReplyHandler;
+    private volatile EventHandler<InboundPayload> postbackHandler;
+    private volatile EventHandler<Optin> optinHandler;
+    private volatile EventHandler<StatusUpdate> deliveryHandler;
+    private volatile EventHandler<StatusUpdate> readHandler;
+    private volatile EventHandler<Messaging> unhandledHandler;
+
+    /**
+     * Handles events on its own pool of worker threads, which {@link #close()} shuts down.
+     */
+    public EventDispatcher(int threads, int maxPendingEvents) {
+        this(Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("facebook-messenger-events-%d").build()), maxPendingEvents, true);
+    }
+
+    /**
+     * Handles events on the given executor, which is left running by {@link #close()}.
+     */
+    public EventDispatcher(@NonNull Executor executor, int maxPendingEvents) {
+        this(executor, maxPendingEvents, false);
+    }
+
+    private EventDispatcher(Executor executor, int maxPendingEvents, boolean owned) {
+        checkArgument(maxPendingEvents > 0, "maxPendingEvents must be positive");
+
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+        this.permits = new Semaphore(maxPendingEvents);
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    public EventDispatcher onMessage(EventHandler<InboundMessage> handler) {
+        this.messageHandler = handler;
+        return this;
+    }
+
+    public EventDispatcher onQuickReply(EventHandler<InboundPayload> handler) {
+        this.quickReplyHandler = handler;
+        return this;
+    }
+
+    public EventDispatcher onPostback(EventHandler<InboundPayload> handler) {
+        this.postbackHandler = handler;
+        return this;
+    }
+
+    public EventDispatcher onOptin(EventHandler<Optin> handler) {
+        this.optinHandler = handler;
+        return this;
+    }
+
+    public EventDispatcher onDelivery(EventHandler<StatusUpdate> handler) {
+        this.deliveryHandler = handler;
+        return this;
+    }
+
+    public EventDispatcher onRead(EventHandler<StatusUpdate> handler) {
+        this.readHandler = handler;
+        return this;
+    }
+
+    public EventDispatcher onUnhandled(EventHandler<Messaging> handler) {
+        this.unhandledHandler = handler;
+        return this;
+    }
+
+    /**
+     * Same as {@link #dispatch(Messaging)}, for use as a {@link Consumer}. Fails with a
+     * {@link RejectedExecutionException} if the thread is interrupted while waiting.
+     */
+    @Override
+    public void accept(Messaging messaging) {
+        try {
+            dispatch(messaging);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting to dispatch", e);
+        }
+    }
+
+    /**
+     * Queues the event behind any other event of the same sender, waiting for room if
+     * maxPendingEvents events are already pending.
+     */
+    public void dispatch(@NonNull Messaging messaging) throws InterruptedException {
+        permits.acquire();
+        enqueue(messaging);
+    }
+
+    /**
+     * Queues the event like {@link #dispatch(Messaging)}, but waits at most the given time for room.
+     *
+     * @return false if the event was not queued because the handlers are too far behind
+     */
+    public boolean tryDispatch(@NonNull Messaging messaging, long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        if (!permits.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        enqueue(messaging);
+        return true;
+    }
+
+    /**
+     * The number of events waiting or being handled.
+     */
+    public int getPendingCount() {
+        return maxPendingEvents - permits.availablePermits();
+    }
+
+    /**
+     * The number of senders that have events waiting or being handled.
+     */
+    public int getActiveLaneCount() {
+        return lanes.size();
+    }
+
+    /**
+     * Shuts down the worker pool if the dispatcher created it. Events that are already queued are
+     * still handled.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private void enqueue(Messaging messaging) {
+        LaneKey key = new LaneKey(getId(messaging.getRecipient()), getId(messaging.getSender()));
+        boolean[] idle = new boolean[1];
+        lanes.compute(key, (k, lane) -> {
+            if (lane == null) {
+                lane = new ArrayDeque<>(2);
+            }
+            idle[0] = lane.isEmpty();
+            lane.add(messaging);
+            return lane;
+        });
+        if (idle[0]) {
+            schedule(key);
+        }
+    }
+
+    private void schedule(LaneKey key) {
+        try {
+            executor.execute(() -> run(key));
+        } catch (RejectedExecutionException e) {
+            // Nothing will handle the lane any more, so give up on all of it.
+            Queue<Messaging> lane = lanes.remove(key);
+            permits.release(lane == null ? 0 : lane.size());
+            throw e;
+        }
+    }
+
+    /**
+     * Handles the events of a lane in order, until the lane is empty or the worker has had its turn.
+     */
+    private void run(LaneKey key) {
+        Messaging messaging = peek(key);
+        for (int i = 1; messaging != null; i++) {
+            handle(messaging);
+            permits.release();
+            messaging = advance(key);
+            if (messaging != null && i % MAX_EVENTS_PER_RUN == 0 && reschedule(key)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands the lane to another run, returning false if the executor no longer accepts work, in
+     * which case the current worker carries on.
+     */
+    private boolean reschedule(LaneKey key) {
+        try {
+            executor.execute(() -> run(key));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private Messaging peek(LaneKey key) {
+        Queue<Messaging> lane = lanes.get(key);
+        return lane == null ? null : lane.peek();
+    }
+
+    /**
+     * Removes the handled head of the lane and returns the next event, dropping the lane if it is
+     * empty.
+     */
+    private Messaging advance(LaneKey key) {
+        Messaging[] next = new Messaging[1];
+        lanes.computeIfPresent(key, (k, lane) -> {
+            lane.poll();
+            next[0] = lane.peek();
+            return lane.isEmpty() ? null : lane;
+        });
+        return next[0];
+    }
+
+    private void handle(Messaging messaging) {
+        try {
+            InboundMessage message = messaging.getMessage();
+            if (message != null) {
+                if (message.getQuickReply() != null && quickReplyHandler != null) {
+                    quickReplyHandler.handle(messaging, message.getQuickReply());
+                } else {
+                    handle(messageHandler, messaging, message);
+                }
+            } else if (messaging.getPostback() != null) {
+                handle(postbackHandler, messaging, messaging.getPostback());
+            } else if (messaging.getOptin() != null) {
+                handle(optinHandler, messaging, messaging.getOptin());
+            } else if (messaging.getDelivery() != null) {
+                handle(deliveryHandler, messaging, messaging.getDelivery());
+            } else if (messaging.getRead() != null) {
+                handle(readHandler, messaging, messaging.getRead());
+            } else {
+                handle(null, messaging, messaging);
+            }
+        } catch (Exception e) {
+            log.error("Error handling event: {}", messaging, e);
+        }
+    }
+
+    private <T> void handle(EventHandler<T> handler, Messaging messaging, T event) throws Exception {
+        if (handler != null) {
+            handler.handle(messaging, event);
+        } else if (unhandledHandler != null) {
+            unhandledHandler.handle(messaging, messaging);
+        }
+    }
+
+    private static String getId(User user) {
+        return user == null ? null : user.getId();
+    }
+
+    @Value
+    private static class LaneKey {
+        String pageId;
+        String senderId;
+    }
+}
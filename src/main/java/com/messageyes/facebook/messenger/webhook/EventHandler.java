@@ -0,0 +1,19 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import com.messageyes.facebook.messenger.bean.Messaging;
+
+/**
+ * Handles one kind of webhook event, registered with an {@link EventDispatcher}.
+ *
+ * @param <T> the part of the {@link Messaging} the handler is for, e.g. an
+ *        {@link com.messageyes.facebook.messenger.bean.InboundMessage}
+ */
+@FunctionalInterface
+public interface EventHandler<T> {
+
+    /**
+     * @param messaging the whole event, for its sender, recipient and timestamp
+     * @param event the part of the event the handler was registered for
+     */
+    void handle(Messaging messaging, T event) throws Exception;
+}
@@ -0,0 +1,19 @@
+package com.messageyes.facebook.messenger.webhook;
+
+/**
+ * The outcome of {@link CallbackIngester#ingest}.
+ */
+public enum IngestResult {
+    /**
+     * The signature matched and the events of the callback were passed on.
+     */
+    ACCEPTED,
+    /**
+     * The signature did not match the body. No events were passed on.
+     */
+    INVALID_SIGNATURE,
+    /**
+     * The signature matched but the callback is not a page object. No events were passed on.
+     */
+    NOT_PAGE_OBJECT
+}
@@ -0,0 +1,196 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.messageyes.facebook.messenger.bean.InboundMessage;
+import com.messageyes.facebook.messenger.bean.InboundPayload;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.Optin;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.bean.User;
+import com.messageyes.facebook.messenger.id.Ids;
+
+import lombok.Getter;
+
+/**
+ * A {@link Messaging} event whose nested objects are only deserialized when they are asked for.
+ *
+ * The sender id, recipient id and timestamp are read while scanning the callback. For the message,
+ * postback, optin, delivery and read objects only their place in the callback body is noted, and
+ * each is deserialized from those bytes the first time its getter is called. A handler that only
+ * looks at postbacks therefore never builds a message at all. Each object is deserialized as a
+ * whole, though: reading only the text of a message still builds its attachments and quick reply.
+ * Use {@link #hasMessage()} and the other has methods to tell events apart without deserializing.
+ *
+ * Deserialized objects are cached. Like a {@link RawEvent}, the view keeps the callback body, which
+ * must not be changed while the view is in use. See {@link RawEventScanner#scanLazily}.
+ */
+public class LazyMessaging extends RawEvent {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectReader MESSAGE_READER = OBJECT_MAPPER.readerFor(InboundMessage.class);
+    private static final ObjectReader PAYLOAD_READER = OBJECT_MAPPER.readerFor(InboundPayload.class);
+    private static final ObjectReader OPTIN_READER = OBJECT_MAPPER.readerFor(Optin.class);
+    private static final ObjectReader STATUS_UPDATE_READER = OBJECT_MAPPER.readerFor(StatusUpdate.class);
+
+    static final int MESSAGE = 0;
+    static final int POSTBACK = 1;
+    static final int OPTIN = 2;
+    static final int DELIVERY = 3;
+    static final int READ = 4;
+    static final int PART_COUNT = 5;
+
+    /**
+     * Id of the recipient, if it is numeric, or {@link Ids#NO_ID}.
+     */
+    @Getter
+    private final long recipientLongId;
+    private final String recipientId;
+
+    /**
+     * The array offset and length of each nested object, or -1 if the event does not have it.
+     */
+    private final int[] parts;
+
+    private volatile InboundMessage message;
+    private volatile InboundPayload postback;
+    private volatile Optin optin;
+    private volatile StatusUpdate delivery;
+    private volatile StatusUpdate read;
+
+    LazyMessaging(String pageId, long pageLongId, String senderId, long senderLongId, String recipientId, long recipientLongId,
+        Long timestamp, byte[] array, int offset, int length, int[] parts) {
+        super(pageId, pageLongId, senderId, senderLongId, timestamp, array, offset, length);
+        this.recipientId = recipientId;
+        this.recipientLongId = recipientLongId;
+        this.parts = parts;
+    }
+
+    @Override
+    LazyMessaging withPageId(String pageId, long pageLongId) {
+        return new LazyMessaging(pageId, pageLongId, getSenderId(), getSenderLongId(), recipientId, recipientLongId,
+            getTimestamp(), getArray(), getOffset(), getLength(), parts);
+    }
+
+    /**
+     * Null if the event has no recipient. Numeric ids are turned into a String on every call; use
+     * {@link #getRecipientLongId()} to avoid that.
+     */
+    public String getRecipientId() {
+        return toId(recipientId, recipientLongId);
+    }
+
+    /**
+     * An array to note the nested objects of an event in, with none of them present.
+     */
+    static int[] newParts() {
+        int[] parts = new int[PART_COUNT * 2];
+        Arrays.fill(parts, -1);
+        return parts;
+    }
+
+    /**
+     * @throws UncheckedIOException if the message does not have the expected structure. The same
+     *         applies to the other getters.
+     */
+    public InboundMessage getMessage() {
+        if (message == null && has(MESSAGE)) {
+            message = deserialize(MESSAGE_READER, MESSAGE);
+        }
+        return message;
+    }
+
+    public InboundPayload getPostback() {
+        if (postback == null && has(POSTBACK)) {
+            postback = deserialize(PAYLOAD_READER, POSTBACK);
+        }
+        return postback;
+    }
+
+    public Optin getOptin() {
+        if (optin == null && has(OPTIN)) {
+            optin = deserialize(OPTIN_READER, OPTIN);
+        }
+        return optin;
+    }
+
+    public StatusUpdate getDelivery() {
+        if (delivery == null && has(DELIVERY)) {
+            delivery = deserialize(STATUS_UPDATE_READER, DELIVERY);
+        }
+        return delivery;
+    }
+
+    public StatusUpdate getRead() {
+        if (read == null && has(READ)) {
+            read = deserialize(STATUS_UPDATE_READER, READ);
+        }
+        return read;
+    }
+
+    /**
+     * Whether the event is a message, without deserializing it. The same goes for the other
+     * has methods.
+     */
+    public boolean hasMessage() {
+        return has(MESSAGE);
+    }
+
+    public boolean hasPostback() {
+        return has(POSTBACK);
+    }
+
+    public boolean hasOptin() {
+        return has(OPTIN);
+    }
+
+    public boolean hasDelivery() {
+        return has(DELIVERY);
+    }
+
+    public boolean hasRead() {
+        return has(READ);
+    }
+
+    /**
+     * The whole event as a regular bean, e.g. for an {@link EventDispatcher}. Deserializes every
+     * nested object.
+     */
+    public Messaging toMessaging() {
+        Messaging messaging = new Messaging();
+        messaging.setSender(toUser(getSenderId()));
+        messaging.setRecipient(toUser(getRecipientId()));
+        messaging.setTimestamp(getTimestamp());
+        messaging.setMessage(getMessage());
+        messaging.setPostback(getPostback());
+        messaging.setOptin(getOptin());
+        messaging.setDelivery(getDelivery());
+        messaging.setRead(getRead());
+        return messaging;
+    }
+
+    private boolean has(int part) {
+        return parts[part * 2] >= 0;
+    }
+
+    private <T> T deserialize(ObjectReader reader, int part) {
+        try {
+            return reader.readValue(getArray(), parts[part * 2], parts[part * 2 + 1]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot deserialize event", e);
+        }
+    }
+
+    private static User toUser(String id) {
+        if (id == null) {
+            return null;
+        }
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
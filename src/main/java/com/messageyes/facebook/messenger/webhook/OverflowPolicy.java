@@ -0,0 +1,21 @@
+package com.messageyes.facebook.messenger.webhook;
+
+/**
+ * What a {@link WebhookServer} does with a verified callback when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Answers 503 Service Unavailable, so Facebook delivers the callback again later.
+     */
+    REJECT,
+
+    /**
+     * Acknowledges the callback and discards it.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Acknowledges the callback and discards the oldest queued callback to make room for it.
+     */
+    DROP_OLDEST
+}
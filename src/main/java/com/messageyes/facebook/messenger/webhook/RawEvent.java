@@ -0,0 +1,110 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.messageyes.facebook.messenger.id.Ids;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * A single messaging event of a webhook callback, as the exact JSON bytes Facebook sent, along
+ * with the fields needed to route it. See {@link RawEventScanner}.
+ *
+ * The bytes are a slice of the callback body and are not copied, so the body must not be changed
+ * while the event is in use.
+ */
+@Getter
+public class RawEvent {
+    /**
+     * Id of the entry the event belongs to, if it is numeric, or {@link Ids#NO_ID}.
+     */
+    private final long pageLongId;
+
+    /**
+     * Id of the sender, if it is numeric, or {@link Ids#NO_ID}.
+     */
+    private final long senderLongId;
+
+    /**
+     * Null if the event has no timestamp, e.g. a message delivered event.
+     */
+    private final Long timestamp;
+
+    private final byte[] array;
+    private final int offset;
+    private final int length;
+
+    @Getter(AccessLevel.NONE)
+    private final String pageId;
+    @Getter(AccessLevel.NONE)
+    private final String senderId;
+
+    /**
+     * Each id is given either as a String or, if it is numeric, as a long.
+     */
+    RawEvent(String pageId, long pageLongId, String senderId, long senderLongId, Long timestamp, byte[] array, int offset, int length) {
+        this.pageId = pageId;
+        this.pageLongId = pageLongId;
+        this.senderId = senderId;
+        this.senderLongId = senderLongId;
+        this.timestamp = timestamp;
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * The same event as part of the given page, for events read before their entry's id.
+     */
+    RawEvent withPageId(String pageId, long pageLongId) {
+        return new RawEvent(pageId, pageLongId, senderId, senderLongId, timestamp, array, offset, length);
+    }
+
+    /**
+     * Id of the entry the event belongs to, or null if the entry has none. Numeric ids are turned
+     * into a String on every call; use {@link #getPageLongId()} to avoid that.
+     */
+    public String getPageId() {
+        return toId(pageId, pageLongId);
+    }
+
+    /**
+     * Null if the event has no sender. Numeric ids are turned into a String on every call; use
+     * {@link #getSenderLongId()} to avoid that.
+     */
+    public String getSenderId() {
+        return toId(senderId, senderLongId);
+    }
+
+    static String toId(String id, long longId) {
+        return longId == Ids.NO_ID ? id : Ids.toString(longId);
+    }
+
+    /**
+     * A read-only view of the event JSON, without copying it.
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(array, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * A copy of the event JSON.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(array, offset, offset + length);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(array, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(array, offset, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,331 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.id.Ids;
+
+import lombok.NonNull;
+
+/**
+ * Splits webhook callbacks into their messaging events without building any beans, for forwarding
+ * the events elsewhere as they are.
+ *
+ * A single pass of Jackson's streaming parser finds where each event starts and ends in the
+ * callback body and picks up its page id, sender id and timestamp on the way. Everything else is
+ * skipped over, and each event comes out as a {@link RawEvent} that points into the original bytes.
+ * Numeric ids are parsed straight into longs, without creating a String.
+ *
+ * {@link #scanLazily} goes a little further and produces {@link LazyMessaging} views, which note
+ * where the nested objects of each event are and deserialize them only when they are asked for.
+ *
+ * As with {@link CallbackParser}, a callback that is not a page object is rejected as soon as the
+ * object field is read, and events are held back if they come before it. Events of an entry whose
+ * id comes after its messaging array are held back until the end of the entry.
+ */
+public class RawEventScanner {
+
+    private static final String FIELD_OBJECT = "object";
+    private static final String FIELD_ENTRY = "entry";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_MESSAGING = "messaging";
+    private static final String FIELD_SENDER = "sender";
+    private static final String FIELD_RECIPIENT = "recipient";
+    private static final String FIELD_TIMESTAMP = "timestamp";
+    private static final String FIELD_MESSAGE = "message";
+    private static final String FIELD_POSTBACK = "postback";
+    private static final String FIELD_OPTIN = "optin";
+    private static final String FIELD_DELIVERY = "delivery";
+    private static final String FIELD_READ = "read";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Passes every event of the callback to the consumer, in the order they appear.
+     *
+     * @return false if the callback is not a page object, in which case no event is passed on
+     * @throws IOException if the callback is not valid JSON. Events read before the error have
+     *         already been passed on.
+     */
+    public boolean scan(@NonNull byte[] callbackJSON, @NonNull Consumer<RawEvent> consumer) throws IOException {
+        return scan(callbackJSON, 0, callbackJSON.length, consumer);
+    }
+
+    /**
+     * @see #scan(byte[], Consumer)
+     */
+    public boolean scan(@NonNull byte[] callbackJSON, int offset, int length, @NonNull Consumer<RawEvent> consumer) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(callbackJSON, offset, length)) {
+            return new Scan(parser, callbackJSON, offset, false).run(consumer);
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of the buffer without changing its position. The events share the
+     * buffer's backing array if it has one, and a single copy of the remaining bytes otherwise.
+     *
+     * @see #scan(byte[], Consumer)
+     */
+    public boolean scan(@NonNull ByteBuffer callbackJSON, @NonNull Consumer<RawEvent> consumer) throws IOException {
+        if (callbackJSON.hasArray()) {
+            return scan(callbackJSON.array(), callbackJSON.arrayOffset() + callbackJSON.position(), callbackJSON.remaining(), consumer);
+        }
+        return scan(copyRemaining(callbackJSON), consumer);
+    }
+
+    /**
+     * Passes every event of the callback to the consumer as a {@link LazyMessaging}, which only
+     * deserializes the message, postback or other nested object when it is asked for.
+     *
+     * @see #scan(byte[], Consumer)
+     */
+    public boolean scanLazily(@NonNull byte[] callbackJSON, @NonNull Consumer<LazyMessaging> consumer) throws IOException {
+        return scanLazily(callbackJSON, 0, callbackJSON.length, consumer);
+    }
+
+    /**
+     * @see #scanLazily(byte[], Consumer)
+     */
+    public boolean scanLazily(@NonNull byte[] callbackJSON, int offset, int length, @NonNull Consumer<LazyMessaging> consumer) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(callbackJSON, offset, length)) {
+            return new Scan(parser, callbackJSON, offset, true).run(event -> consumer.accept((LazyMessaging) event));
+        }
+    }
+
+    /**
+     * @see #scanLazily(byte[], Consumer)
+     * @see #scan(ByteBuffer, Consumer)
+     */
+    public boolean scanLazily(@NonNull ByteBuffer callbackJSON, @NonNull Consumer<LazyMessaging> consumer) throws IOException {
+        if (callbackJSON.hasArray()) {
+            return scanLazily(callbackJSON.array(), callbackJSON.arrayOffset() + callbackJSON.position(), callbackJSON.remaining(), consumer);
+        }
+        return scanLazily(copyRemaining(callbackJSON), consumer);
+    }
+
+    private static byte[] copyRemaining(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * The state of scanning one callback.
+     */
+    private static class Scan {
+        private final JsonParser parser;
+        private final byte[] array;
+        /**
+         * Where the parser's byte offsets, which count from the start of its input, are in the array.
+         */
+        private final int base;
+        /**
+         * Whether to produce {@link LazyMessaging} events.
+         */
+        private final boolean lazy;
+        /**
+         * The id last read, if it is not numeric.
+         */
+        private String idText;
+
+        Scan(JsonParser parser, byte[] array, int base, boolean lazy) {
+            this.parser = parser;
+            this.array = array;
+            this.base = base;
+            this.lazy = lazy;
+        }
+
+        boolean run(Consumer<RawEvent> consumer) throws IOException {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("Callback is not a JSON object", parser.getCurrentLocation());
+            }
+
+            boolean pageObject = false;
+            List<RawEvent> heldBack = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (FIELD_OBJECT.equals(fieldName)) {
+                    if (!CallbackParser.CALLBACK_OBJECT_PAGE.equals(value == JsonToken.VALUE_STRING ? parser.getText() : null)) {
+                        return false;
+                    }
+                    pageObject = true;
+                    if (heldBack != null) {
+                        heldBack.forEach(consumer);
+                        heldBack = null;
+                    }
+                } else if (FIELD_ENTRY.equals(fieldName) && value == JsonToken.START_ARRAY) {
+                    if (pageObject) {
+                        readEntries(consumer);
+                    } else {
+                        heldBack = heldBack == null ? new ArrayList<>() : heldBack;
+                        readEntries(heldBack::add);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return pageObject;
+        }
+
+        private void readEntries(Consumer<RawEvent> consumer) throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == JsonToken.START_OBJECT) {
+                    readEntry(consumer);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        private void readEntry(Consumer<RawEvent> consumer) throws IOException {
+            boolean hasPageId = false;
+            String pageId = null;
+            long pageLongId = Ids.NO_ID;
+            List<RawEvent> heldBack = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (FIELD_ID.equals(fieldName) && value.isScalarValue()) {
+                    hasPageId = true;
+                    pageLongId = readIdValue();
+                    pageId = idText;
+                } else if (FIELD_MESSAGING.equals(fieldName) && value == JsonToken.START_ARRAY) {
+                    if (hasPageId) {
+                        readMessaging(pageId, pageLongId, consumer);
+                    } else {
+                        heldBack = heldBack == null ? new ArrayList<>() : heldBack;
+                        readMessaging(null, Ids.NO_ID, heldBack::add);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (heldBack != null) {
+                for (RawEvent event : heldBack) {
+                    consumer.accept(event.withPageId(pageId, pageLongId));
+                }
+            }
+        }
+
+        private void readMessaging(String pageId, long pageLongId, Consumer<RawEvent> consumer) throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == JsonToken.START_OBJECT) {
+                    consumer.accept(readEvent(pageId, pageLongId));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        /**
+         * Reads a {@link Messaging} object, only looking at the fields needed for routing, and in
+         * lazy mode noting where its nested objects are.
+         */
+        private RawEvent readEvent(String pageId, long pageLongId) throws IOException {
+            // The current location is just past the opening brace.
+            int start = offset() - 1;
+            String senderId = null;
+            long senderLongId = Ids.NO_ID;
+            String recipientId = null;
+            long recipientLongId = Ids.NO_ID;
+            Long timestamp = null;
+            int[] parts = lazy ? LazyMessaging.newParts() : null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                int part;
+                if (FIELD_SENDER.equals(fieldName) && value == JsonToken.START_OBJECT) {
+                    senderLongId = readId();
+                    senderId = idText;
+                } else if (FIELD_TIMESTAMP.equals(fieldName) && value == JsonToken.VALUE_NUMBER_INT) {
+                    timestamp = parser.getLongValue();
+                } else if (lazy && FIELD_RECIPIENT.equals(fieldName) && value == JsonToken.START_OBJECT) {
+                    recipientLongId = readId();
+                    recipientId = idText;
+                } else if (lazy && value == JsonToken.START_OBJECT && (part = getPart(fieldName)) >= 0) {
+                    int partStart = offset() - 1;
+                    parser.skipChildren();
+                    parts[part * 2] = partStart;
+                    parts[part * 2 + 1] = offset() - partStart;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (lazy) {
+                return new LazyMessaging(pageId, pageLongId, senderId, senderLongId, recipientId, recipientLongId, timestamp,
+                    array, start, offset() - start, parts);
+            }
+            return new RawEvent(pageId, pageLongId, senderId, senderLongId, timestamp, array, start, offset() - start);
+        }
+
+        private static int getPart(String fieldName) {
+            switch (fieldName) {
+                case FIELD_MESSAGE:
+                    return LazyMessaging.MESSAGE;
+                case FIELD_POSTBACK:
+                    return LazyMessaging.POSTBACK;
+                case FIELD_OPTIN:
+                    return LazyMessaging.OPTIN;
+                case FIELD_DELIVERY:
+                    return LazyMessaging.DELIVERY;
+                case FIELD_READ:
+                    return LazyMessaging.READ;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * Reads the id of a user object. See {@link #readIdValue()}.
+         */
+        private long readId() throws IOException {
+            long id = Ids.NO_ID;
+            idText = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (FIELD_ID.equals(fieldName) && value.isScalarValue()) {
+                    id = readIdValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return id;
+        }
+
+        /**
+         * Reads the current id value as a long, straight from the parser's buffer, leaving
+         * {@link #idText} null. An id that is not numeric is returned as {@link Ids#NO_ID} and
+         * kept in {@link #idText} instead.
+         */
+        private long readIdValue() throws IOException {
+            JsonToken token = parser.getCurrentToken();
+            long id = Ids.NO_ID;
+            if (token == JsonToken.VALUE_STRING) {
+                id = Ids.parse(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            } else if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                id = Math.max(Ids.NO_ID, parser.getLongValue());
+            }
+            idText = id == Ids.NO_ID ? parser.getText() : null;
+            return id;
+        }
+
+        /**
+         * The index in the array just past the current token.
+         */
+        private int offset() {
+            return base + (int) parser.getCurrentLocation().getByteOffset();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The part of a webhook pipeline that a {@link CallbackReplayer} feeds recorded requests to.
+ */
+@FunctionalInterface
+public interface ReplayTarget {
+
+    /**
+     * @param signature the recorded X-Hub-Signature header, or null if there was none
+     * @param body the recorded body, which may be read freely
+     * @return false if the request was rejected, e.g. because the signature did not match
+     */
+    boolean accept(String signature, ByteBuffer body) throws Exception;
+}
@@ -0,0 +1,154 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.NonNull;
+
+/**
+ * Checks the X-Hub-Signature header of webhook callbacks against the raw request body, without
+ * turning the body into a String.
+ *
+ * Each thread keeps its own {@link Mac}, already initialized with the app secret, along with
+ * buffers for the computed and the expected digest, so verifying a request allocates nothing. The
+ * hex signature is decoded into bytes and the digests are compared in constant time, which does not
+ * leak how much of a forged signature was right.
+ *
+ * Create one verifier per app secret and share it across threads.
+ *
+ * https://developers.facebook.com/docs/messenger-platform/webhook-reference#security
+ */
+public class SignatureVerifier {
+
+    public static final String ALGORITHM = "HmacSHA1";
+    public static final String SIGNATURE_PREFIX = "sha1=";
+
+    private static final int DIGEST_LENGTH = 20;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(this::newState);
+
+    public SignatureVerifier(@NonNull String appSecretKey) {
+        checkArgument(StringUtils.isNotBlank(appSecretKey), "appSecretKey cannot be blank");
+
+        this.key = new SecretKeySpec(appSecretKey.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        // Fails here rather than on the first request if the key cannot be used.
+        state.get();
+    }
+
+    /**
+     * @param signature the X-Hub-Signature header, e.g. sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f3
+     */
+    public boolean isValid(@NonNull String signature, @NonNull byte[] body) {
+        return isValid(signature, body, 0, body.length);
+    }
+
+    /**
+     * @see #isValid(String, byte[])
+     */
+    public boolean isValid(@NonNull String signature, @NonNull byte[] body, int offset, int length) {
+        Mac mac = getMac();
+        mac.update(body, offset, length);
+        return verify(signature);
+    }
+
+    /**
+     * Reads the remaining bytes of the buffer without changing its position.
+     *
+     * @see #isValid(String, byte[])
+     */
+    public boolean isValid(@NonNull String signature, @NonNull ByteBuffer body) {
+        Mac mac = getMac();
+        int position = body.position();
+        mac.update(body);
+        body.position(position);
+        return verify(signature);
+    }
+
+    /**
+     * The {@link Mac} of the calling thread, reset in case an earlier call did not finish. Together
+     * with {@link #verify(String)} this lets a body be signed while it is being read.
+     */
+    Mac getMac() {
+        Mac mac = state.get().mac;
+        mac.reset();
+        return mac;
+    }
+
+    /**
+     * Finishes the {@link Mac} of the calling thread and compares its digest with the signature.
+     */
+    boolean verify(@NonNull String signature) {
+        State current = state.get();
+        try {
+            current.mac.doFinal(current.digest, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        return decodeSignature(signature, current.expected) && MessageDigest.isEqual(current.digest, current.expected);
+    }
+
+    /**
+     * Decodes the hex part of the signature into the given buffer, returning false if the signature
+     * is not well-formed.
+     */
+    private static boolean decodeSignature(String signature, byte[] expected) {
+        if (signature.length() != SIGNATURE_PREFIX.length() + 2 * DIGEST_LENGTH || !signature.startsWith(SIGNATURE_PREFIX)) {
+            return false;
+        }
+        int valid = 0;
+        for (int i = 0, position = SIGNATURE_PREFIX.length(); i < DIGEST_LENGTH; i++, position += 2) {
+            int high = hexValue(signature.charAt(position));
+            int low = hexValue(signature.charAt(position + 1));
+            valid |= high | low;
+            expected[i] = (byte) ((high << 4) | low);
+        }
+        return valid >= 0;
+    }
+
+    /**
+     * The value of an ASCII hex digit, or -1.
+     */
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private State newState() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return new State(mac);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Cannot create " + ALGORITHM + " for the app secret", e);
+        }
+    }
+
+    private static class State {
+        private final Mac mac;
+        private final byte[] digest = new byte[DIGEST_LENGTH];
+        private final byte[] expected = new byte[DIGEST_LENGTH];
+
+        State(Mac mac) {
+            this.mac = mac;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.id.IdKeyedMap;
+
+import lombok.NonNull;
+
+/**
+ * Works out which sent messages a delivery or read event covers.
+ *
+ * Those events often carry only a watermark: every message sent to the user before it has been
+ * delivered or read. The tracker records each sent message per recipient, ordered by send time in
+ * parallel primitive and id arrays, and answers a watermark with a binary search. Only messages the
+ * watermark newly covers are returned, so each message is reported at most once as delivered and
+ * once as read. A delivery can come in before the response of the send it covers; the message is
+ * then reported by the next delivery event of the recipient, or by a read that covers it.
+ *
+ * Messages are dropped once they have been read, once they are older than retentionMillis, which
+ * {@link #evictExpired()} enforces, or once a recipient has more than maxMessagesPerRecipient.
+ *
+ * Timelines are kept in an {@link IdKeyedMap}, so numeric recipient ids are stored as longs.
+ *
+ * Send times are taken from the local clock, while watermarks come from Facebook, so the two
+ * clocks should be reasonably in sync. A send time has to be taken before the request is sent:
+ * Facebook accepts the message before the response comes back, so a watermark covering the newest
+ * message can be earlier than the time the response arrived.
+ */
+public class WatermarkTracker {
+
+    private static final int INITIAL_TIMELINE_CAPACITY = 4;
+
+    private final long retentionMillis;
+    private final int maxMessagesPerRecipient;
+
+    private final IdKeyedMap<Timeline> timelines = new IdKeyedMap<>();
+
+    public WatermarkTracker(long retentionMillis, int maxMessagesPerRecipient) {
+        checkArgument(retentionMillis > 0, "retentionMillis must be positive");
+        checkArgument(maxMessagesPerRecipient > 0, "maxMessagesPerRecipient must be positive");
+
+        this.retentionMillis = retentionMillis;
+        this.maxMessagesPerRecipient = maxMessagesPerRecipient;
+    }
+
+    /**
+     * Sends a message and records it once sent, with the time the send started, e.g. as
+     * {@code tracker.track(() -> client.sendTextMessageAsync(...))}.
+     *
+     * @return the send
+     */
+    public CompletableFuture<MessageResponse> track(@NonNull Supplier<CompletableFuture<MessageResponse>> send) {
+        long sentAtMillis = System.currentTimeMillis();
+        return send.get().thenApply(response -> {
+            record(response, sentAtMillis);
+            return response;
+        });
+    }
+
+    /**
+     * Records a sent message.
+     *
+     * @param sentAtMillis when the request was sent, not when the response came back
+     */
+    public void record(@NonNull MessageResponse response, long sentAtMillis) {
+        record(response.getRecipientId(), response.getMessageId(), sentAtMillis);
+    }
+
+    public void record(@NonNull String recipientId, @NonNull String messageId, long sentAtMillis) {
+        checkArgument(StringUtils.isNotBlank(recipientId), "recipientId cannot be blank");
+
+        timelines.compute(recipientId, timeline -> add(timeline, messageId, sentAtMillis));
+    }
+
+    /**
+     * Same as {@link #record(String, String, long)} for a numeric recipient id.
+     */
+    public void record(long recipientId, @NonNull String messageId, long sentAtMillis) {
+        checkArgument(recipientId >= 0, "recipientId cannot be negative");
+
+        timelines.compute(recipientId, timeline -> add(timeline, messageId, sentAtMillis));
+    }
+
+    /**
+     * Adds within compute so that evictExpired cannot drop the timeline in between.
+     */
+    private Timeline add(Timeline timeline, String messageId, long sentAtMillis) {
+        if (timeline == null) {
+            timeline = new Timeline();
+        }
+        synchronized (timeline) {
+            timeline.add(messageId, sentAtMillis, maxMessagesPerRecipient);
+        }
+        return timeline;
+    }
+
+    /**
+     * The ids of the messages that the delivery or read event newly covers, in the order they were
+     * sent. A delivery that lists its mids returns those instead. Any other event returns an empty
+     * list.
+     */
+    public List<String> resolve(@NonNull Messaging messaging) {
+        if (messaging.getSender() == null || messaging.getSender().getId() == null) {
+            return Collections.emptyList();
+        }
+        StatusUpdate delivery = messaging.getDelivery();
+        StatusUpdate read = messaging.getRead();
+        if (delivery != null && delivery.getMids() != null && !delivery.getMids().isEmpty()) {
+            return delivery.getMids();
+        }
+        StatusUpdate statusUpdate = delivery != null ? delivery : read;
+        if (statusUpdate == null || statusUpdate.getWatermark() == null) {
+            return Collections.emptyList();
+        }
+
+        Timeline timeline = timelines.get(messaging.getSender().getId());
+        if (timeline == null) {
+            return Collections.emptyList();
+        }
+        synchronized (timeline) {
+            return delivery != null ? timeline.deliver(statusUpdate.getWatermark()) : timeline.read(statusUpdate.getWatermark());
+        }
+    }
+
+    /**
+     * Drops messages older than retentionMillis and recipients with nothing left. Call it
+     * periodically.
+     */
+    public void evictExpired() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        timelines.removeIf(timeline -> {
+            synchronized (timeline) {
+                timeline.dropUpTo(cutoff);
+                return timeline.size == 0;
+            }
+        });
+    }
+
+    /**
+     * The number of recipients with tracked messages.
+     */
+    public int getRecipientCount() {
+        return timelines.size();
+    }
+
+    /**
+     * The number of tracked messages for the recipient.
+     */
+    public int getMessageCount(@NonNull String recipientId) {
+        Timeline timeline = timelines.get(recipientId);
+        if (timeline == null) {
+            return 0;
+        }
+        synchronized (timeline) {
+            return timeline.size;
+        }
+    }
+
+    /**
+     * The messages sent to one recipient, ordered by send time. Entries live at [start, start +
+     * size) of the arrays.
+     */
+    private static class Timeline {
+        private long[] sentAt = new long[INITIAL_TIMELINE_CAPACITY];
+        private String[] messageIds = new String[INITIAL_TIMELINE_CAPACITY];
+        private int start;
+        private int size;
+        private long deliveredWatermark = Long.MIN_VALUE;
+        /**
+         * Messages recorded after a delivery had already covered them, in the order they were
+         * recorded. Null while there are none.
+         */
+        private List<String> lateDeliveries;
+
+        void add(String messageId, long sentAtMillis, int maxSize) {
+            if (size == maxSize) {
+                removeFirst(1);
+            }
+            if (sentAtMillis <= deliveredWatermark) {
+                if (lateDeliveries == null) {
+                    lateDeliveries = new ArrayList<>(2);
+                }
+                lateDeliveries.add(messageId);
+            }
+            if (start + size == sentAt.length) {
+                makeRoom();
+            }
+            // Sends usually complete in order, so this is normally an append.
+            int position = upperBound(sentAtMillis);
+            int end = start + size;
+            System.arraycopy(sentAt, position, sentAt, position + 1, end - position);
+            System.arraycopy(messageIds, position, messageIds, position + 1, end - position);
+            sentAt[position] = sentAtMillis;
+            messageIds[position] = messageId;
+            size++;
+        }
+
+        List<String> deliver(long watermark) {
+            List<String> late = lateDeliveries;
+            lateDeliveries = null;
+            if (watermark <= deliveredWatermark) {
+                return late == null ? Collections.emptyList() : late;
+            }
+            int from = upperBound(deliveredWatermark);
+            deliveredWatermark = watermark;
+            List<String> ids = ids(from, upperBound(watermark));
+            if (late == null) {
+                return ids;
+            }
+            // Sent before the previous watermark, so before the newly covered messages.
+            late.addAll(ids);
+            return late;
+        }
+
+        /**
+         * Read messages have also been delivered, and cannot be covered by a later watermark, so
+         * they are dropped.
+         */
+        List<String> read(long watermark) {
+            List<String> ids = ids(start, upperBound(watermark));
+            deliveredWatermark = Math.max(deliveredWatermark, watermark);
+            removeFirst(ids.size());
+            return ids;
+        }
+
+        void dropUpTo(long cutoff) {
+            removeFirst(upperBound(cutoff) - start);
+        }
+
+        /**
+         * The array index of the first entry sent after the given time.
+         */
+        private int upperBound(long time) {
+            int low = start;
+            int high = start + size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sentAt[middle] <= time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private List<String> ids(int from, int to) {
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<>(Arrays.asList(messageIds).subList(from, to));
+        }
+
+        private void removeFirst(int count) {
+            if (lateDeliveries != null && count > 0) {
+                lateDeliveries.removeAll(Arrays.asList(messageIds).subList(start, start + count));
+                if (lateDeliveries.isEmpty()) {
+                    lateDeliveries = null;
+                }
+            }
+            Arrays.fill(messageIds, start, start + count, null);
+            start += count;
+            size -= count;
+            if (size == 0) {
+                start = 0;
+            }
+        }
+
+        /**
+         * Moves the entries to the front, growing the arrays if they are more than half full.
+         */
+        private void makeRoom() {
+            int capacity = size * 2 > sentAt.length ? sentAt.length * 2 : sentAt.length;
+            long[] newSentAt = capacity == sentAt.length ? sentAt : new long[capacity];
+            String[] newMessageIds = capacity == messageIds.length ? messageIds : new String[capacity];
+            System.arraycopy(sentAt, start, newSentAt, 0, size);
+            System.arraycopy(messageIds, start, newMessageIds, 0, size);
+            if (newMessageIds == messageIds) {
+                Arrays.fill(messageIds, size, start + size, null);
+            }
+            sentAt = newSentAt;
+            messageIds = newMessageIds;
+            start = 0;
+        }
+    }
+}
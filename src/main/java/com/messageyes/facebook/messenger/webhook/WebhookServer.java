@@ -0,0 +1,348 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.messageyes.facebook.messenger.FacebookMessengerClient;
+import com.messageyes.facebook.messenger.bean.Callback;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A small embedded webhook end point, for services that do not otherwise run an HTTP server.
+ *
+ * It answers the subscription challenge Facebook sends when the webhook is set up, and accepts
+ * callbacks: the body is read, its X-Hub-Signature is checked with
+ * {@link FacebookMessengerClient#isValidRequest(String, String, byte[])}, and the parsed
+ * {@link Callback} is put on a bounded queue before the request is acknowledged. Handling the
+ * callback is left to whoever takes it from {@link #getQueue()}, so the 200 Facebook expects goes out
+ * as soon as the callback is safely queued, however slow the handlers are.
+ *
+ * When the queue is full the {@link OverflowPolicy} decides whether Facebook is told to deliver the
+ * callback again later or whether a callback is dropped.
+ *
+ * The server is built on the JDK's {@link HttpServer}, which multiplexes connections with NIO on a
+ * single dispatcher thread and passes requests to a few worker threads.
+ */
+@Slf4j
+public class WebhookServer implements Closeable {
+
+    private static final String HEADER_SIGNATURE = "X-Hub-Signature";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private static final String PARAMETER_MODE = "hub.mode";
+    private static final String PARAMETER_VERIFY_TOKEN = "hub.verify_token";
+    private static final String PARAMETER_CHALLENGE = "hub.challenge";
+    private static final String MODE_SUBSCRIBE = "subscribe";
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_FORBIDDEN = 403;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+    private static final int STATUS_PAYLOAD_TOO_LARGE = 413;
+    private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+
+    /**
+     * Stops a request without a content length from growing the body buffer one read at a time.
+     */
+    private static final int INITIAL_BODY_BUFFER_SIZE = 4096;
+
+    private static final ObjectReader CALLBACK_READER = new ObjectMapper().readerFor(Callback.class);
+
+    private final FacebookMessengerClient client;
+    private final WebhookServerConfig config;
+    private final byte[] verifyToken;
+    private final BlockingQueue<Callback> queue;
+    private final ExecutorService executor;
+    private final HttpServer server;
+
+    private final LongAdder acceptedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+
+    /**
+     * Starts listening right away.
+     *
+     * @throws IOException if the address cannot be bound
+     */
+    public WebhookServer(@NonNull FacebookMessengerClient client, @NonNull WebhookServerConfig config) throws IOException {
+        checkArgument(StringUtils.isNotBlank(config.getVerifyToken()), "verifyToken cannot be blank");
+        checkArgument(StringUtils.isNotBlank(config.getAppSecretKey()), "appSecretKey cannot be blank");
+        checkArgument(StringUtils.startsWith(config.getPath(), "/"), "path must start with /");
+        checkArgument(config.getQueueCapacity() > 0, "queueCapacity must be positive");
+        checkArgument(config.getMaxBodyBytes() > 0, "maxBodyBytes must be positive");
+        checkArgument(config.getThreads() > 0, "threads must be positive");
+        checkArgument(config.getOverflowPolicy() != null, "overflowPolicy cannot be null");
+
+        this.client = client;
+        this.config = config;
+        this.verifyToken = config.getVerifyToken().getBytes(StandardCharsets.UTF_8);
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+
+        InetSocketAddress address = config.getHost() == null ? new InetSocketAddress(config.getPort())
+            : new InetSocketAddress(config.getHost(), config.getPort());
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(config.getThreads(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("facebook-messenger-webhook-%d").build());
+        server.createContext(config.getPath(), this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * The verified callbacks, oldest first. Take them from here to handle them.
+     */
+    public BlockingQueue<Callback> getQueue() {
+        return queue;
+    }
+
+    /**
+     * The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Callbacks that were queued.
+     */
+    public long getAcceptedCount() {
+        return acceptedCount.sum();
+    }
+
+    /**
+     * Callbacks that were acknowledged but dropped because the queue was full, whether they were the
+     * new or the oldest ones.
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Callbacks that were refused with 503 because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Requests refused because they were too large, not correctly signed or not a page callback.
+     */
+    public long getInvalidCount() {
+        return invalidCount.sum();
+    }
+
+    /**
+     * Stops accepting connections and waits for requests that are being read. Callbacks that are
+     * still queued stay in the queue.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            if (!config.getPath().equals(exchange.getRequestURI().getPath())) {
+                respond(exchange, STATUS_NOT_FOUND);
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                handleChallenge(exchange);
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                handleCallback(exchange);
+            } else {
+                respond(exchange, STATUS_METHOD_NOT_ALLOWED);
+            }
+        } catch (IOException e) {
+            log.warn("Error handling webhook request", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Echoes the challenge if the verify token matches.
+     *
+     * https://developers.facebook.com/docs/messenger-platform/webhook-reference#setup
+     */
+    private void handleChallenge(HttpExchange exchange) throws IOException {
+        List<NameValuePair> parameters = URLEncodedUtils.parse(exchange.getRequestURI(), StandardCharsets.UTF_8.name());
+        String mode = getParameter(parameters, PARAMETER_MODE);
+        String token = getParameter(parameters, PARAMETER_VERIFY_TOKEN);
+        String challenge = getParameter(parameters, PARAMETER_CHALLENGE);
+        if (!MODE_SUBSCRIBE.equals(mode) || token == null || challenge == null
+            || !MessageDigest.isEqual(verifyToken, token.getBytes(StandardCharsets.UTF_8))) {
+            log.error("Rejected webhook subscription challenge with mode {}", mode);
+            respond(exchange, STATUS_FORBIDDEN);
+            return;
+        }
+        byte[] body = challenge.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(HEADER_CONTENT_TYPE, "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(STATUS_OK, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void handleCallback(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange);
+        if (body == null) {
+            invalidCount.increment();
+            respond(exchange, STATUS_PAYLOAD_TOO_LARGE);
+            return;
+        }
+        String signature = exchange.getRequestHeaders().getFirst(HEADER_SIGNATURE);
+        record(signature, body);
+        if (StringUtils.isBlank(signature) || !client.isValidRequest(config.getAppSecretKey(), signature, body)) {
+            log.error("Rejected webhook callback with an invalid signature");
+            invalidCount.increment();
+            respond(exchange, STATUS_FORBIDDEN);
+            return;
+        }
+        Callback callback = readCallback(body);
+        if (callback == null) {
+            invalidCount.increment();
+            respond(exchange, STATUS_BAD_REQUEST);
+            return;
+        }
+        respond(exchange, enqueue(callback) ? STATUS_OK : STATUS_SERVICE_UNAVAILABLE);
+    }
+
+    private void record(String signature, byte[] body) {
+        CallbackRecorder recorder = config.getRecorder();
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.record(signature, body);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Error recording webhook callback", e);
+        }
+    }
+
+    /**
+     * Queues the callback according to the overflow policy, returning false if Facebook should
+     * deliver it again.
+     */
+    private boolean enqueue(Callback callback) {
+        if (queue.offer(callback)) {
+            acceptedCount.increment();
+            return true;
+        }
+        switch (config.getOverflowPolicy()) {
+            case DROP_NEWEST:
+                droppedCount.increment();
+                return true;
+            case DROP_OLDEST:
+                // Takers may empty the queue in between, so the poll can come back empty.
+                do {
+                    if (queue.poll() != null) {
+                        droppedCount.increment();
+                    }
+                } while (!queue.offer(callback));
+                acceptedCount.increment();
+                return true;
+            default:
+                rejectedCount.increment();
+                return false;
+        }
+    }
+
+    /**
+     * Reads the whole body, or returns null if it is larger than maxBodyBytes.
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        int maxBodyBytes = config.getMaxBodyBytes();
+        long contentLength = parseContentLength(exchange.getRequestHeaders().getFirst(HEADER_CONTENT_LENGTH));
+        if (contentLength > maxBodyBytes) {
+            return null;
+        }
+        byte[] buffer = new byte[contentLength >= 0 ? (int) contentLength : Math.min(INITIAL_BODY_BUFFER_SIZE, maxBodyBytes)];
+        int length = 0;
+        try (InputStream in = exchange.getRequestBody()) {
+            while (true) {
+                if (length == buffer.length) {
+                    // Usually the content length was right and the body ends here.
+                    int next = in.read();
+                    if (next < 0) {
+                        return buffer;
+                    }
+                    if (length == maxBodyBytes) {
+                        return null;
+                    }
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) length * 2 + 1, maxBodyBytes));
+                    buffer[length++] = (byte) next;
+                }
+                int count = in.read(buffer, length, buffer.length - length);
+                if (count < 0) {
+                    return Arrays.copyOf(buffer, length);
+                }
+                length += count;
+            }
+        }
+    }
+
+    private static long parseContentLength(String contentLength) {
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The callback if it is a page object, or null.
+     */
+    private static Callback readCallback(byte[] body) {
+        try {
+            Callback callback = CALLBACK_READER.readValue(body);
+            if (callback != null && CallbackParser.CALLBACK_OBJECT_PAGE.equals(callback.getObject())) {
+                return callback;
+            }
+            log.error("The callback JSON is not a page object");
+        } catch (IOException e) {
+            log.error("Error deserializing callback JSON", e);
+        }
+        return null;
+    }
+
+    private static String getParameter(List<NameValuePair> parameters, String name) {
+        for (NameValuePair parameter : parameters) {
+            if (name.equals(parameter.getName())) {
+                return parameter.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+}
@@ -0,0 +1,60 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import lombok.Data;
+
+/**
+ * Settings of a {@link WebhookServer}. The verify token and the app secret key must be set.
+ */
+@Data
+public class WebhookServerConfig {
+    /**
+     * Address to listen on. All local addresses when not set.
+     */
+    private String host;
+
+    /**
+     * Port to listen on. Zero picks a free port, see {@link WebhookServer#getPort()}.
+     */
+    private int port = 8080;
+
+    /**
+     * Path Facebook is configured to call.
+     */
+    private String path = "/webhook";
+
+    /**
+     * Token that the subscription challenge must carry, as entered when setting up the webhook.
+     */
+    private String verifyToken;
+
+    /**
+     * App secret that callbacks are signed with.
+     */
+    private String appSecretKey;
+
+    /**
+     * Maximum number of callbacks waiting to be taken from {@link WebhookServer#getQueue()}.
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * What to do with a callback when the queue is full.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+
+    /**
+     * Larger request bodies are refused without being read.
+     */
+    private int maxBodyBytes = 1024 * 1024;
+
+    /**
+     * Number of threads reading and verifying requests. They only ever wait on the network, since
+     * handling the callbacks is left to whoever takes them from the queue.
+     */
+    private int threads = 2;
+
+    /**
+     * Records every callback request as received, before it is verified, when set.
+     */
+    private CallbackRecorder recorder;
+}
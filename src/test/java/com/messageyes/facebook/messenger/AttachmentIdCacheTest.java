@@ -0,0 +1,83 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+public class AttachmentIdCacheTest {
+    private static final String URL = "https://example.com/image.png";
+
+    private FakeTicker ticker;
+    private AttachmentIdCache impl;
+
+    @BeforeMethod
+    public void setup() {
+        ticker = new FakeTicker();
+        impl = new AttachmentIdCache(100, 10000, ticker);
+    }
+
+    @Test
+    public void claim() {
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        assertNull(impl.claim("token", URL, upload));
+        assertSame(impl.claim("token", URL, new CompletableFuture<>()), upload);
+        assertNull(impl.getAttachmentId("token", URL));
+
+        impl.complete("token", URL, upload, "att.1");
+        assertEquals(upload.join(), "att.1");
+        assertEquals(impl.getAttachmentId("token", URL), "att.1");
+        assertNull(impl.getAttachmentId("other token", URL));
+    }
+
+    @Test
+    public void complete_failed() {
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        impl.claim("token", URL, upload);
+        impl.complete("token", URL, upload, null);
+
+        assertNull(upload.join());
+        assertEquals(impl.size(), 0);
+        assertNull(impl.claim("token", URL, new CompletableFuture<>()));
+    }
+
+    @Test
+    public void expired() {
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        impl.claim("token", URL, upload);
+        impl.complete("token", URL, upload, "att.1");
+
+        ticker.advance(10000);
+        assertNull(impl.getAttachmentId("token", URL));
+    }
+
+    @Test
+    public void invalidate() {
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        impl.claim("token", URL, upload);
+        impl.complete("token", URL, upload, "att.1");
+
+        impl.invalidate("token", URL);
+        assertNull(impl.getAttachmentId("token", URL));
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
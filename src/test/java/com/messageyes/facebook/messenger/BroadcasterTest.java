@@ -0,0 +1,257 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.messageyes.facebook.messenger.StubGraphApiServer.StubResponse;
+import com.messageyes.facebook.messenger.bean.Attachment;
+import com.messageyes.facebook.messenger.bean.BroadcastResult;
+import com.messageyes.facebook.messenger.bean.Element;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.MessageRequest;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.OutboundPayload;
+import com.messageyes.facebook.messenger.bean.QuickReply;
+import com.messageyes.facebook.messenger.bean.User;
+
+public class BroadcasterTest {
+    private static final String ERROR_RESPONSE =
+        "{\"error\":{\"message\":\"No matching user found\",\"type\":\"OAuthException\",\"code\":100,\"error_subcode\":2018001,\"fbtrace_id\":\"fb_trace_id\"}}";
+
+    private StubGraphApiServer server;
+    private FacebookMessengerClient client;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        server = new StubGraphApiServer(request -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+                MessageRequest messageRequest = FacebookMessengerClient.OBJECT_MAPPER.readValue(request.getBody(), MessageRequest.class);
+                String recipientId = messageRequest.getRecipient().getId();
+                if (recipientId.startsWith("unknown")) {
+                    return new StubResponse(400, ERROR_RESPONSE);
+                }
+                return new StubResponse(200, "{\"recipient_id\":\"" + recipientId + "\",\"message_id\":\"mid." + recipientId + "\"}");
+            } catch (Exception e) {
+                return new StubResponse(500, "{}");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        client = new FacebookMessengerClient(server.getMessageEndPoint(), 5000);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        client.close();
+        server.close();
+    }
+
+    private static OutboundMessage buildGenericMessage() {
+        List<Element> elements = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Element element = new Element();
+            element.setTitle("title \"" + i + "\"");
+            element.setSubtitle("subtitle \u00e9 " + i);
+            elements.add(element);
+        }
+        OutboundPayload payload = new OutboundPayload();
+        payload.setTemplateType("generic");
+        payload.setElements(elements);
+        Attachment attachment = new Attachment();
+        attachment.setType("template");
+        attachment.setPayload(payload);
+        QuickReply quickReply = new QuickReply();
+        quickReply.setContentType("text");
+        quickReply.setTitle("yes");
+        quickReply.setPayload("YES");
+
+        OutboundMessage message = new OutboundMessage();
+        message.setAttachment(attachment);
+        message.setQuickReplies(ImmutableList.of(quickReply));
+        return message;
+    }
+
+    @Test
+    public void buildBody() throws Exception {
+        OutboundMessage message = buildGenericMessage();
+        byte[] messageBody = FacebookMessengerClient.OBJECT_MAPPER.writeValueAsBytes(message);
+
+        for (String recipientId : Arrays.asList("1234567890", "quote\" and \\ backslash \u00e9")) {
+            MessageRequest messageRequest = new MessageRequest();
+            User recipient = new User();
+            recipient.setId(recipientId);
+            messageRequest.setRecipient(recipient);
+            messageRequest.setMessage(message);
+
+            assertEquals(new String(Broadcaster.buildBody(recipientId, messageBody), StandardCharsets.UTF_8),
+                FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(messageRequest));
+        }
+    }
+
+    @Test
+    public void broadcast() throws Exception {
+        List<String> recipientIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            recipientIds.add("recipient" + i);
+        }
+        Map<String, String> messageIds = new ConcurrentHashMap<>();
+
+        BroadcastResult result = new Broadcaster(client, 4).broadcast("test_page_access_token", buildGenericMessage(), recipientIds,
+            (recipientId, response, error) -> {
+                assertNull(error);
+                messageIds.put(recipientId, response.getMessageId());
+            }).get();
+
+        assertEquals(result.getSentCount(), 100);
+        assertEquals(result.getFailedCount(), 0);
+        assertEquals(messageIds.size(), 100);
+        assertEquals(messageIds.get("recipient42"), "mid.recipient42");
+        assertEquals(server.getRequests().size(), 100);
+        assertEquals(server.getRequests().get(0).getUri(), "/me/messages?access_token=test_page_access_token");
+        assertTrue(maxInFlight.get() <= 4, "max in flight " + maxInFlight.get());
+    }
+
+    @Test
+    public void broadcast_recipientsTakenOffIoThreads() throws Exception {
+        List<String> takingThreads = Collections.synchronizedList(new ArrayList<>());
+        Iterable<String> recipientIds = () -> new Iterator<String>() {
+            private int taken;
+
+            @Override
+            public boolean hasNext() {
+                return taken < 20;
+            }
+
+            @Override
+            public String next() {
+                takingThreads.add(Thread.currentThread().getName());
+                return "recipient" + taken++;
+            }
+        };
+
+        BroadcastResult result = new Broadcaster(client, 2).broadcast("test_page_access_token", buildGenericMessage(), recipientIds).get();
+
+        assertEquals(result.getSentCount(), 20);
+        for (String thread : takingThreads) {
+            assertTrue(thread.startsWith("facebook-messenger-broadcast-"), thread);
+        }
+    }
+
+    @Test
+    public void broadcast_slowListenerOnlyHoldsUpItsBroadcaster() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (Broadcaster slow = new Broadcaster(client, 2, 1); Broadcaster fast = new Broadcaster(client, 2, 1)) {
+            CompletableFuture<BroadcastResult> blocked = slow.broadcast("test_page_access_token", buildGenericMessage(),
+                ImmutableList.of("1", "2", "3"), (recipientId, response, error) -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+
+            BroadcastResult result = fast.broadcast("test_page_access_token", buildGenericMessage(), ImmutableList.of("4", "5", "6"))
+                .get(5, TimeUnit.SECONDS);
+            assertEquals(result.getSentCount(), 3);
+            assertFalse(blocked.isDone());
+
+            release.countDown();
+            assertEquals(blocked.get(5, TimeUnit.SECONDS).getSentCount(), 3);
+        }
+    }
+
+    @Test
+    public void broadcast_givenExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("campaign-%d").build());
+        List<String> listenerThreads = Collections.synchronizedList(new ArrayList<>());
+        try {
+            Broadcaster broadcaster = new Broadcaster(client, 4, executor);
+            BroadcastResult result = broadcaster.broadcast("test_page_access_token", buildGenericMessage(), ImmutableList.of("1", "2", "3"),
+                (recipientId, response, error) -> listenerThreads.add(Thread.currentThread().getName())).get();
+            broadcaster.close();
+
+            assertEquals(result.getSentCount(), 3);
+            assertEquals(listenerThreads, ImmutableList.of("campaign-0", "campaign-0", "campaign-0"));
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void broadcast_failedRecipients() throws Exception {
+        Map<String, Throwable> errors = new ConcurrentHashMap<>();
+
+        BroadcastResult result = new Broadcaster(client, 2).broadcast("test_page_access_token", buildGenericMessage(),
+            Arrays.asList("recipient1", "unknown1", " ", "recipient2", null), (recipientId, response, error) -> {
+                if (error != null) {
+                    errors.put(recipientId, error);
+                }
+            }).get();
+
+        assertEquals(result.getSentCount(), 2);
+        assertEquals(result.getFailedCount(), 3);
+        assertEquals(((FacebookMessengerSendException) errors.get("unknown1")).getErrorCode().longValue(), 100L);
+        assertTrue(errors.get(" ") instanceof IllegalArgumentException);
+        assertTrue(errors.get("") instanceof IllegalArgumentException);
+        assertEquals(server.getRequests().size(), 3);
+    }
+
+    @Test
+    public void broadcast_iterationFails() throws Exception {
+        AtomicInteger taken = new AtomicInteger();
+        Iterable<String> recipientIds = () -> new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (taken.incrementAndGet() > 10) {
+                    throw new IllegalStateException("cursor closed");
+                }
+                return "recipient" + taken.get();
+            }
+        };
+
+        try {
+            new Broadcaster(client, 3).broadcast("test_page_access_token", buildGenericMessage(), recipientIds).get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(server.getRequests().size(), 10);
+        assertEquals(taken.get(), 11);
+    }
+}
@@ -0,0 +1,304 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.messageyes.facebook.messenger.CircuitBreaker.State;
+import com.messageyes.facebook.messenger.CircuitBreakerRegistry.Permit;
+import com.messageyes.facebook.messenger.bean.CircuitOpenException;
+import com.messageyes.facebook.messenger.bean.ErrorPayload;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+
+public class CircuitBreakerRegistryTest {
+    private static final String END_POINT = "https://graph.facebook.com/v2.6/me/messages?access_token=";
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private FakeTicker ticker;
+    private CircuitBreakerRegistry impl;
+
+    @BeforeMethod
+    public void setup() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setSlidingWindowSize(10);
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(0.5);
+        config.setSlowCallRateThreshold(0.5);
+        config.setSlowCallDurationMillis(1000);
+        config.setOpenDurationMillis(5000);
+        config.setHalfOpenTrialCalls(2);
+        config.setIdleMillis(60000);
+
+        ticker = new FakeTicker();
+        impl = new CircuitBreakerRegistry(config, ticker);
+    }
+
+    private static FacebookMessengerSendException graphError(long code) {
+        ErrorPayload error = new ErrorPayload();
+        error.setCode(code);
+        error.setMessage("test error");
+        return new FacebookMessengerSendException(error);
+    }
+
+    private void call(String page, long durationMillis, Throwable error) throws CircuitOpenException {
+        Permit permit = impl.acquirePermission(END_POINT, page);
+        impl.onResult(permit, TimeUnit.MILLISECONDS.toNanos(durationMillis), error);
+    }
+
+    private void assertRejected(String page) {
+        try {
+            impl.acquirePermission(END_POINT, page);
+            fail("CircuitOpenException expected");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void pageBreaker_opensAndRecovers() throws Exception {
+        call("page", 10, null);
+        call("page", 10, graphError(190));
+        call("page", 10, null);
+        assertEquals(impl.getPageBreaker("page").getState(), State.CLOSED);
+        call("page", 10, graphError(190));
+
+        assertEquals(impl.getPageStates(), ImmutableMap.of(CircuitBreakerRegistry.getPageKey("page"), State.OPEN));
+        assertRejected("page");
+        // Other pages and the end point are not affected.
+        call("other page", 10, null);
+        assertTrue(impl.getEndPointStates().isEmpty());
+
+        ticker.advance(5000);
+        assertEquals(impl.getPageStates(), ImmutableMap.of(CircuitBreakerRegistry.getPageKey("page"), State.HALF_OPEN));
+        Permit first = impl.acquirePermission(END_POINT, "page");
+        Permit second = impl.acquirePermission(END_POINT, "page");
+        assertRejected("page");
+        impl.onResult(first, 0, null);
+        impl.onResult(second, 0, null);
+
+        assertTrue(impl.getPageStates().isEmpty());
+        assertEquals(impl.getPageBreaker("page").getFailureRate(), 0.0);
+    }
+
+    @Test
+    public void pageBreaker_halfOpenFailureReopens() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            call("page", 10, graphError(368));
+        }
+        ticker.advance(5000);
+        call("page", 10, graphError(368));
+
+        assertEquals(impl.getPageStates(), ImmutableMap.of(CircuitBreakerRegistry.getPageKey("page"), State.OPEN));
+        ticker.advance(4999);
+        assertRejected("page");
+    }
+
+    @Test
+    public void pageBreaker_ignoresCallsAllowedBeforeOpening() throws Exception {
+        Permit late = impl.acquirePermission(END_POINT, "page");
+        for (int i = 0; i < 4; i++) {
+            call("page", 10, graphError(190));
+        }
+        ticker.advance(5000);
+        Permit trial = impl.acquirePermission(END_POINT, "page");
+
+        // Allowed while closed, so it is not one of the two trial calls.
+        impl.onResult(late, 0, null);
+        impl.onResult(trial, 0, null);
+        assertEquals(impl.getPageStates(), ImmutableMap.of(CircuitBreakerRegistry.getPageKey("page"), State.HALF_OPEN));
+
+        call("page", 10, null);
+        assertTrue(impl.getPageStates().isEmpty());
+    }
+
+    @Test
+    public void pageBreaker_ignoresRecipientErrors() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            call("page", 10, graphError(100));
+        }
+        assertTrue(impl.getPageStates().isEmpty());
+        assertTrue(impl.getEndPointStates().isEmpty());
+    }
+
+    @Test
+    public void endPointBreaker_opensOnTransportFailures() throws Exception {
+        call("first page", 10, new FacebookMessengerSendException("transport", new SocketTimeoutException()));
+        call("second page", 10, new FacebookMessengerSendException("transport", new SocketTimeoutException()));
+        call("third page", 10, graphError(1200));
+        call("fourth page", 10, null);
+
+        assertEquals(impl.getEndPointStates(), ImmutableMap.of(END_POINT, State.OPEN));
+        assertTrue(impl.getPageStates().isEmpty());
+        assertRejected("fifth page");
+    }
+
+    @Test
+    public void endPointBreaker_opensOnSlowCalls() throws Exception {
+        call("page", 1500, null);
+        call("page", 10, null);
+        call("page", 1500, null);
+        call("page", 10, null);
+
+        assertEquals(impl.getEndPointStates(), ImmutableMap.of(END_POINT, State.OPEN));
+        assertEquals(impl.getEndPointBreaker(END_POINT).getSlowCallRate(), 0.5);
+    }
+
+    @Test
+    public void acquirePermission_pageRejectionReleasesEndPointTrial() throws Exception {
+        call("blocked page", 10, null);
+        List<Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            permits.add(impl.acquirePermission(END_POINT, "blocked page"));
+        }
+        for (int i = 0; i < 3; i++) {
+            call("page", 10, new FacebookMessengerSendException("transport", new SocketTimeoutException()));
+        }
+        ticker.advance(2500);
+        for (Permit permit : permits) {
+            impl.onResult(permit, 0, graphError(190));
+        }
+        ticker.advance(2500);
+
+        // The end point is half-open with two trial calls, which the still open page must not use up.
+        assertRejected("blocked page");
+        assertRejected("blocked page");
+        impl.acquirePermission(END_POINT, "page");
+        impl.acquirePermission(END_POINT, "page");
+        assertRejected("page");
+        assertEquals(impl.getPageStates(), ImmutableMap.of(CircuitBreakerRegistry.getPageKey("blocked page"), State.OPEN));
+    }
+
+    @Test
+    public void getPageStates_hidesTokens() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            call("secret token", 10, graphError(190));
+        }
+
+        String key = CircuitBreakerRegistry.getPageKey("secret token");
+        assertEquals(key.length(), 16);
+        assertFalse(key.contains("secret"));
+        assertEquals(impl.getPageStates(), ImmutableMap.of(key, State.OPEN));
+    }
+
+    @Test
+    public void evictIdle() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            call("rotated token", 10, graphError(190));
+        }
+        call("idle page", 10, null);
+        ticker.advance(30000);
+        call("busy page", 10, null);
+        ticker.advance(30000);
+
+        impl.evictIdle();
+
+        assertNull(impl.getPageBreaker("idle page"));
+        // Its open duration is over, so it would let calls through again anyway.
+        assertNull(impl.getPageBreaker("rotated token"));
+        assertEquals(impl.getPageBreaker("busy page").getState(), State.CLOSED);
+        assertEquals(impl.getEndPointBreaker(END_POINT).getState(), State.CLOSED);
+    }
+
+    @Test
+    public void evictIdle_keepsOpenBreakers() throws Exception {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setMinimumCalls(1);
+        config.setOpenDurationMillis(120000);
+        config.setIdleMillis(60000);
+        impl = new CircuitBreakerRegistry(config, ticker);
+        call("page", 10, graphError(190));
+        ticker.advance(60000);
+
+        impl.evictIdle();
+
+        assertEquals(impl.getPageBreaker("page").getState(), State.OPEN);
+        ticker.advance(60000);
+        impl.evictIdle();
+        assertNull(impl.getPageBreaker("page"));
+    }
+
+    @Test
+    public void batchOnClosedClient_givesPermissionBack() throws Exception {
+        FacebookMessengerClientConfig clientConfig = new FacebookMessengerClientConfig();
+        clientConfig.setCircuitBreakers(impl);
+        FacebookMessengerClient client = new FacebookMessengerClient("http://localhost:1/me/messages?access_token=", 5000, clientConfig);
+        for (int i = 0; i < 4; i++) {
+            call("page", 10, graphError(190));
+        }
+        ticker.advance(5000);
+        client.close();
+
+        OutboundMessage message = new OutboundMessage();
+        message.setText("test message");
+        List<CompletableFuture<MessageResponse>> futures = client.sendMessageRequestBatchAsync("page",
+            Collections.singletonList(client.buildMessageRequest("recipient", message)));
+        try {
+            futures.get(0).get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+        }
+
+        // The batch used one of the two trial calls; the other one closes the breaker again.
+        call("page", 10, null);
+        assertTrue(impl.getPageStates().isEmpty());
+    }
+
+    @Test
+    public void endPointBreaker_countsConcurrentCalls() throws Exception {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setSlidingWindowSize(8000);
+        config.setMinimumCalls(8000);
+        impl = new CircuitBreakerRegistry(config, ticker);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            String page = "page " + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    try {
+                        call(page, 10, i % 4 == 0 ? new FacebookMessengerSendException("transport", new SocketTimeoutException()) : null);
+                    } catch (CircuitOpenException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(impl.getEndPointBreaker(END_POINT).getFailureRate(), 0.25);
+        assertEquals(impl.getEndPointBreaker(END_POINT).getState(), State.CLOSED);
+    }
+}
@@ -0,0 +1,376 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.StubGraphApiServer.StubResponse;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.MessageRequest;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.User;
+import com.messageyes.facebook.messenger.bean.UserProfile;
+
+public class FacebookMessengerClientAsyncTest {
+    private static final String SUCCESS_RESPONSE = "{\"recipient_id\":\"test recipient id\",\"message_id\":\"msg-123\"}";
+    private static final String ERROR_RESPONSE =
+        "{\"error\":{\"message\":\"Error Sending Message\",\"type\":\"OAuthException\",\"code\":222,\"error_subcode\":333,\"fbtrace_id\":\"fb_trace_id\"}}";
+
+    private static final String TEMPORARY_ERROR_RESPONSE =
+        "{\"error\":{\"message\":\"Temporary send message failure\",\"type\":\"OAuthException\",\"code\":1200,\"fbtrace_id\":\"fb_trace_id\"}}";
+
+    private StubGraphApiServer server;
+    private FacebookMessengerClient impl;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        server = new StubGraphApiServer(request -> new StubResponse(200, SUCCESS_RESPONSE));
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        impl.close();
+        server.close();
+    }
+
+    @Test
+    public void sendTextMessageAsync_200Status() throws Exception {
+        MessageResponse messageResponse = impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message").get();
+
+        assertEquals(messageResponse.getMessageId(), "msg-123");
+        assertEquals(messageResponse.getRecipientId(), "test recipient id");
+
+        MessageRequest messageRequest = new MessageRequest();
+        User recipient = new User();
+        recipient.setId("test recipient id");
+        messageRequest.setRecipient(recipient);
+        OutboundMessage message = new OutboundMessage();
+        message.setText("test message");
+        messageRequest.setMessage(message);
+
+        assertEquals(server.getRequests().size(), 1);
+        assertEquals(server.getRequests().get(0).getUri(), "/me/messages?access_token=test_page_access_token");
+        assertEquals(server.getRequests().get(0).getBody(), FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(messageRequest));
+    }
+
+    @Test
+    public void sendImageMessageAsync_400Status() throws Exception {
+        server.setResponder(request -> new StubResponse(400, ERROR_RESPONSE));
+
+        try {
+            impl.sendImageMessageAsync("test_page_access_token", "test recipient id", "test image url").get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+            FacebookMessengerSendException cause = (FacebookMessengerSendException) e.getCause();
+            assertEquals(cause.getMessage(), "Error Sending Message");
+            assertEquals(cause.getErrorCode().longValue(), 222L);
+            assertEquals(cause.getErrorSubCode().longValue(), 333L);
+        }
+    }
+
+    @Test
+    public void sendTextMessageAsync_connectionRefused() throws Exception {
+        String endPoint = server.getMessageEndPoint();
+        server.close();
+        impl.close();
+        impl = new FacebookMessengerClient(endPoint, 5000);
+
+        try {
+            impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message").get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+        }
+    }
+
+    @Test
+    public void sendTextMessageAsync_manyInFlight() throws Exception {
+        List<CompletableFuture<MessageResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message " + i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+
+        assertEquals(server.getRequests().size(), 200);
+    }
+
+    @Test
+    public void sendTextMessageAsync_retries() throws Exception {
+        impl.close();
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setRetryPolicy(new RetryPolicy(3, 10, 10, 0.1, 1000));
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+
+        AtomicInteger count = new AtomicInteger();
+        server.setResponder(request -> {
+            switch (count.incrementAndGet()) {
+                case 1:
+                    return new StubResponse(503, "<html>Service Unavailable</html>");
+                case 2:
+                    return new StubResponse(500, TEMPORARY_ERROR_RESPONSE);
+                default:
+                    return new StubResponse(200, SUCCESS_RESPONSE);
+            }
+        });
+
+        assertEquals(impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message").get().getMessageId(), "msg-123");
+        assertEquals(server.getRequests().size(), 3);
+    }
+
+    @Test
+    public void sendTextMessageAsync_permanentErrorNotRetried() throws Exception {
+        impl.close();
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setRetryPolicy(new RetryPolicy(3, 10, 10, 0.1, 1000));
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+        server.setResponder(request -> new StubResponse(400, ERROR_RESPONSE));
+
+        try {
+            impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message").get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertEquals(((FacebookMessengerSendException) e.getCause()).getErrorCode().longValue(), 222L);
+        }
+        assertEquals(server.getRequests().size(), 1);
+    }
+
+    @Test
+    public void sendTextMessageAsync_closedWhileWaitingToRetry() throws Exception {
+        impl.close();
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        // Without the jitter, so that the send is certain to be waiting when the client is closed.
+        config.setRetryPolicy(new RetryPolicy(3, 60000, 60000, 0.1, 1000) {
+            @Override
+            public long nextBackoffMillis(int attempt, Throwable error) {
+                return super.nextBackoffMillis(attempt, error) < 0 ? -1 : 60000;
+            }
+        });
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+        server.setResponder(request -> new StubResponse(500, TEMPORARY_ERROR_RESPONSE));
+
+        CompletableFuture<MessageResponse> future = impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getRequests().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertFalse(future.isDone());
+        impl.close();
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+            assertEquals(e.getCause().getMessage(), "The client was closed while waiting to retry");
+            assertEquals(((FacebookMessengerSendException) e.getCause().getCause()).getErrorCode().longValue(), 1200L);
+        }
+        assertEquals(server.getRequests().size(), 1);
+    }
+
+    @Test
+    public void sendTextMessageAsync_attemptDeadline() throws Exception {
+        impl.close();
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setRetryPolicy(new RetryPolicy(2, 10, 10, 0.1, 200));
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+
+        AtomicInteger count = new AtomicInteger();
+        server.setResponder(request -> {
+            if (count.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new StubResponse(200, SUCCESS_RESPONSE);
+        });
+
+        long start = System.currentTimeMillis();
+        assertEquals(impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message").get().getMessageId(), "msg-123");
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(count.get(), 2);
+    }
+
+    @Test
+    public void sendTextMessage_retries() throws Exception {
+        impl.close();
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setRetryPolicy(new RetryPolicy(2, 10, 10, 0.1, 1000));
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+
+        AtomicInteger count = new AtomicInteger();
+        server.setResponder(request -> count.incrementAndGet() == 1
+            ? new StubResponse(500, TEMPORARY_ERROR_RESPONSE) : new StubResponse(200, SUCCESS_RESPONSE));
+
+        assertEquals(impl.sendTextMessage("test_page_access_token", "test recipient id", "test message").getMessageId(), "msg-123");
+        assertEquals(server.getRequests().size(), 2);
+    }
+
+    @Test
+    public void sendTextMessage_retriesExhausted() throws Exception {
+        impl.close();
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setRetryPolicy(new RetryPolicy(2, 10, 10, 0.1, 1000));
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+        server.setResponder(request -> new StubResponse(500, TEMPORARY_ERROR_RESPONSE));
+
+        try {
+            impl.sendTextMessage("test_page_access_token", "test recipient id", "test message");
+            fail("FacebookMessengerSendException expected");
+        } catch (FacebookMessengerSendException e) {
+            assertEquals(e.getErrorCode().longValue(), 1200L);
+        }
+        assertEquals(server.getRequests().size(), 2);
+    }
+
+    @Test
+    public void getUserProfile() throws Exception {
+        server.setResponder(request -> new StubResponse(200,
+            "{\"first_name\":\"Peter\",\"last_name\":\"Chang\",\"profile_pic\":\"https://example.com/pic\",\"locale\":\"en_US\",\"timezone\":-7,\"gender\":\"male\"}"));
+
+        UserProfile expected = new UserProfile();
+        expected.setFirstName("Peter");
+        expected.setLastName("Chang");
+        expected.setProfilePic("https://example.com/pic");
+        expected.setLocale("en_US");
+        expected.setTimezone(-7.0);
+        expected.setGender("male");
+        assertEquals(impl.getUserProfile("test_page_access_token", "42"), expected);
+        assertEquals(impl.getUserProfileAsync("test_page_access_token", "42").get(), expected);
+
+        assertEquals(server.getRequests().size(), 2);
+        assertEquals(server.getRequests().get(0).getMethod(), "GET");
+        assertEquals(server.getRequests().get(0).getUri(),
+            "/42?fields=first_name,last_name,profile_pic,locale,timezone,gender&access_token=test_page_access_token");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void getUserProfileAsync_notNumeric() throws Exception {
+        impl.getUserProfileAsync("test_page_access_token", "me?fields=email#");
+    }
+
+    @Test
+    public void getUserProfileAsync_400Status() throws Exception {
+        server.setResponder(request -> new StubResponse(400, ERROR_RESPONSE));
+
+        try {
+            impl.getUserProfileAsync("test_page_access_token", "42").get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+            assertEquals(((FacebookMessengerSendException) e.getCause()).getErrorCode().longValue(), 222L);
+        }
+    }
+
+    @Test
+    public void sendImageMessageAsync_reusableAttachment() throws Exception {
+        server.setResponder(request -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new StubResponse(200, "{\"recipient_id\":\"r\",\"message_id\":\"msg-123\",\"attachment_id\":\"att-1\"}");
+        });
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setAttachmentIdCache(new AttachmentIdCache(100, 60000));
+        impl.close();
+        List<String> sendingThreads = Collections.synchronizedList(new ArrayList<>());
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config) {
+            @Override
+            public CompletableFuture<MessageResponse> sendOutboundMessageAsync(PageToken pageToken, String recipientId, OutboundMessage message) {
+                sendingThreads.add(Thread.currentThread().getName());
+                return super.sendOutboundMessageAsync(pageToken, recipientId, message);
+            }
+        };
+
+        List<CompletableFuture<MessageResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(impl.sendImageMessageAsync("test_page_access_token", "recipient " + i, "https://example.com/image.png"));
+        }
+        for (CompletableFuture<MessageResponse> future : futures) {
+            assertEquals(future.get().getMessageId(), "msg-123");
+        }
+        assertEquals(impl.sendImageMessage("test_page_access_token", "recipient", "https://example.com/image.png").getMessageId(), "msg-123");
+
+        assertEquals(server.getRequests().size(), 11);
+        int uploads = 0;
+        for (StubGraphApiServer.StubRequest request : server.getRequests()) {
+            if (request.getBody().contains("\"is_reusable\":true")) {
+                assertTrue(request.getBody().contains("\"url\":\"https://example.com/image.png\""));
+                uploads++;
+            } else {
+                assertTrue(request.getBody().contains("\"payload\":{\"attachment_id\":\"att-1\"}"), request.getBody());
+            }
+        }
+        assertEquals(uploads, 1);
+        assertEquals(config.getAttachmentIdCache().getAttachmentId("test_page_access_token", "https://example.com/image.png"), "att-1");
+        // Messages that waited for the id are sent from the client's dispatcher, never from an I/O
+        // dispatcher thread.
+        assertEquals(sendingThreads.size(), 10);
+        for (String thread : sendingThreads) {
+            assertTrue(thread.equals(Thread.currentThread().getName()) || thread.startsWith("facebook-messenger-dispatcher-"), thread);
+        }
+    }
+
+    @Test
+    public void sendImageMessage_reusableAttachmentFailed() throws Exception {
+        server.setResponder(request -> new StubResponse(400, ERROR_RESPONSE));
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setAttachmentIdCache(new AttachmentIdCache(100, 60000));
+        impl.close();
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+
+        try {
+            impl.sendImageMessage("test_page_access_token", "recipient", "https://example.com/image.png");
+            fail("FacebookMessengerSendException expected");
+        } catch (FacebookMessengerSendException e) {
+            assertEquals(e.getErrorCode().longValue(), 222L);
+        }
+        assertEquals(config.getAttachmentIdCache().size(), 0);
+
+        server.setResponder(request -> new StubResponse(200, SUCCESS_RESPONSE));
+        impl.sendImageMessage("test_page_access_token", "recipient", "https://example.com/image.png");
+        assertTrue(server.getRequests().get(1).getBody().contains("\"is_reusable\":true"));
+    }
+
+    @Test
+    public void sendOutboundMessageAsync_validated() throws Exception {
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setValidator(new OutboundMessageValidator(ValidationMode.TRUNCATE));
+        impl.close();
+        impl = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+
+        OutboundMessage message = new OutboundMessage();
+        message.setText(StringUtils.repeat('x', 700));
+        impl.sendOutboundMessageAsync("test_page_access_token", "test recipient id", message).get();
+
+        assertTrue(server.getRequests().get(0).getBody().contains("\"text\":\"" + StringUtils.repeat('x', 640) + "\""));
+        assertEquals(config.getValidator().getViolationCount(OutboundMessageValidator.Violation.TEXT_TOO_LONG), 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void sendTextMessageAsync_closed() {
+        impl.close();
+        impl.sendTextMessageAsync("test_page_access_token", "test recipient id", "test message");
+    }
+}
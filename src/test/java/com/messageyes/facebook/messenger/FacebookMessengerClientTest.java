@@ -2,6 +2,7 @@ package com.messageyes.facebook.messenger;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -11,8 +12,13 @@ import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -48,8 +54,12 @@ import com.messageyes.facebook.messenger.bean.OutboundMessage;
 import com.messageyes.facebook.messenger.bean.OutboundPayload;
 import com.messageyes.facebook.messenger.bean.QuickReply;
 import com.messageyes.facebook.messenger.bean.User;
+import com.messageyes.facebook.messenger.id.Ids;
+import com.messageyes.facebook.messenger.webhook.IngestResult;
+import com.messageyes.facebook.messenger.webhook.LazyMessaging;
+import com.messageyes.facebook.messenger.webhook.RawEvent;
 
-@PowerMockIgnore("javax.crypto.*")
+@PowerMockIgnore({"javax.crypto.*", "javax.net.ssl.*"})
 @PrepareForTest(HttpClients.class)
 public class FacebookMessengerClientTest extends PowerMockTestCase  {
     // The object value is a placeholder, %s, so it can be replaced with String.format.
@@ -119,6 +129,25 @@ public class FacebookMessengerClientTest extends PowerMockTestCase  {
 
     }
 
+    @Test
+    public void deserializeCallback_numericIds() throws Exception {
+        Callback callback = impl.deserializeCallback(String.format(TEST_CALLBACK_JSON_FORMAT, "page")
+            .replace("test entry id", "100").replace("test sender id", "1234567890123456"));
+
+        Entry entry = callback.getEntry().get(0);
+        assertEquals(entry.getLongId(), 100L);
+        User sender = entry.getMessaging().get(0).getSender();
+        assertEquals(sender.getLongId(), 1234567890123456L);
+        assertEquals(entry.getMessaging().get(0).getRecipient().getLongId(), Ids.NO_ID);
+        assertEquals(FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(sender), "{\"id\":\"1234567890123456\"}");
+
+        User unparsed = new User();
+        unparsed.setId("1234567890123456");
+        assertEquals(unparsed, sender);
+        sender.setId("42");
+        assertEquals(sender.getLongId(), 42L);
+    }
+
     @Test
     public void deserializeCallback_notPageObject() {
         assertNull(impl.deserializeCallback(String.format(TEST_CALLBACK_JSON_FORMAT, "not page object")));
@@ -129,6 +158,55 @@ public class FacebookMessengerClientTest extends PowerMockTestCase  {
         assertNull(impl.deserializeCallback("not json"));
     }
 
+    @Test
+    public void deserializeCallback_streaming() {
+        List<Messaging> events = new ArrayList<>();
+        byte[] callbackJSON = String.format(TEST_CALLBACK_JSON_FORMAT, "page").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(impl.deserializeCallback(callbackJSON, events::add));
+
+        assertEquals(events.size(), 1);
+        assertEquals(events.get(0).getSender().getId(), "test sender id");
+        assertEquals(events.get(0).getMessage().getText(), "test text message");
+    }
+
+    @Test
+    public void deserializeCallback_streamingNotPageObject() {
+        List<Messaging> events = new ArrayList<>();
+
+        assertFalse(impl.deserializeCallback(String.format(TEST_CALLBACK_JSON_FORMAT, "not page object").getBytes(StandardCharsets.UTF_8), events::add));
+        assertFalse(impl.deserializeCallback("not json".getBytes(StandardCharsets.UTF_8), events::add));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void deserializeCallbackLazily() {
+        List<LazyMessaging> events = new ArrayList<>();
+        byte[] callbackJSON = String.format(TEST_CALLBACK_JSON_FORMAT, "page").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(impl.deserializeCallbackLazily(callbackJSON, events::add));
+
+        assertEquals(events.size(), 1);
+        assertEquals(events.get(0).getSenderId(), "test sender id");
+        assertEquals(events.get(0).getMessage().getText(), "test text message");
+        assertFalse(impl.deserializeCallbackLazily(String.format(TEST_CALLBACK_JSON_FORMAT, "not page object").getBytes(StandardCharsets.UTF_8), events::add));
+    }
+
+    @Test
+    public void scanCallback() {
+        List<RawEvent> events = new ArrayList<>();
+        byte[] callbackJSON = String.format(TEST_CALLBACK_JSON_FORMAT, "page").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(impl.scanCallback(callbackJSON, events::add));
+
+        assertEquals(events.size(), 1);
+        assertEquals(events.get(0).getPageId(), "test entry id");
+        assertEquals(events.get(0).getSenderId(), "test sender id");
+        assertEquals(impl.deserializeCallback(String.format(TEST_CALLBACK_JSON_FORMAT, "page")).getEntry().get(0).getMessaging().get(0),
+            impl.deserializeCallback("{\"object\":\"page\",\"entry\":[{\"messaging\":[" + events.get(0) + "]}]}").getEntry().get(0).getMessaging().get(0));
+        assertFalse(impl.scanCallback("not json".getBytes(StandardCharsets.UTF_8), events::add));
+    }
+
     @Test
     public void deserializeCallback_noEntryTime() {
         Callback callback = impl.deserializeCallback(TEST_CALLBACK_NO_ENTRY_TIME);
@@ -158,6 +236,29 @@ public class FacebookMessengerClientTest extends PowerMockTestCase  {
         assertFalse(impl.isValidRequest("test app secret key", "sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f3", "mismatching request body"));
     }
 
+    @Test
+    public void isValidRequest_rawBody() {
+        byte[] requestBody = "matching request body".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(impl.isValidRequest("test app secret key", "sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f3", requestBody));
+        assertTrue(impl.isValidRequest("test app secret key", "sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f3", ByteBuffer.wrap(requestBody)));
+        assertFalse(impl.isValidRequest("other app secret key", "sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f3", requestBody));
+    }
+
+    @Test
+    public void ingestCallback() throws Exception {
+        List<Messaging> events = new ArrayList<>();
+        String callbackJSON = String.format(TEST_CALLBACK_JSON_FORMAT, "page");
+        String signature = "sha1=" + Hex.encodeHexString(HmacUtils.hmacSha1("test app secret key", callbackJSON));
+
+        assertEquals(impl.ingestCallback("test app secret key", signature, IOUtils.toInputStream(callbackJSON, StandardCharsets.UTF_8), events::add),
+            IngestResult.ACCEPTED);
+        assertEquals(events.size(), 1);
+        assertEquals(impl.ingestCallback("other app secret key", signature, IOUtils.toInputStream(callbackJSON, StandardCharsets.UTF_8), events::add),
+            IngestResult.INVALID_SIGNATURE);
+        assertEquals(events.size(), 1);
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void isValidRequest_blankKey() {
         impl.isValidRequest("", "sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f3", "mismatching request body");
@@ -401,6 +502,34 @@ public class FacebookMessengerClientTest extends PowerMockTestCase  {
             FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(messageRequest));
     }
 
+    @Test
+    public void sendTextMessage_reusesHttpClient() throws Exception {
+        when(restStatus.getStatusCode()).thenReturn(200);
+
+        MessageResponse messageResponse = new MessageResponse();
+        messageResponse.setMessageId("msg-123");
+        messageResponse.setRecipientId("test recipient id");
+
+        String responsePayload = FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(messageResponse);
+        when(restResponse.getEntity()).thenReturn(new StringEntity(responsePayload), new StringEntity(responsePayload));
+
+        assertEquals(impl.sendTextMessage("test_page_access_token", "test recipient id", "test message"), messageResponse);
+        assertEquals(impl.sendTextMessage("test_page_access_token", "test recipient id", "test message"), messageResponse);
+
+        verify(httpClient, times(2)).execute(any(HttpUriRequest.class));
+        verify(restResponse, times(2)).close();
+        verify(httpClient, never()).close();
+        PowerMockito.verifyStatic(times(1));
+        HttpClients.custom();
+    }
+
+    @Test
+    public void close() throws Exception {
+        impl.close();
+
+        verify(httpClient, times(1)).close();
+    }
+
     @Test
     public void sendOutboundMessage_400Status() throws Exception {
         when(restStatus.getStatusCode()).thenReturn(400);
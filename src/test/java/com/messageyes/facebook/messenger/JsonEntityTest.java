@@ -0,0 +1,73 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.messageyes.facebook.messenger.bean.MessageRequest;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.User;
+
+public class JsonEntityTest {
+    private static final ObjectWriter WRITER = FacebookMessengerClient.OBJECT_MAPPER.writerFor(MessageRequest.class)
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static MessageRequest buildMessageRequest() {
+        User recipient = new User();
+        recipient.setId("recipient id");
+        OutboundMessage message = new OutboundMessage();
+        message.setText("h\u00e9llo");
+        MessageRequest messageRequest = new MessageRequest();
+        messageRequest.setRecipient(recipient);
+        messageRequest.setMessage(message);
+        return messageRequest;
+    }
+
+    private static class CloseTrackingOutputStream extends ByteArrayOutputStream {
+        private boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    @Test
+    public void writeTo() throws Exception {
+        MessageRequest messageRequest = buildMessageRequest();
+        String expected = FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(messageRequest);
+        JsonEntity entity = new JsonEntity(messageRequest, WRITER);
+
+        CloseTrackingOutputStream first = new CloseTrackingOutputStream();
+        entity.writeTo(first);
+        CloseTrackingOutputStream second = new CloseTrackingOutputStream();
+        entity.writeTo(second);
+
+        assertEquals(first.toString(StandardCharsets.UTF_8.name()), expected);
+        assertEquals(second.toString(StandardCharsets.UTF_8.name()), expected);
+        assertFalse(first.closed);
+        assertTrue(entity.isRepeatable());
+        assertTrue(entity.isChunked());
+        assertEquals(entity.getContentLength(), -1);
+        assertEquals(entity.getContentType().getValue(), "application/json; charset=UTF-8");
+    }
+
+    @Test
+    public void getContent() throws Exception {
+        MessageRequest messageRequest = buildMessageRequest();
+        JsonEntity entity = new JsonEntity(messageRequest, WRITER);
+
+        assertEquals(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8),
+            FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(messageRequest));
+    }
+}
@@ -0,0 +1,104 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+public class KeyedRateLimiterTest {
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private FakeTicker ticker;
+    private KeyedRateLimiter impl;
+
+    @BeforeMethod
+    public void setup() {
+        ticker = new FakeTicker();
+        impl = new KeyedRateLimiter(10, 3, ticker);
+    }
+
+    @Test
+    public void tryAcquire_burstThenRate() {
+        assertTrue(impl.tryAcquire("page"));
+        assertTrue(impl.tryAcquire("page"));
+        assertTrue(impl.tryAcquire("page"));
+        assertFalse(impl.tryAcquire("page"));
+
+        ticker.advance(100);
+        assertTrue(impl.tryAcquire("page"));
+        assertFalse(impl.tryAcquire("page"));
+    }
+
+    @Test
+    public void tryAcquire_keysAreIndependent() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(impl.tryAcquire("busy page"));
+        }
+        assertFalse(impl.tryAcquire("busy page"));
+        assertTrue(impl.tryAcquire("quiet page"));
+    }
+
+    @Test
+    public void reserve() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(impl.reserve("page", 0, TimeUnit.MILLISECONDS), 0);
+        }
+        assertEquals(impl.reserve("page", 250, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(impl.reserve("page", 250, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(impl.reserve("page", 250, TimeUnit.MILLISECONDS), -1);
+
+        // A rejected reservation does not use up a permit.
+        assertEquals(impl.reserve("page", 300, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    @Test
+    public void setRate() {
+        impl.setRate("page", 1, 1);
+        assertTrue(impl.tryAcquire("page"));
+        assertFalse(impl.tryAcquire("page"));
+
+        ticker.advance(999);
+        assertFalse(impl.tryAcquire("page"));
+        ticker.advance(1);
+        assertTrue(impl.tryAcquire("page"));
+
+        impl.clearRate("page");
+        ticker.advance(1000);
+        assertTrue(impl.tryAcquire("page"));
+        assertTrue(impl.tryAcquire("page"));
+    }
+
+    @Test
+    public void evictIdle() {
+        impl.tryAcquire("first page");
+        impl.tryAcquire("second page");
+        impl.tryAcquire("second page");
+        assertEquals(impl.getBucketCount(), 2);
+
+        ticker.advance(100);
+        impl.evictIdle();
+        assertEquals(impl.getBucketCount(), 1);
+
+        ticker.advance(100);
+        impl.evictIdle();
+        assertEquals(impl.getBucketCount(), 0);
+    }
+}
@@ -0,0 +1,220 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Strings;
+import com.messageyes.facebook.messenger.OutboundMessageValidator.Violation;
+import com.messageyes.facebook.messenger.StubGraphApiServer.StubRequest;
+import com.messageyes.facebook.messenger.StubGraphApiServer.StubResponse;
+import com.messageyes.facebook.messenger.bean.BatchRequest;
+import com.messageyes.facebook.messenger.bean.BatchResponse;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.User;
+
+public class MessageBatcherTest {
+    private static final String ERROR_BODY =
+        "{\"error\":{\"message\":\"No matching user found\",\"type\":\"OAuthException\",\"code\":100,\"error_subcode\":2018001}}";
+
+    private StubGraphApiServer server;
+    private FacebookMessengerClient client;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        server = new StubGraphApiServer(MessageBatcherTest::respondToBatch);
+        client = new FacebookMessengerClient(server.getMessageEndPoint(), 5000);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * Answers every operation in a batch, failing the ones sent to the recipient "unknown", and
+     * those sent to "no error" without an error object.
+     */
+    private static StubResponse respondToBatch(StubRequest request) {
+        try {
+            Map<String, String> params = toMap(request.getBody());
+            List<BatchRequest> batch = FacebookMessengerClient.OBJECT_MAPPER.readValue(params.get("batch"),
+                new TypeReference<List<BatchRequest>>() { });
+
+            List<BatchResponse> responses = new ArrayList<>();
+            for (BatchRequest batchRequest : batch) {
+                String recipientId = FacebookMessengerClient.OBJECT_MAPPER.readValue(
+                    toMap(batchRequest.getBody()).get("recipient"), User.class).getId();
+
+                BatchResponse response = new BatchResponse();
+                if ("unknown".equals(recipientId)) {
+                    response.setCode(400);
+                    response.setBody(ERROR_BODY);
+                } else if ("no error".equals(recipientId)) {
+                    response.setCode(500);
+                    response.setBody("{}");
+                } else {
+                    MessageResponse messageResponse = new MessageResponse();
+                    messageResponse.setRecipientId(recipientId);
+                    messageResponse.setMessageId("mid." + recipientId);
+                    response.setCode(200);
+                    response.setBody(FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(messageResponse));
+                }
+                responses.add(response);
+            }
+            return new StubResponse(200, FacebookMessengerClient.OBJECT_MAPPER.writeValueAsString(responses));
+        } catch (Exception e) {
+            return new StubResponse(500, "{}");
+        }
+    }
+
+    private static Map<String, String> toMap(String form) {
+        return URLEncodedUtils.parse(form, StandardCharsets.UTF_8).stream()
+            .collect(Collectors.toMap(NameValuePair::getName, NameValuePair::getValue));
+    }
+
+    private static OutboundMessage textMessage(String text) {
+        OutboundMessage message = new OutboundMessage();
+        message.setText(text);
+        return message;
+    }
+
+    @Test
+    public void sendOutboundMessage_flushesAfterDelay() throws Exception {
+        try (MessageBatcher batcher = new MessageBatcher(client, 50, 100)) {
+            CompletableFuture<MessageResponse> first = batcher.sendOutboundMessage("test_page_access_token", "1001", textMessage("one"));
+            CompletableFuture<MessageResponse> second = batcher.sendOutboundMessage("test_page_access_token", "1002", textMessage("two"));
+            CompletableFuture<MessageResponse> third = batcher.sendOutboundMessage("test_page_access_token", "unknown", textMessage("three"));
+
+            assertEquals(first.get().getMessageId(), "mid.1001");
+            assertEquals(second.get().getMessageId(), "mid.1002");
+            try {
+                third.get();
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+                FacebookMessengerSendException cause = (FacebookMessengerSendException) e.getCause();
+                assertEquals(cause.getErrorCode().longValue(), 100L);
+                assertEquals(cause.getErrorSubCode().longValue(), 2018001L);
+            }
+        }
+
+        assertEquals(server.getRequests().size(), 1);
+        StubRequest request = server.getRequests().get(0);
+        assertEquals(request.getUri(), "/");
+        Map<String, String> params = toMap(request.getBody());
+        assertEquals(params.get("access_token"), "test_page_access_token");
+        List<BatchRequest> batch = FacebookMessengerClient.OBJECT_MAPPER.readValue(params.get("batch"),
+            new TypeReference<List<BatchRequest>>() { });
+        assertEquals(batch.size(), 3);
+        assertEquals(batch.get(0).getMethod(), "POST");
+        assertEquals(batch.get(0).getRelativeUrl(), "me/messages");
+        assertEquals(toMap(batch.get(0).getBody()).get("message"), "{\"text\":\"one\"}");
+    }
+
+    @Test
+    public void sendOutboundMessage_flushesWhenFull() throws Exception {
+        try (MessageBatcher batcher = new MessageBatcher(client, 2, 60000)) {
+            CompletableFuture<MessageResponse> first = batcher.sendOutboundMessage("test_page_access_token", "1001", textMessage("one"));
+            CompletableFuture<MessageResponse> second = batcher.sendOutboundMessage("test_page_access_token", "1002", textMessage("two"));
+            CompletableFuture<MessageResponse> third = batcher.sendOutboundMessage("test_page_access_token", "1003", textMessage("three"));
+
+            assertEquals(first.get().getRecipientId(), "1001");
+            assertEquals(second.get().getRecipientId(), "1002");
+            assertEquals(server.getRequests().size(), 1);
+            assertEquals(batcher.getPendingCount(), 1);
+            assertTrue(!third.isDone());
+        }
+    }
+
+    @Test
+    public void sendOutboundMessage_batchesPerPage() throws Exception {
+        try (MessageBatcher batcher = new MessageBatcher(client, 50, 50)) {
+            CompletableFuture<MessageResponse> first = batcher.sendOutboundMessage("first_page_access_token", "1001", textMessage("one"));
+            CompletableFuture<MessageResponse> second = batcher.sendOutboundMessage("second_page_access_token", "1002", textMessage("two"));
+
+            CompletableFuture.allOf(first, second).get();
+        }
+
+        assertEquals(server.getRequests().size(), 2);
+    }
+
+    @Test
+    public void sendOutboundMessage_operationFailsWithoutError() throws Exception {
+        try (MessageBatcher batcher = new MessageBatcher(client, 50, 10)) {
+            CompletableFuture<MessageResponse> failed = batcher.sendOutboundMessage("test_page_access_token", "no error", textMessage("one"));
+            CompletableFuture<MessageResponse> next = batcher.sendOutboundMessage("test_page_access_token", "1002", textMessage("two"));
+
+            try {
+                failed.get();
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+                assertEquals(e.getCause().getMessage(), "Unexpected batch operation status 500");
+            }
+            assertEquals(next.get().getMessageId(), "mid.1002");
+        }
+    }
+
+    @Test
+    public void sendOutboundMessage_batchFails() throws Exception {
+        server.setResponder(request -> new StubResponse(400, ERROR_BODY));
+
+        try (MessageBatcher batcher = new MessageBatcher(client, 50, 10)) {
+            batcher.sendOutboundMessage("test_page_access_token", "1001", textMessage("one")).get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+        }
+    }
+
+    @Test
+    public void close_flushesAndRejectsLaterMessages() throws Exception {
+        MessageBatcher batcher = new MessageBatcher(client, 50, 60000);
+        CompletableFuture<MessageResponse> pending = batcher.sendOutboundMessage("test_page_access_token", "1001", textMessage("one"));
+
+        batcher.close();
+        CompletableFuture<MessageResponse> late = batcher.sendOutboundMessage("test_page_access_token", "1002", textMessage("two"));
+
+        assertEquals(pending.get().getMessageId(), "mid.1001");
+        try {
+            late.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookMessengerSendException);
+        }
+        assertEquals(batcher.getPendingCount(), 0);
+        assertEquals(server.getRequests().size(), 1);
+    }
+
+    @Test
+    public void sendOutboundMessage_validatesOnce() throws Exception {
+        OutboundMessageValidator validator = new OutboundMessageValidator(ValidationMode.WARN);
+        FacebookMessengerClientConfig config = new FacebookMessengerClientConfig();
+        config.setValidator(validator);
+        try (FacebookMessengerClient validatingClient = new FacebookMessengerClient(server.getMessageEndPoint(), 5000, config);
+             MessageBatcher batcher = new MessageBatcher(validatingClient, 50, 10)) {
+            batcher.sendOutboundMessage("test_page_access_token", "1001", textMessage(Strings.repeat("a", OutboundMessageValidator.MAX_TEXT_LENGTH + 1))).get();
+        }
+
+        assertEquals(validator.getViolationCount(Violation.TEXT_TOO_LONG), 1);
+    }
+}
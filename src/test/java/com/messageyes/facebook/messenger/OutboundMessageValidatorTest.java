@@ -0,0 +1,176 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.messageyes.facebook.messenger.OutboundMessageValidator.Violation;
+import com.messageyes.facebook.messenger.bean.Attachment;
+import com.messageyes.facebook.messenger.bean.Button;
+import com.messageyes.facebook.messenger.bean.Element;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.OutboundPayload;
+import com.messageyes.facebook.messenger.bean.QuickReply;
+
+public class OutboundMessageValidatorTest {
+
+    private static OutboundMessage genericMessage(Element... elements) {
+        OutboundPayload payload = new OutboundPayload();
+        payload.setTemplateType("generic");
+        payload.setElements(ImmutableList.copyOf(elements));
+        Attachment attachment = new Attachment();
+        attachment.setType("template");
+        attachment.setPayload(payload);
+        OutboundMessage message = new OutboundMessage();
+        message.setAttachment(attachment);
+        return message;
+    }
+
+    private static Element element(String title, String subtitle) {
+        Element element = new Element();
+        element.setTitle(title);
+        element.setSubtitle(subtitle);
+        return element;
+    }
+
+    private static QuickReply quickReply(String title, String payload) {
+        QuickReply quickReply = new QuickReply();
+        quickReply.setTitle(title);
+        quickReply.setPayload(payload);
+        return quickReply;
+    }
+
+    @Test
+    public void validate_withinLimits() {
+        OutboundMessageValidator impl = new OutboundMessageValidator(ValidationMode.STRICT);
+        String title = StringUtils.repeat('t', 80);
+        OutboundMessage message = genericMessage(element(title, "subtitle"));
+        message.setQuickReplies(ImmutableList.of(quickReply(StringUtils.repeat('q', 20), StringUtils.repeat('p', 1000))));
+
+        impl.validate(message);
+
+        assertSame(message.getAttachment().getPayload().getElements().get(0).getTitle(), title);
+        for (Violation violation : Violation.values()) {
+            assertEquals(impl.getViolationCount(violation), 0);
+        }
+    }
+
+    @Test
+    public void validate_strict() {
+        OutboundMessageValidator impl = new OutboundMessageValidator(ValidationMode.STRICT);
+        try {
+            impl.validate(genericMessage(element("title", StringUtils.repeat('s', 81))));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "The element subtitle is longer than 80 characters");
+        }
+        assertEquals(impl.getViolationCount(Violation.ELEMENT_SUBTITLE_TOO_LONG), 1);
+    }
+
+    @Test
+    public void validate_truncate() {
+        OutboundMessageValidator impl = new OutboundMessageValidator(ValidationMode.TRUNCATE);
+        OutboundMessage message = new OutboundMessage();
+        // A surrogate pair straddling the limit is dropped as a whole.
+        message.setText(StringUtils.repeat('x', 639) + "\ud83d\ude00 and more");
+        message.setQuickReplies(ImmutableList.of(quickReply("a quick reply title that is long", null)));
+
+        impl.validate(message);
+
+        assertEquals(message.getText(), StringUtils.repeat('x', 639));
+        assertEquals(message.getQuickReplies().get(0).getTitle(), "a quick reply title ");
+        assertEquals(impl.getViolationCount(Violation.TEXT_TOO_LONG), 1);
+        assertEquals(impl.getViolationCount(Violation.QUICK_REPLY_TITLE_TOO_LONG), 1);
+    }
+
+    @Test
+    public void validate_warn() {
+        FakeTicker ticker = new FakeTicker();
+        OutboundMessageValidator impl = new OutboundMessageValidator(ValidationMode.WARN, 1000, ticker);
+        String title = StringUtils.repeat('t', 81);
+        OutboundMessage message = genericMessage(element(title, null), element(title, null));
+
+        impl.validate(message);
+        impl.validate(message);
+        ticker.advance(1000);
+        impl.validate(message);
+
+        assertSame(message.getAttachment().getPayload().getElements().get(0).getTitle(), title);
+        assertEquals(impl.getViolationCount(Violation.ELEMENT_TITLE_TOO_LONG), 6);
+    }
+
+    @Test
+    public void validate_buttons() {
+        OutboundMessageValidator impl = new OutboundMessageValidator(ValidationMode.TRUNCATE);
+        OutboundPayload payload = new OutboundPayload();
+        payload.setTemplateType("button");
+        payload.setText("text");
+        Button button = new Button();
+        button.setTitle("a button title that is long");
+        payload.setButtons(ImmutableList.of(button));
+        Attachment attachment = new Attachment();
+        attachment.setPayload(payload);
+        OutboundMessage message = new OutboundMessage();
+        message.setAttachment(attachment);
+
+        impl.validate(message);
+        assertEquals(button.getTitle(), "a button title that ");
+
+        payload.setButtons(ImmutableList.of(new Button(), new Button(), new Button(), new Button()));
+        try {
+            impl.validate(message);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(impl.getViolationCount(Violation.TOO_MANY_BUTTONS), 1);
+        }
+    }
+
+    @Test
+    public void validate_tooManyQuickReplies() {
+        OutboundMessageValidator impl = new OutboundMessageValidator(ValidationMode.WARN);
+        List<QuickReply> quickReplies = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            quickReplies.add(quickReply("title", "payload"));
+        }
+        OutboundMessage message = new OutboundMessage();
+        message.setText("text");
+        message.setQuickReplies(quickReplies);
+
+        try {
+            impl.validate(message);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Facebook only supports 10 or fewer quick replies per message");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void validate_payloadTooLong() {
+        OutboundMessage message = new OutboundMessage();
+        message.setText("text");
+        message.setQuickReplies(ImmutableList.of(quickReply("title", StringUtils.repeat('p', 1001))));
+        new OutboundMessageValidator(ValidationMode.TRUNCATE).validate(message);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.StubGraphApiServer.StubResponse;
+import com.messageyes.facebook.messenger.bean.Element;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+
+public class PageTokenRegistryTest {
+    private StubGraphApiServer server;
+    private PageTokenRegistry impl;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        server = new StubGraphApiServer(request -> new StubResponse(200, "{\"recipient_id\":\"42\",\"message_id\":\"mid.1\"}"));
+        impl = new PageTokenRegistry(server.getMessageEndPoint(), 5000, new FacebookMessengerClientConfig(), 4);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        impl.close();
+        server.close();
+    }
+
+    private static OutboundMessage text(String text) {
+        OutboundMessage message = new OutboundMessage();
+        message.setText(text);
+        return message;
+    }
+
+    @Test
+    public void register() {
+        PageToken pageToken = impl.register("page", "token");
+
+        assertSame(impl.getToken("page"), pageToken);
+        assertEquals(pageToken.getPageId(), "page");
+        assertEquals(pageToken.getAccessToken(), "token");
+        assertEquals(pageToken.getMessageUri().toString(), server.getMessageEndPoint() + "token");
+        assertFalse(pageToken.toString().contains("token"));
+        assertEquals(impl.size(), 1);
+
+        assertTrue(impl.unregister("page"));
+        assertFalse(impl.unregister("page"));
+        assertNull(impl.getToken("page"));
+    }
+
+    @Test
+    public void send() throws Exception {
+        impl.register("page", "token");
+
+        assertEquals(impl.sendOutboundMessage("page", "42", text("hi")).getMessageId(), "mid.1");
+        assertEquals(impl.sendOutboundMessageAsync("page", "42", text("hi")).get().getMessageId(), "mid.1");
+
+        assertEquals(server.getRequests().size(), 2);
+        assertEquals(server.getRequests().get(0).getUri(), "/me/messages?access_token=token");
+    }
+
+    @Test
+    public void send_convenienceMessages() throws Exception {
+        impl.register("page", "token");
+        Element element = new Element();
+        element.setTitle("title");
+
+        impl.sendTextMessage("page", "42", "hi");
+        impl.sendTextMessageAsync("page", "42", "hi").get();
+        impl.sendImageMessage("page", "42", "https://example.com/image.png");
+        impl.sendImageMessageAsync("page", "42", "https://example.com/image.png").get();
+        impl.sendGenericMessage("page", "42", Collections.singletonList(element), null);
+        impl.sendGenericMessageAsync("page", "42", Collections.singletonList(element), null).get();
+
+        assertEquals(server.getRequests().size(), 6);
+        for (StubGraphApiServer.StubRequest request : server.getRequests()) {
+            assertEquals(request.getUri(), "/me/messages?access_token=token");
+        }
+    }
+
+    @Test
+    public void send_rotatedToken() throws Exception {
+        PageToken old = impl.register("page", "old");
+        PageToken rotated = impl.register("page", "new");
+
+        assertNotSame(rotated, old);
+        assertEquals(rotated.getShard(), old.getShard());
+        impl.sendOutboundMessage("page", "42", text("hi"));
+        assertEquals(server.getRequests().get(0).getUri(), "/me/messages?access_token=new");
+    }
+
+    @Test
+    public void shards() {
+        Set<FacebookMessengerClient> clients = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            PageToken pageToken = impl.register(Integer.toString(i), "token");
+            assertSame(impl.getClient(pageToken), impl.getClient(impl.getToken(Integer.toString(i))));
+            clients.add(impl.getClient(pageToken));
+        }
+        assertEquals(clients.size(), 4);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void send_notRegistered() throws Exception {
+        impl.sendOutboundMessage("page", "42", text("hi"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void register_blankToken() {
+        impl.register("page", " ");
+    }
+}
@@ -0,0 +1,141 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+
+public class RecipientOrderedSenderTest {
+
+    /**
+     * Records every send and leaves it in flight until the test completes it.
+     */
+    private static class ManualSender implements OutboundMessageSender {
+        private final List<String> sent = new ArrayList<>();
+        private final ConcurrentHashMap<String, CompletableFuture<MessageResponse>> inFlight = new ConcurrentHashMap<>();
+
+        @Override
+        public synchronized CompletableFuture<MessageResponse> send(String pageAccessToken, String recipientId, OutboundMessage message) {
+            sent.add(recipientId + ":" + message.getText());
+            CompletableFuture<MessageResponse> future = new CompletableFuture<>();
+            inFlight.put(recipientId + ":" + message.getText(), future);
+            return future;
+        }
+
+        void complete(String key) {
+            MessageResponse response = new MessageResponse();
+            response.setMessageId(key);
+            inFlight.remove(key).complete(response);
+        }
+
+        void fail(String key) {
+            inFlight.remove(key).completeExceptionally(new IllegalStateException("failed"));
+        }
+    }
+
+    private ManualSender sender;
+    private RecipientOrderedSender impl;
+
+    @BeforeMethod
+    public void setup() {
+        sender = new ManualSender();
+        impl = new RecipientOrderedSender(sender, 100);
+    }
+
+    private static OutboundMessage textMessage(String text) {
+        OutboundMessage message = new OutboundMessage();
+        message.setText(text);
+        return message;
+    }
+
+    @Test
+    public void send_fifoPerRecipientParallelAcrossRecipients() throws Exception {
+        CompletableFuture<MessageResponse> a1 = impl.send("page", "a", textMessage("1"));
+        CompletableFuture<MessageResponse> a2 = impl.send("page", "a", textMessage("2"));
+        CompletableFuture<MessageResponse> b1 = impl.send("page", "b", textMessage("1"));
+        CompletableFuture<MessageResponse> a3 = impl.send("page", "a", textMessage("3"));
+
+        // Only the head of each lane is in flight.
+        assertEquals(sender.sent, Arrays.asList("a:1", "b:1"));
+        assertEquals(impl.getPendingCount(), 4);
+        assertEquals(impl.getActiveLaneCount(), 2);
+
+        sender.complete("b:1");
+        assertEquals(b1.get().getMessageId(), "b:1");
+        assertEquals(impl.getActiveLaneCount(), 1);
+
+        sender.complete("a:1");
+        assertEquals(sender.sent, Arrays.asList("a:1", "b:1", "a:2"));
+        sender.fail("a:2");
+        sender.complete("a:3");
+
+        assertEquals(a1.get().getMessageId(), "a:1");
+        try {
+            a2.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(a3.get().getMessageId(), "a:3");
+        assertEquals(impl.getPendingCount(), 0);
+        assertEquals(impl.getActiveLaneCount(), 0);
+    }
+
+    @Test
+    public void send_lanesArePerPage() {
+        impl.send("first page", "a", textMessage("1"));
+        impl.send("second page", "a", textMessage("2"));
+
+        assertEquals(sender.sent.size(), 2);
+        assertEquals(impl.getActiveLaneCount(), 2);
+    }
+
+    @Test
+    public void send_rejectsOverCapacity() throws Exception {
+        impl = new RecipientOrderedSender(sender, 2);
+        impl.send("page", "a", textMessage("1"));
+        impl.send("page", "b", textMessage("1"));
+        CompletableFuture<MessageResponse> rejected = impl.send("page", "c", textMessage("1"));
+
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(impl.getPendingCount(), 2);
+
+        sender.complete("a:1");
+        assertFalse(impl.send("page", "c", textMessage("1")).isDone());
+    }
+
+    @Test
+    public void send_synchronousCompletionDoesNotRecurse() throws Exception {
+        CompletableFuture<MessageResponse> blocker = new CompletableFuture<>();
+        int[] calls = new int[1];
+        impl = new RecipientOrderedSender((pageAccessToken, recipientId, message) -> {
+            if (calls[0]++ == 0) {
+                return blocker;
+            }
+            return CompletableFuture.completedFuture(new MessageResponse());
+        }, 100000);
+
+        List<CompletableFuture<MessageResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            futures.add(impl.send("page", "a", textMessage(Integer.toString(i))));
+        }
+        blocker.complete(new MessageResponse());
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+        assertEquals(calls[0], 50000);
+        assertEquals(impl.getActiveLaneCount(), 0);
+    }
+}
@@ -0,0 +1,100 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.HttpResponseException;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.messageyes.facebook.messenger.bean.ErrorPayload;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.RateLimitExceededException;
+
+public class RetryPolicyTest {
+
+    private static FacebookMessengerSendException graphError(long code, Long subcode) {
+        ErrorPayload error = new ErrorPayload();
+        error.setCode(code);
+        error.setErrorSubcode(subcode);
+        error.setMessage("test error");
+        return new FacebookMessengerSendException(error);
+    }
+
+    @Test
+    public void isRetryable() {
+        RetryPolicy impl = new RetryPolicy();
+
+        assertTrue(impl.isRetryable(graphError(1200, null)));
+        assertTrue(impl.isRetryable(graphError(613, null)));
+        assertTrue(impl.isRetryable(new FacebookMessengerSendException("transport", new SocketTimeoutException())));
+        assertTrue(impl.isRetryable(new FacebookMessengerSendException("deadline", new TimeoutException())));
+        assertTrue(impl.isRetryable(new FacebookMessengerSendException("status", new HttpResponseException(503, "Service Unavailable"))));
+        assertTrue(impl.isRetryable(new CompletionException(graphError(2, null))));
+        assertTrue(impl.isRetryable(new IOException("connection reset")));
+
+        assertFalse(impl.isRetryable(graphError(100, 2018001L)));
+        assertFalse(impl.isRetryable(graphError(190, null)));
+        assertFalse(impl.isRetryable(new FacebookMessengerSendException("status", new HttpResponseException(404, "Not Found"))));
+        assertFalse(impl.isRetryable(new FacebookMessengerSendException("parse", new JsonParseException("bad json", null))));
+        assertFalse(impl.isRetryable(new RateLimitExceededException("over budget")));
+    }
+
+    @Test
+    public void isRetryableError_override() {
+        RetryPolicy impl = new RetryPolicy() {
+            @Override
+            protected boolean isRetryableError(long code, Long subcode) {
+                return code == 10 && subcode != null && subcode == 2018065L;
+            }
+        };
+
+        assertTrue(impl.isRetryable(graphError(10, 2018065L)));
+        assertFalse(impl.isRetryable(graphError(1200, null)));
+    }
+
+    @Test
+    public void nextBackoffMillis() {
+        RetryPolicy impl = new RetryPolicy(4, 100, 250, 1, 0);
+        FacebookMessengerSendException error = graphError(1200, null);
+
+        for (int i = 0; i < 5; i++) {
+            long first = impl.nextBackoffMillis(1, error);
+            assertTrue(first >= 0 && first <= 100, "first backoff " + first);
+            long second = impl.nextBackoffMillis(2, error);
+            assertTrue(second >= 0 && second <= 200, "second backoff " + second);
+            long third = impl.nextBackoffMillis(3, error);
+            assertTrue(third >= 0 && third <= 250, "third backoff " + third);
+            assertEquals(impl.nextBackoffMillis(4, error), -1);
+            impl.onSend();
+            impl.onSend();
+            impl.onSend();
+        }
+        assertEquals(impl.nextBackoffMillis(1, graphError(190, null)), -1);
+    }
+
+    @Test
+    public void nextBackoffMillis_budgetExhausted() {
+        RetryPolicy impl = new RetryPolicy(3, 0, 0, 0.5, 0);
+        FacebookMessengerSendException error = graphError(1200, null);
+
+        // The initial balance allows ten retries.
+        for (int i = 0; i < 10; i++) {
+            assertEquals(impl.nextBackoffMillis(1, error), 0);
+        }
+        assertEquals(impl.nextBackoffMillis(1, error), -1);
+
+        // Two sends at a ratio of 0.5 pay for one more retry.
+        impl.onSend();
+        assertEquals(impl.nextBackoffMillis(1, error), -1);
+        impl.onSend();
+        assertEquals(impl.nextBackoffMillis(1, error), 0);
+        assertEquals(impl.nextBackoffMillis(1, error), -1);
+    }
+}
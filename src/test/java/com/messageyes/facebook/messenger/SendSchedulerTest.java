@@ -0,0 +1,106 @@
+package com.messageyes.facebook.messenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.StubGraphApiServer.StubResponse;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.OutboundMessage;
+import com.messageyes.facebook.messenger.bean.RateLimitExceededException;
+
+public class SendSchedulerTest {
+    private static final String SUCCESS_RESPONSE = "{\"recipient_id\":\"test recipient id\",\"message_id\":\"msg-123\"}";
+
+    private StubGraphApiServer server;
+    private FacebookMessengerClient client;
+    private OutboundMessage message;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        server = new StubGraphApiServer(request -> new StubResponse(200, SUCCESS_RESPONSE));
+        client = new FacebookMessengerClient(server.getMessageEndPoint(), 5000);
+        message = new OutboundMessage();
+        message.setText("test message");
+    }
+
+    @AfterMethod
+    public void teardown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void sendOutboundMessage_queuesOverBudget() throws Exception {
+        try (SendScheduler impl = new SendScheduler(client, new KeyedRateLimiter(20, 1), 1000, 10)) {
+            CompletableFuture<MessageResponse> first = impl.sendOutboundMessage("test_page_access_token", "test recipient id", message);
+            CompletableFuture<MessageResponse> second = impl.sendOutboundMessage("test_page_access_token", "test recipient id", message);
+
+            assertEquals(impl.getQueueDepth("test_page_access_token"), 1);
+            assertEquals(impl.getQueueDepth("other_page_access_token"), 0);
+            assertEquals(impl.getQueueDepth(), 1);
+
+            assertEquals(first.get().getMessageId(), "msg-123");
+            assertEquals(second.get().getMessageId(), "msg-123");
+            assertEquals(impl.getQueueDepth(), 0);
+        }
+        assertEquals(server.getRequests().size(), 2);
+    }
+
+    @Test
+    public void sendOutboundMessage_rejectsWhenQueueFull() throws Exception {
+        try (SendScheduler impl = new SendScheduler(client, new KeyedRateLimiter(1, 1), 60000, 1)) {
+            CompletableFuture<MessageResponse> first = impl.sendOutboundMessage("test_page_access_token", "test recipient id", message);
+            CompletableFuture<MessageResponse> second = impl.sendOutboundMessage("test_page_access_token", "test recipient id", message);
+            CompletableFuture<MessageResponse> third = impl.sendOutboundMessage("test_page_access_token", "test recipient id", message);
+
+            first.get();
+            assertFalse(second.isDone());
+            assertRejected(third);
+        }
+    }
+
+    @Test
+    public void sendOutboundMessage_rejectsWithoutQueue() throws Exception {
+        try (SendScheduler impl = new SendScheduler(client, new KeyedRateLimiter(1, 1), 0, 10)) {
+            impl.sendOutboundMessage("test_page_access_token", "test recipient id", message).get();
+            assertRejected(impl.sendOutboundMessage("test_page_access_token", "test recipient id", message));
+
+            // Other pages are not affected.
+            impl.sendOutboundMessage("other_page_access_token", "test recipient id", message).get();
+        }
+    }
+
+    @Test
+    public void close_failsQueuedMessages() throws Exception {
+        SendScheduler impl = new SendScheduler(client, new KeyedRateLimiter(1, 1), 60000, 10);
+        impl.sendOutboundMessage("test_page_access_token", "test recipient id", message).get();
+        CompletableFuture<MessageResponse> queued = impl.sendOutboundMessage("test_page_access_token", "test recipient id", message);
+        assertEquals(impl.getQueueDepth(), 1);
+
+        impl.close();
+
+        assertRejected(queued);
+        assertEquals(impl.getQueueDepth("test_page_access_token"), 0);
+        assertEquals(impl.getQueueDepth(), 0);
+        assertRejected(impl.sendOutboundMessage("other_page_access_token", "test recipient id", message));
+        assertEquals(server.getRequests().size(), 1);
+    }
+
+    private static void assertRejected(CompletableFuture<MessageResponse> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RateLimitExceededException);
+        }
+    }
+}
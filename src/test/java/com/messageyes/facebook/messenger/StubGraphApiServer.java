@@ -0,0 +1,88 @@
+package com.messageyes.facebook.messenger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.Value;
+
+/**
+ * A local stand-in for the Graph API. Every request is recorded and answered by a responder
+ * function, which makes it possible to exercise the real HTTP code paths of the client in tests.
+ */
+public class StubGraphApiServer implements Closeable {
+
+    @Value
+    public static class StubRequest {
+        String method;
+        String uri;
+        String body;
+    }
+
+    @Value
+    public static class StubResponse {
+        int status;
+        String body;
+    }
+
+    private final HttpServer server;
+    private final List<StubRequest> requests = new CopyOnWriteArrayList<>();
+    private volatile Function<StubRequest, StubResponse> responder;
+
+    public StubGraphApiServer(Function<StubRequest, StubResponse> responder) throws IOException {
+        this.responder = responder;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            StubRequest request = new StubRequest(exchange.getRequestMethod(), exchange.getRequestURI().toString(),
+                IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            requests.add(request);
+
+            StubResponse response = this.responder.apply(request);
+            byte[] body = response.getBody().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(response.getStatus(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    public void setResponder(Function<StubRequest, StubResponse> responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * The base URL of the stand-in, e.g. http://127.0.0.1:12345/
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * An end point that can be passed to the {@link FacebookMessengerClient} constructor.
+     */
+    public String getMessageEndPoint() {
+        return getBaseUrl() + "me/messages?access_token=";
+    }
+
+    public List<StubRequest> getRequests() {
+        return requests;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,216 @@
+package com.messageyes.facebook.messenger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.messageyes.facebook.messenger.bean.FacebookMessengerSendException;
+import com.messageyes.facebook.messenger.bean.UserProfile;
+
+public class UserProfileCacheTest {
+    private FakeTicker ticker;
+    private FacebookMessengerClient client;
+    private UserProfileCache impl;
+
+    @BeforeMethod
+    public void setup() {
+        ticker = new FakeTicker();
+        client = mock(FacebookMessengerClient.class);
+        impl = new UserProfileCache(client, 100, 10000, 5000, ticker);
+    }
+
+    private static UserProfile profile(String firstName) {
+        UserProfile profile = new UserProfile();
+        profile.setFirstName(firstName);
+        return profile;
+    }
+
+    @Test
+    public void concurrentLookupsCoalesced() throws Exception {
+        CompletableFuture<UserProfile> lookup = new CompletableFuture<>();
+        when(client.getUserProfileAsync("token", "42")).thenReturn(lookup);
+
+        CompletableFuture<UserProfile> first = impl.getUserProfileAsync("token", "42");
+        CompletableFuture<UserProfile> second = impl.getUserProfileAsync("token", "42");
+        assertFalse(first.isDone());
+        lookup.complete(profile("Peter"));
+
+        assertEquals(first.get(), profile("Peter"));
+        assertEquals(second.get(), profile("Peter"));
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+        verify(client, times(1)).getUserProfileAsync("token", "42");
+    }
+
+    @Test
+    public void callerCannotCompleteSharedLookup() throws Exception {
+        CompletableFuture<UserProfile> lookup = new CompletableFuture<>();
+        when(client.getUserProfileAsync("token", "42")).thenReturn(lookup);
+
+        CompletableFuture<UserProfile> cancelled = impl.getUserProfileAsync("token", "42");
+        CompletableFuture<UserProfile> completed = impl.getUserProfileAsync("token", "42");
+        CompletableFuture<UserProfile> waiting = impl.getUserProfileAsync("token", "42");
+        cancelled.cancel(false);
+        completed.complete(profile("Mallory"));
+        assertFalse(lookup.isDone());
+        assertFalse(waiting.isDone());
+        lookup.complete(profile("Peter"));
+
+        assertEquals(waiting.get(), profile("Peter"));
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+        verify(client, times(1)).getUserProfileAsync("token", "42");
+    }
+
+    @Test
+    public void keyedByPageAndUser() throws Exception {
+        when(client.getUserProfileAsync("token", "42")).thenReturn(CompletableFuture.completedFuture(profile("Peter")));
+        when(client.getUserProfileAsync("other token", "42")).thenReturn(CompletableFuture.completedFuture(profile("Mary")));
+
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+        assertEquals(impl.getUserProfile("other token", "42"), profile("Mary"));
+        assertEquals(impl.size(), 2);
+    }
+
+    @Test
+    public void refreshAhead() throws Exception {
+        CompletableFuture<UserProfile> refresh = new CompletableFuture<>();
+        when(client.getUserProfileAsync("token", "42"))
+            .thenReturn(CompletableFuture.completedFuture(profile("Peter")))
+            .thenReturn(refresh);
+        impl.getUserProfile("token", "42");
+
+        ticker.advance(5000);
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+        verify(client, times(2)).getUserProfileAsync("token", "42");
+
+        refresh.complete(profile("Pete"));
+        assertEquals(impl.getUserProfile("token", "42"), profile("Pete"));
+
+        // The refreshed profile is kept for another ttlMillis.
+        ticker.advance(9000);
+        assertTrue(impl.getUserProfileAsync("token", "42").isDone());
+        verify(client, times(3)).getUserProfileAsync("token", "42");
+    }
+
+    @Test
+    public void refreshFailed_keepsProfile() throws Exception {
+        CompletableFuture<UserProfile> refresh = new CompletableFuture<>();
+        when(client.getUserProfileAsync("token", "42"))
+            .thenReturn(CompletableFuture.completedFuture(profile("Peter")))
+            .thenReturn(refresh);
+        impl.getUserProfile("token", "42");
+
+        ticker.advance(5000);
+        impl.getUserProfile("token", "42");
+        refresh.completeExceptionally(new FacebookMessengerSendException("Error getting user profile", null));
+
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+        // The next refresh waits another refreshAfterMillis.
+        ticker.advance(4999);
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+        verify(client, times(2)).getUserProfileAsync("token", "42");
+    }
+
+    @Test
+    public void refreshFailed_retriedLater() throws Exception {
+        impl = new UserProfileCache(client, 100, 60000, 5000, ticker);
+        CompletableFuture<UserProfile> refresh = new CompletableFuture<>();
+        when(client.getUserProfileAsync("token", "42"))
+            .thenReturn(CompletableFuture.completedFuture(profile("Peter")))
+            .thenReturn(refresh)
+            .thenReturn(CompletableFuture.completedFuture(profile("Pete")));
+        impl.getUserProfile("token", "42");
+
+        ticker.advance(5000);
+        impl.getUserProfile("token", "42");
+        refresh.completeExceptionally(new FacebookMessengerSendException("Error getting user profile", null));
+        ticker.advance(5000);
+        impl.getUserProfile("token", "42");
+
+        assertEquals(impl.getUserProfile("token", "42"), profile("Pete"));
+        verify(client, times(3)).getUserProfileAsync("token", "42");
+    }
+
+    @Test
+    public void expired() throws Exception {
+        when(client.getUserProfileAsync("token", "42"))
+            .thenReturn(CompletableFuture.completedFuture(profile("Peter")))
+            .thenReturn(CompletableFuture.completedFuture(profile("Pete")));
+        impl = new UserProfileCache(client, 100, 10000, 10000, ticker);
+        impl.getUserProfile("token", "42");
+
+        ticker.advance(10000);
+        assertEquals(impl.getUserProfile("token", "42"), profile("Pete"));
+    }
+
+    @Test
+    public void failedLookupNotCached() throws Exception {
+        FacebookMessengerSendException error = new FacebookMessengerSendException("Error getting user profile", null);
+        CompletableFuture<UserProfile> failed = new CompletableFuture<>();
+        failed.completeExceptionally(error);
+        CompletableFuture<UserProfile> pending = new CompletableFuture<>();
+        when(client.getUserProfileAsync("token", "42"))
+            .thenReturn(failed)
+            .thenReturn(pending)
+            .thenReturn(CompletableFuture.completedFuture(profile("Peter")));
+
+        try {
+            impl.getUserProfile("token", "42");
+            fail("FacebookMessengerSendException expected");
+        } catch (FacebookMessengerSendException e) {
+            assertSame(e, error);
+        }
+        CompletableFuture<UserProfile> second = impl.getUserProfileAsync("token", "42");
+        pending.completeExceptionally(error);
+        assertTrue(second.isCompletedExceptionally());
+
+        assertEquals(impl.getUserProfile("token", "42"), profile("Peter"));
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        when(client.getUserProfileAsync("token", "42"))
+            .thenReturn(CompletableFuture.completedFuture(profile("Peter")))
+            .thenReturn(CompletableFuture.completedFuture(profile("Pete")));
+        impl.getUserProfile("token", "42");
+
+        impl.invalidate("token", "42");
+        assertEquals(impl.getUserProfile("token", "42"), profile("Pete"));
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        impl = new UserProfileCache(client, 2, 10000, 5000, ticker);
+        for (int i = 0; i < 5; i++) {
+            when(client.getUserProfileAsync("token", Integer.toString(i))).thenReturn(CompletableFuture.completedFuture(profile("p" + i)));
+            impl.getUserProfile("token", Integer.toString(i));
+        }
+        assertTrue(impl.size() <= 2);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.messageyes.facebook.messenger.id;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class IdKeyedMapTest {
+    private IdKeyedMap<Integer> impl;
+
+    @BeforeMethod
+    public void setup() {
+        impl = new IdKeyedMap<>();
+    }
+
+    @Test
+    public void numericAndOtherIds() {
+        impl.compute("1234567890", value -> 1);
+        impl.compute("test user", value -> 2);
+        impl.compute(1234567890L, value -> value + 10);
+
+        assertEquals(impl.get("1234567890"), Integer.valueOf(11));
+        assertEquals(impl.get(1234567890L), Integer.valueOf(11));
+        assertEquals(impl.get("test user"), Integer.valueOf(2));
+        assertNull(impl.get("01234567890"));
+        assertEquals(impl.size(), 2);
+
+        impl.compute("1234567890", value -> null);
+        impl.compute("test user", value -> null);
+        assertNull(impl.get(1234567890L));
+        assertEquals(impl.size(), 0);
+    }
+
+    @Test
+    public void removeIf() {
+        for (int i = 0; i < 100; i++) {
+            impl.compute(i, value -> 0);
+            impl.compute("user " + i, value -> 1);
+        }
+
+        impl.removeIf(value -> value == 1);
+
+        assertEquals(impl.size(), 100);
+        assertNull(impl.get("user 1"));
+        assertEquals(impl.get(99), Integer.valueOf(0));
+    }
+
+    @Test
+    public void compute_concurrent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    impl.compute(i % 100, value -> value == null ? 1 : value + 1);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(impl.get(i), Integer.valueOf(400));
+        }
+    }
+}
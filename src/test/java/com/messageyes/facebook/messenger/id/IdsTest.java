@@ -0,0 +1,39 @@
+package com.messageyes.facebook.messenger.id;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+public class IdsTest {
+
+    @Test
+    public void parse() {
+        assertEquals(Ids.parse("1234567890123456"), 1234567890123456L);
+        assertEquals(Ids.parse("0"), 0);
+        assertEquals(Ids.parse("999999999999999999"), 999999999999999999L);
+        assertEquals(Ids.parse("x1234".toCharArray(), 1, 3), 123);
+    }
+
+    @Test
+    public void parse_notNumeric() {
+        assertEquals(Ids.parse((String) null), Ids.NO_ID);
+        assertEquals(Ids.parse(""), Ids.NO_ID);
+        assertEquals(Ids.parse("test sender id"), Ids.NO_ID);
+        assertEquals(Ids.parse("-1"), Ids.NO_ID);
+        assertEquals(Ids.parse("+1"), Ids.NO_ID);
+        assertEquals(Ids.parse("0123"), Ids.NO_ID);
+        assertEquals(Ids.parse("12a"), Ids.NO_ID);
+        assertEquals(Ids.parse("1000000000000000000"), Ids.NO_ID);
+        assertEquals(Ids.parse("x12 4".toCharArray(), 1, 4), Ids.NO_ID);
+    }
+
+    @Test
+    public void toString_roundTrip() {
+        assertEquals(Ids.toString(Ids.parse("1234567890123456")), "1234567890123456");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void toString_noId() {
+        Ids.toString(Ids.NO_ID);
+    }
+}
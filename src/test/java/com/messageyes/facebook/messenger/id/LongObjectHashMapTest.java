@@ -0,0 +1,84 @@
+package com.messageyes.facebook.messenger.id;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class LongObjectHashMapTest {
+    private LongObjectHashMap<String> impl;
+
+    @BeforeMethod
+    public void setup() {
+        impl = new LongObjectHashMap<>();
+    }
+
+    @Test
+    public void putGetRemove() {
+        assertNull(impl.put(1, "one"));
+        assertNull(impl.put(-5, "minus five"));
+        assertEquals(impl.put(1, "uno"), "one");
+
+        assertEquals(impl.size(), 2);
+        assertEquals(impl.get(1), "uno");
+        assertEquals(impl.get(-5), "minus five");
+        assertNull(impl.get(2));
+        assertTrue(impl.containsKey(1));
+
+        assertEquals(impl.remove(1), "uno");
+        assertNull(impl.remove(1));
+        assertFalse(impl.containsKey(1));
+        assertEquals(impl.size(), 1);
+
+        impl.clear();
+        assertTrue(impl.isEmpty());
+        assertNull(impl.get(-5));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // A small key range makes collisions, removals and re-insertions frequent.
+            long key = random.nextInt(2000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(impl.remove(key), expected.remove(key));
+            } else {
+                String value = Integer.toString(i);
+                assertEquals(impl.put(key, value), expected.put(key, value));
+            }
+        }
+
+        assertEquals(impl.size(), expected.size());
+        Map<Long, String> actual = new HashMap<>();
+        impl.forEach((key, value) -> actual.put(key, value));
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void removeIf() {
+        Map<Long, String> expected = new HashMap<>();
+        for (long key = 0; key < 5000; key++) {
+            impl.put(key * 7, Long.toString(key));
+            if (key % 3 != 0) {
+                expected.put(key * 7, Long.toString(key));
+            }
+        }
+
+        assertEquals(impl.removeIf((key, value) -> key % 3 == 0), 1667);
+
+        assertEquals(impl.size(), expected.size());
+        for (Map.Entry<Long, String> entry : expected.entrySet()) {
+            assertEquals(impl.get(entry.getKey()), entry.getValue());
+        }
+        assertNull(impl.get(0));
+    }
+}
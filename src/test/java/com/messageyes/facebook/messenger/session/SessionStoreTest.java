@@ -0,0 +1,199 @@
+package com.messageyes.facebook.messenger.session;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.LongSupplier;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SessionStoreTest {
+    private static final long PAGE_ID = 1234567890L;
+
+    private FakeClock clock;
+    private SessionStoreConfig config;
+
+    @BeforeMethod
+    public void setup() {
+        clock = new FakeClock();
+        config = new SessionStoreConfig();
+        config.setSegments(4);
+        config.setSlotsPerSegment(64);
+        config.setTtlMillis(1000);
+    }
+
+    private static Session session(String flowStep) {
+        Session session = new Session();
+        session.setFlowStep(flowStep);
+        return session;
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        try (SessionStore impl = new SessionStore(config, clock)) {
+            Session session = new Session();
+            session.setFlowStep("ask-size");
+            session.setLastPostbackPayload("BUY_\u00e9");
+            session.setLastEventTimestamp(1458692752478L);
+            impl.put("1234567890", "42", session);
+
+            assertEquals(impl.get(PAGE_ID, 42), session);
+            assertEquals(impl.get("1234567890", "42"), session);
+            assertNull(impl.get(PAGE_ID, 43));
+            assertNull(impl.get(PAGE_ID + 1, 42));
+            assertEquals(impl.size(), 1);
+
+            impl.put(PAGE_ID, 42, session("pay"));
+            assertEquals(impl.get(PAGE_ID, 42), session("pay"));
+            assertEquals(impl.size(), 1);
+
+            assertTrue(impl.remove(PAGE_ID, 42));
+            assertFalse(impl.remove(PAGE_ID, 42));
+            assertNull(impl.get(PAGE_ID, 42));
+            assertEquals(impl.size(), 0);
+        }
+    }
+
+    @Test
+    public void ttl() throws Exception {
+        try (SessionStore impl = new SessionStore(config, clock)) {
+            impl.put(PAGE_ID, 1, session("a"));
+            impl.put(PAGE_ID, 2, session("b"));
+            clock.advance(600);
+            impl.put(PAGE_ID, 2, session("c"));
+            clock.advance(400);
+
+            assertNull(impl.get(PAGE_ID, 1));
+            assertEquals(impl.get(PAGE_ID, 2), session("c"));
+
+            clock.advance(600);
+            assertEquals(impl.size(), 1);
+            assertEquals(impl.evictExpired(), 1);
+            assertEquals(impl.size(), 0);
+        }
+    }
+
+    @Test
+    public void evictExpired_manySessions() throws Exception {
+        try (SessionStore impl = new SessionStore(config, clock)) {
+            for (long userId = 0; userId < 100; userId++) {
+                impl.put(PAGE_ID, userId, session("s" + userId));
+                if (userId == 49) {
+                    clock.advance(500);
+                }
+            }
+            clock.advance(500);
+
+            assertEquals(impl.evictExpired(), 50);
+            for (long userId = 0; userId < 100; userId++) {
+                assertEquals(impl.get(PAGE_ID, userId), userId < 50 ? null : session("s" + userId));
+            }
+        }
+    }
+
+    @Test
+    public void full_evictsClosestToExpiring() throws Exception {
+        config.setSegments(1);
+        config.setSlotsPerSegment(16);
+        try (SessionStore impl = new SessionStore(config, clock)) {
+            for (long userId = 0; userId < 12; userId++) {
+                impl.put(PAGE_ID, userId, session("s" + userId));
+                clock.advance(10);
+            }
+            impl.put(PAGE_ID, 100, session("new"));
+
+            assertEquals(impl.size(), 12);
+            assertNull(impl.get(PAGE_ID, 0));
+            assertEquals(impl.get(PAGE_ID, 100), session("new"));
+            for (long userId = 1; userId < 12; userId++) {
+                assertNotNull(impl.get(PAGE_ID, userId));
+            }
+        }
+    }
+
+    @Test
+    public void compute() throws Exception {
+        try (SessionStore impl = new SessionStore(config, clock)) {
+            assertEquals(impl.compute(PAGE_ID, 1, session -> {
+                assertNull(session);
+                return session("start");
+            }), session("start"));
+
+            impl.compute(PAGE_ID, 1, session -> {
+                session.setQuickReplyContext("RED");
+                return session;
+            });
+            Session expected = session("start");
+            expected.setQuickReplyContext("RED");
+            assertEquals(impl.get(PAGE_ID, 1), expected);
+
+            assertNull(impl.compute(PAGE_ID, 1, session -> null));
+            assertNull(impl.get(PAGE_ID, 1));
+            assertEquals(impl.size(), 0);
+        }
+    }
+
+    @Test
+    public void persistence() throws Exception {
+        Path file = Files.createTempFile("sessions", ".bin");
+        Files.delete(file);
+        config.setFile(file);
+        try {
+            try (SessionStore impl = new SessionStore(config, clock)) {
+                impl.put(PAGE_ID, 1, session("kept"));
+                impl.put(PAGE_ID, 2, session("removed"));
+                impl.remove(PAGE_ID, 2);
+            }
+            try (SessionStore impl = new SessionStore(config, clock)) {
+                assertEquals(impl.size(), 1);
+                assertEquals(impl.get(PAGE_ID, 1), session("kept"));
+                assertNull(impl.get(PAGE_ID, 2));
+            }
+
+            config.setSlotsPerSegment(128);
+            try {
+                new SessionStore(config, clock).close();
+                throw new AssertionError("expected a layout mismatch");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("different layout"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void put_tooLarge() throws Exception {
+        config.setMaxSessionBytes(16);
+        try (SessionStore impl = new SessionStore(config, clock)) {
+            impl.put(PAGE_ID, 1, session("a flow step that does not fit"));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void get_notNumeric() throws Exception {
+        try (SessionStore impl = new SessionStore(config, clock)) {
+            impl.get("page id", "42");
+        }
+    }
+
+    private static class FakeClock implements LongSupplier {
+        private long millis = 1458692752478L;
+
+        @Override
+        public long getAsLong() {
+            return millis;
+        }
+
+        void advance(long millis) {
+            this.millis += millis;
+        }
+    }
+}
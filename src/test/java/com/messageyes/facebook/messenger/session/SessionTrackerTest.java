@@ -0,0 +1,114 @@
+package com.messageyes.facebook.messenger.session;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.bean.InboundMessage;
+import com.messageyes.facebook.messenger.bean.InboundPayload;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.bean.User;
+
+public class SessionTrackerTest {
+    private SessionStore store;
+    private List<Messaging> received;
+    private SessionTracker impl;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        SessionStoreConfig config = new SessionStoreConfig();
+        config.setSegments(2);
+        config.setSlotsPerSegment(16);
+        store = new SessionStore(config);
+        received = new ArrayList<>();
+        impl = new SessionTracker(store, received::add);
+    }
+
+    @AfterMethod
+    public void teardown() throws Exception {
+        store.close();
+    }
+
+    private static Messaging messaging(String senderId, String recipientId, Long timestamp) {
+        User sender = new User();
+        sender.setId(senderId);
+        User recipient = new User();
+        recipient.setId(recipientId);
+        Messaging messaging = new Messaging();
+        messaging.setSender(sender);
+        messaging.setRecipient(recipient);
+        messaging.setTimestamp(timestamp);
+        return messaging;
+    }
+
+    private static InboundPayload payload(String payload) {
+        InboundPayload inboundPayload = new InboundPayload();
+        inboundPayload.setPayload(payload);
+        return inboundPayload;
+    }
+
+    @Test
+    public void postbackAndQuickReply() {
+        Messaging postback = messaging("42", "100", 1L);
+        postback.setPostback(payload("GET_STARTED"));
+        impl.accept(postback);
+
+        Messaging quickReply = messaging("42", "100", 2L);
+        InboundMessage message = new InboundMessage();
+        message.setMid("mid.1");
+        message.setQuickReply(payload("RED"));
+        quickReply.setMessage(message);
+        impl.accept(quickReply);
+
+        Session expected = new Session();
+        expected.setLastPostbackPayload("GET_STARTED");
+        expected.setQuickReplyContext("RED");
+        expected.setLastEventTimestamp(2L);
+        assertEquals(store.get("100", "42"), expected);
+        assertEquals(received.size(), 2);
+    }
+
+    @Test
+    public void passedOnUntouched() {
+        Messaging delivery = messaging("42", "100", null);
+        delivery.setDelivery(new StatusUpdate());
+        impl.accept(delivery);
+
+        Messaging notNumeric = messaging("sender", "100", 1L);
+        notNumeric.setPostback(payload("GET_STARTED"));
+        impl.accept(notNumeric);
+
+        assertNull(store.get("100", "42"));
+        assertEquals(store.size(), 0);
+        assertEquals(received.size(), 2);
+    }
+
+    @Test
+    public void oversizedPayloadPassedOn() {
+        Messaging postback = messaging("42", "100", 1L);
+        postback.setPostback(payload("GET_STARTED"));
+        impl.accept(postback);
+
+        StringBuilder large = new StringBuilder();
+        while (large.length() <= new SessionStoreConfig().getMaxSessionBytes()) {
+            large.append("PAYLOAD_");
+        }
+        Messaging oversized = messaging("42", "100", 2L);
+        oversized.setPostback(payload(large.toString()));
+        impl.accept(oversized);
+
+        Session expected = new Session();
+        expected.setLastPostbackPayload("GET_STARTED");
+        expected.setLastEventTimestamp(1L);
+        assertEquals(store.get("100", "42"), expected);
+        assertEquals(received.size(), 2);
+        assertEquals(received.get(1), oversized);
+    }
+}
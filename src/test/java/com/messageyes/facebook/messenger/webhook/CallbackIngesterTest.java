@@ -0,0 +1,114 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.bean.Messaging;
+
+public class CallbackIngesterTest {
+    private static final String APP_SECRET_KEY = "test app secret key";
+    private static final String CALLBACK =
+        "{\"object\":\"page\",\"entry\":[{\"id\":\"page id\",\"time\":123456789,\"messaging\":[" +
+          "{\"sender\":{\"id\":\"first sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":1,\"message\":{\"mid\":\"mid.1\",\"text\":\"first\"}}," +
+          "{\"sender\":{\"id\":\"second sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":2,\"message\":{\"mid\":\"mid.2\",\"text\":\"second\"}}" +
+        "]}]}";
+
+    private CallbackIngester impl;
+    private List<Messaging> events;
+
+    @BeforeMethod
+    public void setup() {
+        impl = new CallbackIngester(APP_SECRET_KEY);
+        events = new ArrayList<>();
+    }
+
+    private static String sign(String body) {
+        return "sha1=" + Hex.encodeHexString(HmacUtils.hmacSha1(APP_SECRET_KEY.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void ingest_accepted() throws Exception {
+        assertEquals(impl.ingest(sign(CALLBACK), stream(CALLBACK), events::add), IngestResult.ACCEPTED);
+
+        assertEquals(events.size(), 2);
+        assertEquals(events.get(0).getMessage().getText(), "first");
+        assertEquals(events.get(1).getMessage().getText(), "second");
+    }
+
+    @Test
+    public void ingest_trailingBytesAreSigned() throws Exception {
+        String body = CALLBACK + "\n\n   ";
+
+        assertEquals(impl.ingest(sign(body), stream(body), events::add), IngestResult.ACCEPTED);
+        assertEquals(impl.ingest(sign(CALLBACK), stream(body), events::add), IngestResult.INVALID_SIGNATURE);
+        assertEquals(events.size(), 2);
+    }
+
+    @Test
+    public void ingest_invalidSignature() throws Exception {
+        String tampered = CALLBACK.replace("first", "forged");
+
+        assertEquals(impl.ingest(sign(CALLBACK), stream(tampered), events::add), IngestResult.INVALID_SIGNATURE);
+        assertEquals(impl.ingest("sha1=not a signature", stream(CALLBACK), events::add), IngestResult.INVALID_SIGNATURE);
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void ingest_notPageObject() throws Exception {
+        String body = CALLBACK.replace("\"page\",", "\"user\",");
+
+        assertEquals(impl.ingest(sign(body), stream(body), events::add), IngestResult.NOT_PAGE_OBJECT);
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void ingest_notJSON() throws Exception {
+        String body = "{\"object\":\"page\",\"entry\":[{\"messaging\":[{\"sender\":";
+
+        // Unsigned garbage is reported as such, without hinting at what is wrong with it.
+        assertEquals(impl.ingest(sign("other"), stream(body), events::add), IngestResult.INVALID_SIGNATURE);
+        try {
+            impl.ingest(sign(body), stream(body), events::add);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void ingest_readFails() throws Exception {
+        InputStream body = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+
+        try {
+            impl.ingest(sign(CALLBACK), body, events::add);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "connection reset");
+        }
+        // The next request on the thread starts from a clean signature.
+        assertEquals(impl.ingest(sign(CALLBACK), stream(CALLBACK), events::add), IngestResult.ACCEPTED);
+    }
+}
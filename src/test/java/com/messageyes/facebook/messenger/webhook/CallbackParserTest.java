@@ -0,0 +1,143 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.bean.Messaging;
+
+public class CallbackParserTest {
+    private static final String ENTRIES =
+        "\"entry\":[" +
+          "{\"id\":\"page id\",\"time\":123456789,\"unknown\":{\"messaging\":[1]},\"messaging\":[" +
+            "{\"sender\":{\"id\":\"first sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":1," +
+              "\"message\":{\"mid\":\"mid.1\",\"seq\":1,\"text\":\"first\"}}," +
+            "{\"sender\":{\"id\":\"second sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":2," +
+              "\"postback\":{\"payload\":\"GET_STARTED\"}}" +
+          "]}," +
+          "null," +
+          "{\"id\":\"page id\",\"time\":123456790,\"messaging\":[" +
+            "{\"sender\":{\"id\":\"first sender\"},\"recipient\":{\"id\":\"page id\"}," +
+              "\"delivery\":{\"mids\":[\"mid.1\"],\"watermark\":1,\"seq\":2}}" +
+          "]}" +
+        "]";
+
+    private static final String CALLBACK = "{\"object\":\"page\"," + ENTRIES + "}";
+
+    private CallbackParser impl;
+    private List<Messaging> events;
+
+    @BeforeMethod
+    public void setup() {
+        impl = new CallbackParser();
+        events = new ArrayList<>();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void assertEvents() {
+        assertEquals(events.size(), 3);
+        assertEquals(events.get(0).getSender().getId(), "first sender");
+        assertEquals(events.get(0).getMessage().getText(), "first");
+        assertEquals(events.get(1).getSender().getId(), "second sender");
+        assertEquals(events.get(1).getPostback().getPayload(), "GET_STARTED");
+        assertEquals(events.get(2).getDelivery().getWatermark().longValue(), 1L);
+        assertNull(events.get(2).getTimestamp());
+    }
+
+    @Test
+    public void parse_inputStream() throws Exception {
+        boolean[] closed = new boolean[1];
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes(CALLBACK)) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+
+        assertTrue(impl.parse(in, events::add));
+        assertEvents();
+        assertFalse(closed[0]);
+    }
+
+    @Test
+    public void parse_byteArray() throws Exception {
+        assertTrue(impl.parse(bytes(CALLBACK), events::add));
+        assertEvents();
+    }
+
+    @Test
+    public void parse_byteArraySlice() throws Exception {
+        byte[] callback = bytes("xx" + CALLBACK + "yy");
+
+        assertTrue(impl.parse(callback, 2, callback.length - 4, events::add));
+        assertEvents();
+    }
+
+    @Test
+    public void parse_byteBuffer() throws Exception {
+        ByteBuffer heap = ByteBuffer.wrap(bytes("xx" + CALLBACK));
+        heap.position(2);
+        assertTrue(impl.parse(heap.slice(), events::add));
+        assertEvents();
+        assertEquals(heap.position(), 2);
+
+        events.clear();
+        ByteBuffer direct = ByteBuffer.allocateDirect(CALLBACK.length());
+        direct.put(bytes(CALLBACK)).flip();
+        assertTrue(impl.parse(direct, events::add));
+        assertEvents();
+        assertEquals(direct.position(), 0);
+    }
+
+    @Test
+    public void parse_notPageObject() throws Exception {
+        // The rest of the callback is not even read.
+        assertFalse(impl.parse(bytes("{\"object\":\"user\"," + ENTRIES + ", not json"), events::add));
+        assertFalse(impl.parse(bytes("{\"object\":{\"page\":1}," + ENTRIES + "}"), events::add));
+        assertFalse(impl.parse(bytes("{" + ENTRIES + "}"), events::add));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void parse_objectAfterEntries() throws Exception {
+        assertFalse(impl.parse(bytes("{" + ENTRIES + ",\"object\":\"user\"}"), events::add));
+        assertTrue(events.isEmpty());
+
+        assertTrue(impl.parse(bytes("{" + ENTRIES + ",\"object\":\"page\"}"), events::add));
+        assertEvents();
+    }
+
+    @Test
+    public void parse_noEntries() throws Exception {
+        assertTrue(impl.parse(bytes("{\"object\":\"page\"}"), events::add));
+        assertTrue(impl.parse(bytes("{\"object\":\"page\",\"entry\":[{\"id\":\"page id\"}]}"), events::add));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void parse_notJSON() throws Exception {
+        for (String callback : new String[] {"not json", "[]", "{\"object\":\"page\"," + ENTRIES.substring(0, 150)}) {
+            try {
+                impl.parse(bytes(callback), events::add);
+                fail("IOException expected for " + callback);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+public class CallbackRecorderTest {
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private Path log;
+    private FakeTicker ticker;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        log = Files.createTempFile("callbacks", ".log");
+        Files.delete(log);
+        ticker = new FakeTicker();
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        Files.deleteIfExists(log);
+    }
+
+    private static String toString(ByteBuffer body) {
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void recordAndRead() throws IOException {
+        try (CallbackRecorder recorder = new CallbackRecorder(log, ticker)) {
+            recorder.record("sha1=abc", "{\"first\":1}".getBytes(StandardCharsets.UTF_8));
+            ticker.advance(25);
+            ByteBuffer body = ByteBuffer.wrap("xx{\"second\":2}".getBytes(StandardCharsets.UTF_8));
+            body.position(2);
+            recorder.record(null, body);
+            assertEquals(body.position(), 2);
+            recorder.record("sha1=def", new byte[0]);
+        }
+
+        try (CallbackLogReader reader = new CallbackLogReader(log)) {
+            assertTrue(reader.next());
+            assertEquals(reader.getArrivalNanos(), 0);
+            assertEquals(reader.getSignature(), "sha1=abc");
+            assertEquals(toString(reader.getBody()), "{\"first\":1}");
+            // Each view can be read on its own.
+            assertEquals(toString(reader.getBody()), "{\"first\":1}");
+
+            assertTrue(reader.next());
+            assertEquals(reader.getArrivalNanos(), TimeUnit.MILLISECONDS.toNanos(25));
+            assertNull(reader.getSignature());
+            assertEquals(toString(reader.getBody()), "{\"second\":2}");
+
+            assertTrue(reader.next());
+            assertEquals(reader.getBody().remaining(), 0);
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void appendToExistingLog() throws IOException {
+        try (CallbackRecorder recorder = new CallbackRecorder(log, ticker)) {
+            recorder.record("sha1=abc", new byte[] { 1 });
+        }
+        try (CallbackRecorder recorder = new CallbackRecorder(log, ticker)) {
+            recorder.record("sha1=def", new byte[] { 2 });
+        }
+
+        try (CallbackLogReader reader = new CallbackLogReader(log)) {
+            assertTrue(reader.next());
+            assertEquals(reader.getSignature(), "sha1=abc");
+            assertTrue(reader.next());
+            assertEquals(reader.getSignature(), "sha1=def");
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void read_truncatedRecord() throws IOException {
+        try (CallbackRecorder recorder = new CallbackRecorder(log, ticker)) {
+            recorder.record("sha1=abc", "{\"first\":1}".getBytes(StandardCharsets.UTF_8));
+            recorder.record("sha1=def", "{\"second\":2}".getBytes(StandardCharsets.UTF_8));
+        }
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (CallbackLogReader reader = new CallbackLogReader(log)) {
+            assertTrue(reader.next());
+            assertEquals(reader.getSignature(), "sha1=abc");
+            assertFalse(reader.next());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void read_notCaptureLog() throws IOException {
+        Files.write(log, "not a capture log".getBytes(StandardCharsets.UTF_8));
+
+        new CallbackLogReader(log).close();
+    }
+}
@@ -0,0 +1,154 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.messageyes.facebook.messenger.FacebookMessengerClient;
+import com.messageyes.facebook.messenger.bean.ReplayReport;
+
+public class CallbackReplayerTest {
+    private static final String APP_SECRET_KEY = "test app secret key";
+    private static final String CALLBACK =
+        "{\"object\":\"page\",\"entry\":[{\"id\":\"page id\",\"messaging\":[" +
+        "{\"sender\":{\"id\":\"sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":1,\"message\":{\"mid\":\"mid.1\",\"text\":\"hi\"}}]}]}";
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private Path log;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        log = Files.createTempFile("callbacks", ".log");
+        Files.delete(log);
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        Files.deleteIfExists(log);
+    }
+
+    private static String sign(String body) {
+        return "sha1=" + Hex.encodeHexString(HmacUtils.hmacSha1(APP_SECRET_KEY.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Records the given number of requests, the given time apart.
+     */
+    private void record(int count, long intervalMillis) throws IOException {
+        FakeTicker ticker = new FakeTicker();
+        try (CallbackRecorder recorder = new CallbackRecorder(log, ticker)) {
+            for (int i = 0; i < count; i++) {
+                recorder.record(sign(CALLBACK), CALLBACK.getBytes(StandardCharsets.UTF_8));
+                ticker.advance(intervalMillis);
+            }
+        }
+    }
+
+    @Test
+    public void replay_maximumSpeed() throws IOException {
+        record(1000, 1000);
+        List<String> bodies = new ArrayList<>();
+
+        ReplayReport report = new CallbackReplayer((signature, body) -> {
+            byte[] bytes = new byte[body.remaining()];
+            body.get(bytes);
+            bodies.add(new String(bytes, StandardCharsets.UTF_8));
+            return bodies.size() % 10 != 0;
+        }).replay(log, CallbackReplayer.MAXIMUM_SPEED);
+
+        assertEquals(bodies.size(), 1000);
+        assertEquals(bodies.get(999), CALLBACK);
+        assertEquals(report.getRequestCount(), 1000);
+        assertEquals(report.getFailedCount(), 100);
+        // 1000 requests recorded a second apart replay in far less than their recorded 1000 seconds.
+        assertTrue(report.getElapsedNanos() < TimeUnit.SECONDS.toNanos(10));
+        assertTrue(report.getRequestsPerSecond() > 0);
+        assertTrue(report.getP50LatencyNanos() <= report.getP90LatencyNanos());
+        assertTrue(report.getP90LatencyNanos() <= report.getP99LatencyNanos());
+        assertTrue(report.getP99LatencyNanos() <= report.getP999LatencyNanos());
+        assertTrue(report.getP999LatencyNanos() <= report.getMaxLatencyNanos());
+    }
+
+    @Test
+    public void replay_recordedSpacing() throws IOException {
+        record(5, 50);
+        List<Long> fedAt = new ArrayList<>();
+
+        ReplayReport report = new CallbackReplayer((signature, body) -> fedAt.add(System.nanoTime())).replay(log, 2);
+
+        assertEquals(report.getRequestCount(), 5);
+        // 200ms of recorded traffic at twice the speed.
+        assertTrue(fedAt.get(4) - fedAt.get(0) >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(report.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void replay_verifyAndParse() throws IOException {
+        record(3, 0);
+        try (CallbackRecorder recorder = new CallbackRecorder(log)) {
+            recorder.record(sign(CALLBACK + " "), CALLBACK.getBytes(StandardCharsets.UTF_8));
+            recorder.record(null, CALLBACK.getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (FacebookMessengerClient client = new FacebookMessengerClient()) {
+            ReplayReport report = new CallbackReplayer(CallbackReplayer.verifyAndParse(client, APP_SECRET_KEY)).replay(log, 1);
+
+            assertEquals(report.getRequestCount(), 5);
+            assertEquals(report.getFailedCount(), 2);
+        }
+    }
+
+    @Test
+    public void replay_failingTarget() throws IOException {
+        record(2, 0);
+
+        ReplayReport report = new CallbackReplayer((signature, body) -> {
+            throw new IllegalStateException("test");
+        }).replay(log, CallbackReplayer.MAXIMUM_SPEED);
+
+        assertEquals(report.getFailedCount(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void replay_invalidSpeed() throws IOException {
+        record(1, 0);
+
+        new CallbackReplayer((signature, body) -> true).replay(log, 0);
+    }
+
+    @Test
+    public void replay_emptyLog() throws IOException {
+        new CallbackRecorder(log).close();
+
+        ReplayReport report = new CallbackReplayer((signature, body) -> true).replay(log, 1);
+
+        assertEquals(report.getRequestCount(), 0);
+        assertEquals(report.getMaxLatencyNanos(), 0);
+    }
+}
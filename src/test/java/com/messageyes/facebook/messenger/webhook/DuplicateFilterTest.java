@@ -0,0 +1,191 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.messageyes.facebook.messenger.bean.InboundMessage;
+import com.messageyes.facebook.messenger.bean.InboundPayload;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.bean.User;
+
+public class DuplicateFilterTest {
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private FakeTicker ticker;
+    private List<Messaging> passed;
+    private DuplicateFilter impl;
+
+    @BeforeMethod
+    public void setup() {
+        ticker = new FakeTicker();
+        passed = new ArrayList<>();
+        impl = new DuplicateFilter(passed::add, 1000, 60000, ticker);
+    }
+
+    private static Messaging messaging(String senderId, Long timestamp) {
+        User sender = new User();
+        sender.setId(senderId);
+        User recipient = new User();
+        recipient.setId("page id");
+        Messaging messaging = new Messaging();
+        messaging.setSender(sender);
+        messaging.setRecipient(recipient);
+        messaging.setTimestamp(timestamp);
+        return messaging;
+    }
+
+    private static Messaging message(String mid) {
+        Messaging messaging = messaging("sender", 1L);
+        InboundMessage message = new InboundMessage();
+        message.setMid(mid);
+        messaging.setMessage(message);
+        return messaging;
+    }
+
+    private static Messaging delivery(String senderId, long watermark, long seq) {
+        Messaging messaging = messaging(senderId, null);
+        StatusUpdate delivery = new StatusUpdate();
+        delivery.setWatermark(watermark);
+        delivery.setSeq(seq);
+        messaging.setDelivery(delivery);
+        return messaging;
+    }
+
+    private static Messaging postback(String senderId, Long timestamp, String payload) {
+        Messaging messaging = messaging(senderId, timestamp);
+        InboundPayload postback = new InboundPayload();
+        postback.setPayload(payload);
+        messaging.setPostback(postback);
+        return messaging;
+    }
+
+    @Test
+    public void accept_dropsRedeliveredEvents() {
+        impl.accept(message("mid.1"));
+        impl.accept(message("mid.2"));
+        impl.accept(message("mid.1"));
+        impl.accept(delivery("sender", 10, 3));
+        impl.accept(delivery("sender", 10, 3));
+        impl.accept(delivery("sender", 10, 4));
+        impl.accept(delivery("other sender", 10, 3));
+        impl.accept(postback("sender", 5L, "GET_STARTED"));
+        impl.accept(postback("sender", 5L, "GET_STARTED"));
+        impl.accept(postback("sender", 6L, "GET_STARTED"));
+
+        assertEquals(passed.size(), 7);
+        assertEquals(impl.getUniqueCount(), 7);
+        assertEquals(impl.getDuplicateCount(), 3);
+    }
+
+    @Test
+    public void accept_unkeyedEventsPass() {
+        impl.accept(message(null));
+        impl.accept(message(null));
+        impl.accept(postback("sender", null, "GET_STARTED"));
+        impl.accept(postback("sender", null, "GET_STARTED"));
+        impl.accept(messaging("sender", 1L));
+
+        assertEquals(passed.size(), 5);
+        assertEquals(impl.getUnkeyedCount(), 5);
+    }
+
+    @Test
+    public void isDuplicate_window() {
+        assertFalse(impl.isDuplicate(message("mid.1")));
+        ticker.advance(59999);
+        assertTrue(impl.isDuplicate(message("mid.1")));
+
+        // Rotated into the previous generation, still remembered.
+        ticker.advance(1);
+        assertFalse(impl.isDuplicate(message("mid.2")));
+        assertTrue(impl.isDuplicate(message("mid.1")));
+
+        // Dropped with the previous generation.
+        ticker.advance(60000);
+        assertFalse(impl.isDuplicate(message("mid.3")));
+        assertFalse(impl.isDuplicate(message("mid.1")));
+        assertTrue(impl.isDuplicate(message("mid.2")));
+        assertEquals(impl.getEarlyRotationCount(), 0);
+    }
+
+    @Test
+    public void isDuplicate_earlyRotation() {
+        impl = new DuplicateFilter(passed::add, 16, 60000, ticker);
+        for (int i = 0; i < 8; i++) {
+            assertFalse(impl.isDuplicate(message("mid." + i)));
+        }
+        assertEquals(impl.getEarlyRotationCount(), 0);
+
+        assertFalse(impl.isDuplicate(message("mid.8")));
+        assertEquals(impl.getEarlyRotationCount(), 1);
+        assertTrue(impl.isDuplicate(message("mid.0")));
+        assertTrue(impl.isDuplicate(message("mid.8")));
+    }
+
+    @Test
+    public void isDuplicate_concurrent() throws Exception {
+        impl = new DuplicateFilter(passed::add, 1 << 16, 60000);
+        AtomicInteger unique = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int thread = 0; thread < 4; thread++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 5000; i++) {
+                        if (!impl.isDuplicate(message("mid." + i))) {
+                            unique.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(unique.get(), 5000);
+        assertEquals(impl.getDuplicateCount(), 15000);
+    }
+
+    @Test
+    public void fingerprint() {
+        assertEquals(DuplicateFilter.fingerprint(message("mid.1")), DuplicateFilter.fingerprint(message("mid.1")));
+        assertNotEquals(DuplicateFilter.fingerprint(message("mid.1")), DuplicateFilter.fingerprint(message("mid.2")));
+        // Values cannot run into each other.
+        assertNotEquals(DuplicateFilter.fingerprint(postback("ab", 1L, "c")), DuplicateFilter.fingerprint(postback("a", 1L, "bc")));
+    }
+}
@@ -0,0 +1,187 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.messageyes.facebook.messenger.bean.InboundMessage;
+import com.messageyes.facebook.messenger.bean.InboundPayload;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.Optin;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.bean.User;
+
+public class EventDispatcherTest {
+    private EventDispatcher impl;
+
+    @AfterMethod
+    public void teardown() {
+        if (impl != null) {
+            impl.close();
+        }
+    }
+
+    private static Messaging messaging(String senderId) {
+        User sender = new User();
+        sender.setId(senderId);
+        User recipient = new User();
+        recipient.setId("page id");
+        Messaging messaging = new Messaging();
+        messaging.setSender(sender);
+        messaging.setRecipient(recipient);
+        return messaging;
+    }
+
+    private static Messaging message(String senderId, String text) {
+        Messaging messaging = messaging(senderId);
+        InboundMessage message = new InboundMessage();
+        message.setText(text);
+        messaging.setMessage(message);
+        return messaging;
+    }
+
+    private static InboundPayload payload(String value) {
+        InboundPayload payload = new InboundPayload();
+        payload.setPayload(value);
+        return payload;
+    }
+
+    private static void awaitIdle(EventDispatcher dispatcher) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(dispatcher.getPendingCount(), 0);
+    }
+
+    @Test
+    public void dispatch_typedHandlers() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        impl = new EventDispatcher(2, 100)
+            .onMessage((messaging, message) -> handled.add("message " + message.getText()))
+            .onQuickReply((messaging, quickReply) -> handled.add("quick reply " + quickReply.getPayload()))
+            .onPostback((messaging, postback) -> handled.add("postback " + postback.getPayload()))
+            .onOptin((messaging, optin) -> handled.add("optin " + optin.getRef()))
+            .onDelivery((messaging, delivery) -> handled.add("delivery " + delivery.getWatermark()))
+            .onRead((messaging, read) -> handled.add("read " + read.getWatermark()));
+
+        Messaging quickReply = message("sender", "yes");
+        quickReply.getMessage().setQuickReply(payload("YES"));
+        Messaging postback = messaging("sender");
+        postback.setPostback(payload("GET_STARTED"));
+        Messaging optin = messaging("sender");
+        optin.setOptin(new Optin());
+        optin.getOptin().setRef("ref");
+        Messaging delivery = messaging("sender");
+        delivery.setDelivery(new StatusUpdate());
+        delivery.getDelivery().setWatermark(1L);
+        Messaging read = messaging("sender");
+        read.setRead(new StatusUpdate());
+        read.getRead().setWatermark(2L);
+
+        for (Messaging messaging : new Messaging[] {message("sender", "hi"), quickReply, postback, optin, delivery, read}) {
+            impl.dispatch(messaging);
+        }
+        awaitIdle(impl);
+
+        assertEquals(handled, ImmutableList.of("message hi", "quick reply YES", "postback GET_STARTED", "optin ref", "delivery 1", "read 2"));
+    }
+
+    @Test
+    public void dispatch_fallbacks() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        impl = new EventDispatcher(1, 100)
+            .onMessage((messaging, message) -> handled.add("message " + message.getText()))
+            .onUnhandled((messaging, event) -> handled.add("unhandled " + messaging.getSender().getId()));
+
+        Messaging quickReply = message("first", "yes");
+        quickReply.getMessage().setQuickReply(payload("YES"));
+        Messaging postback = messaging("second");
+        postback.setPostback(payload("GET_STARTED"));
+
+        impl.accept(quickReply);
+        impl.accept(postback);
+        impl.accept(messaging("third"));
+        awaitIdle(impl);
+
+        assertEquals(handled, ImmutableList.of("message yes", "unhandled second", "unhandled third"));
+    }
+
+    @Test
+    public void dispatch_perSenderOrder() throws Exception {
+        Map<String, List<String>> handled = new ConcurrentHashMap<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        impl = new EventDispatcher(4, 50).onMessage((messaging, message) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            if (message.getText().endsWith("0")) {
+                Thread.sleep(1);
+            }
+            handled.computeIfAbsent(messaging.getSender().getId(), k -> Collections.synchronizedList(new ArrayList<>())).add(message.getText());
+            running.decrementAndGet();
+        });
+
+        for (int i = 0; i < 200; i++) {
+            for (int sender = 0; sender < 10; sender++) {
+                impl.dispatch(message("sender" + sender, String.valueOf(i)));
+            }
+        }
+        awaitIdle(impl);
+
+        assertEquals(handled.size(), 10);
+        for (List<String> texts : handled.values()) {
+            assertEquals(texts.size(), 200);
+            for (int i = 0; i < 200; i++) {
+                assertEquals(texts.get(i), String.valueOf(i));
+            }
+        }
+        assertTrue(maxRunning.get() > 1, "events of different senders were not handled in parallel");
+        assertEquals(impl.getActiveLaneCount(), 0);
+    }
+
+    @Test
+    public void dispatch_backpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        impl = new EventDispatcher(2, 2).onMessage((messaging, message) -> release.await());
+
+        assertTrue(impl.tryDispatch(message("first", "1"), 0, TimeUnit.MILLISECONDS));
+        assertTrue(impl.tryDispatch(message("second", "1"), 0, TimeUnit.MILLISECONDS));
+        assertFalse(impl.tryDispatch(message("third", "1"), 20, TimeUnit.MILLISECONDS));
+        assertEquals(impl.getPendingCount(), 2);
+
+        release.countDown();
+        assertTrue(impl.tryDispatch(message("third", "1"), 5, TimeUnit.SECONDS));
+        awaitIdle(impl);
+    }
+
+    @Test
+    public void dispatch_handlerFailure() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        impl = new EventDispatcher(1, 10).onMessage((messaging, message) -> {
+            if (message.getText().equals("bad")) {
+                throw new IllegalStateException("handler failed");
+            }
+            handled.add(message.getText());
+        });
+
+        impl.dispatch(message("sender", "bad"));
+        impl.dispatch(message("sender", "good"));
+        awaitIdle(impl);
+
+        assertEquals(handled, ImmutableList.of("good"));
+    }
+}
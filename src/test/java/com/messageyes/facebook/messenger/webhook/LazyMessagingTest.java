@@ -0,0 +1,99 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.messageyes.facebook.messenger.bean.Callback;
+import com.messageyes.facebook.messenger.bean.Messaging;
+
+public class LazyMessagingTest {
+    private static final String MESSAGE_EVENT =
+        "{\"sender\":{\"id\":\"first sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":1," +
+        "\"message\":{\"mid\":\"mid.1\",\"seq\":5,\"text\":\"hello\",\"quick_reply\":{\"payload\":\"yes\"}," +
+        "\"attachments\":[{\"type\":\"image\",\"payload\":{\"url\":\"http://example.com/a.png\"}}]}}";
+    private static final String POSTBACK_EVENT =
+        "{\"sender\":{\"id\":\"second sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":2,\"postback\":{\"payload\":\"start\"}}";
+    private static final String READ_EVENT =
+        "{\"sender\":{\"id\":\"third sender\"},\"recipient\":{\"id\":\"page id\"},\"read\":{\"watermark\":3,\"seq\":4}}";
+    private static final String CALLBACK =
+        "{\"object\":\"page\",\"entry\":[{\"id\":\"page id\",\"time\":1,\"messaging\":[" +
+        MESSAGE_EVENT + "," + POSTBACK_EVENT + "," + READ_EVENT + "]}]}";
+
+    private List<LazyMessaging> events;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        events = new ArrayList<>();
+        assertTrue(new RawEventScanner().scanLazily(CALLBACK.getBytes(StandardCharsets.UTF_8), events::add));
+        assertEquals(events.size(), 3);
+    }
+
+    @Test
+    public void headerFields() {
+        LazyMessaging event = events.get(0);
+
+        assertEquals(event.getPageId(), "page id");
+        assertEquals(event.getSenderId(), "first sender");
+        assertEquals(event.getRecipientId(), "page id");
+        assertEquals(event.getTimestamp(), Long.valueOf(1));
+        assertEquals(event.toString(), MESSAGE_EVENT);
+    }
+
+    @Test
+    public void message() {
+        LazyMessaging event = events.get(0);
+
+        assertTrue(event.hasMessage());
+        assertFalse(event.hasPostback());
+        assertEquals(event.getMessage().getText(), "hello");
+        assertEquals(event.getMessage().getQuickReply().getPayload(), "yes");
+        assertEquals(event.getMessage().getAttachments().size(), 1);
+        assertSame(event.getMessage(), event.getMessage());
+        assertNull(event.getPostback());
+        assertNull(event.getRead());
+    }
+
+    @Test
+    public void postbackAndRead() {
+        LazyMessaging postback = events.get(1);
+        LazyMessaging read = events.get(2);
+
+        assertFalse(postback.hasMessage());
+        assertNull(postback.getMessage());
+        assertEquals(postback.getPostback().getPayload(), "start");
+        assertTrue(read.hasRead());
+        assertEquals(read.getRead().getWatermark(), Long.valueOf(3));
+        assertNull(read.getTimestamp());
+    }
+
+    @Test
+    public void toMessaging_matchesEagerDeserialization() throws IOException {
+        List<Messaging> expected = new ObjectMapper().readValue(CALLBACK, Callback.class).getEntry().get(0).getMessaging();
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(events.get(i).toMessaging(), expected.get(i));
+        }
+    }
+
+    @Test(expectedExceptions = UncheckedIOException.class)
+    public void getMessage_wrongStructure() throws IOException {
+        String callback = "{\"object\":\"page\",\"entry\":[{\"messaging\":[{\"message\":{\"seq\":\"not a number\"}}]}]}";
+        events.clear();
+        new RawEventScanner().scanLazily(callback.getBytes(StandardCharsets.UTF_8), events::add);
+
+        events.get(0).getMessage();
+    }
+}
@@ -0,0 +1,149 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.id.Ids;
+
+public class RawEventScannerTest {
+    private static final String FIRST_EVENT =
+        "{\"sender\":{\"id\":\"first sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":1," +
+        "\"message\":{\"mid\":\"mid.1\",\"text\":\"h\u00e9llo \\u00e9 {[\\\"}\",\"attachments\":[{\"type\":\"image\",\"payload\":{\"url\":\"u\"}}]}}";
+    private static final String SECOND_EVENT =
+        "{ \"delivery\" : { \"watermark\" : 2, \"seq\" : 3 }, \"sender\" : { \"name\" : \"x\", \"id\" : \"second sender\" } }";
+    private static final String CALLBACK =
+        "{\"object\":\"page\",\"entry\":[" +
+          "{\"id\":\"first page\",\"time\":1,\"messaging\":[" + FIRST_EVENT + "]}," +
+          "{\"messaging\":[ " + SECOND_EVENT + " ],\"id\":\"second page\"}" +
+        "]}";
+
+    private RawEventScanner impl;
+    private List<RawEvent> events;
+
+    @BeforeMethod
+    public void setup() {
+        impl = new RawEventScanner();
+        events = new ArrayList<>();
+    }
+
+    private void assertEvents() {
+        assertEquals(events.size(), 2);
+
+        RawEvent first = events.get(0);
+        assertEquals(first.getPageId(), "first page");
+        assertEquals(first.getSenderId(), "first sender");
+        assertEquals(first.getTimestamp(), Long.valueOf(1));
+        assertEquals(first.toString(), FIRST_EVENT);
+
+        RawEvent second = events.get(1);
+        assertEquals(second.getPageId(), "second page");
+        assertEquals(second.getSenderId(), "second sender");
+        assertNull(second.getTimestamp());
+        assertEquals(second.toString(), SECOND_EVENT);
+    }
+
+    @Test
+    public void scan() throws IOException {
+        assertTrue(impl.scan(CALLBACK.getBytes(StandardCharsets.UTF_8), events::add));
+
+        assertEvents();
+    }
+
+    @Test
+    public void scan_slice() throws IOException {
+        byte[] padded = ("xyz" + CALLBACK + "xyz").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(impl.scan(padded, 3, padded.length - 6, events::add));
+
+        assertEvents();
+        assertTrue(events.get(0).getArray() == padded);
+    }
+
+    @Test
+    public void scan_byteBuffer() throws IOException {
+        byte[] bytes = CALLBACK.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        assertTrue(impl.scan(direct, events::add));
+
+        assertEvents();
+        assertEquals(direct.position(), 0);
+    }
+
+    @Test
+    public void scan_objectAfterEntries() throws IOException {
+        String callback = "{\"entry\":[{\"id\":\"page\",\"messaging\":[" + FIRST_EVENT + "]}],\"object\":\"page\"}";
+
+        assertTrue(impl.scan(callback.getBytes(StandardCharsets.UTF_8), events::add));
+
+        assertEquals(events.size(), 1);
+        assertEquals(events.get(0).toString(), FIRST_EVENT);
+    }
+
+    @Test
+    public void scan_notPageObject() throws IOException {
+        String callback = "{\"object\":\"user\",\"entry\":[{\"id\":\"page\",\"messaging\":[" + FIRST_EVENT + "]}]}";
+
+        assertFalse(impl.scan(callback.getBytes(StandardCharsets.UTF_8), events::add));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void scan_numericIds() throws IOException {
+        String callback = "{\"object\":\"page\",\"entry\":[{\"id\":\"1000000001\",\"messaging\":[" +
+            "{\"sender\":{\"id\":\"1234567890123456\"},\"recipient\":{\"id\":1000000001},\"timestamp\":1}]}]}";
+
+        assertTrue(impl.scanLazily(callback.getBytes(StandardCharsets.UTF_8), events::add));
+
+        LazyMessaging event = (LazyMessaging) events.get(0);
+        assertEquals(event.getPageLongId(), 1000000001L);
+        assertEquals(event.getPageId(), "1000000001");
+        assertEquals(event.getSenderLongId(), 1234567890123456L);
+        assertEquals(event.getSenderId(), "1234567890123456");
+        assertEquals(event.getRecipientLongId(), 1000000001L);
+        assertEquals(event.toMessaging().getSender().getLongId(), 1234567890123456L);
+    }
+
+    @Test
+    public void scan_otherIds() throws IOException {
+        scan();
+
+        assertEquals(events.get(0).getSenderLongId(), Ids.NO_ID);
+        assertEquals(events.get(0).getPageLongId(), Ids.NO_ID);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void scan_notJSON() throws IOException {
+        impl.scan("not json".getBytes(StandardCharsets.UTF_8), events::add);
+    }
+
+    @Test
+    public void rawEvent_views() throws IOException {
+        impl.scan(CALLBACK.getBytes(StandardCharsets.UTF_8), events::add);
+        RawEvent event = events.get(0);
+        byte[] expected = FIRST_EVENT.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(event.toByteArray(), expected);
+        ByteBuffer buffer = event.asByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] fromBuffer = new byte[buffer.remaining()];
+        buffer.get(fromBuffer);
+        assertEquals(fromBuffer, expected);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        event.writeTo(out);
+        assertEquals(out.toByteArray(), expected);
+    }
+}
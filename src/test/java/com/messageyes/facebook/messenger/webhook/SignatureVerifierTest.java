@@ -0,0 +1,94 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SignatureVerifierTest {
+    private static final String APP_SECRET_KEY = "test app secret key";
+    private static final String SIGNATURE = "sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f3";
+    private static final byte[] BODY = "matching request body".getBytes(StandardCharsets.UTF_8);
+
+    private SignatureVerifier impl;
+
+    @BeforeMethod
+    public void setup() {
+        impl = new SignatureVerifier(APP_SECRET_KEY);
+    }
+
+    @Test
+    public void isValid_byteArray() {
+        assertTrue(impl.isValid(SIGNATURE, BODY));
+        assertTrue(impl.isValid(SIGNATURE.toUpperCase().replace("SHA1=", "sha1="), BODY));
+        assertFalse(impl.isValid(SIGNATURE, "mismatching request body".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void isValid_byteArraySlice() {
+        byte[] padded = ("xx" + new String(BODY, StandardCharsets.UTF_8) + "yy").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(impl.isValid(SIGNATURE, padded, 2, BODY.length));
+        assertFalse(impl.isValid(SIGNATURE, padded, 1, BODY.length));
+    }
+
+    @Test
+    public void isValid_byteBuffer() {
+        ByteBuffer heap = ByteBuffer.wrap(BODY);
+        assertTrue(impl.isValid(SIGNATURE, heap));
+        assertEquals(heap.position(), 0);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(BODY.length);
+        direct.put(BODY).flip();
+        assertTrue(impl.isValid(SIGNATURE, direct));
+        assertEquals(direct.position(), 0);
+    }
+
+    @Test
+    public void isValid_malformedSignature() {
+        assertFalse(impl.isValid("e50ffabcd617e2e693ba706b9b02e6931cf931f3", BODY));
+        assertFalse(impl.isValid("sha256=e50ffabcd617e2e693ba706b9b02e6931cf9", BODY));
+        assertFalse(impl.isValid("sha1=e50ffabcd617e2e693ba706b9b02e6931cf931f", BODY));
+        assertFalse(impl.isValid("sha1=e50ffabcd617e2e693ba706b9b02e6931cf931fg", BODY));
+        assertFalse(impl.isValid("sha1=e50ffabcd617e2e693ba706b9b02e6931cf931\u0663\u0663", BODY));
+        assertFalse(impl.isValid("", BODY));
+        // A failed check does not affect the next one on the same thread.
+        assertTrue(impl.isValid(SIGNATURE, BODY));
+    }
+
+    @Test
+    public void isValid_concurrent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Boolean>> checks = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                byte[] body = ("request body " + i).getBytes(StandardCharsets.UTF_8);
+                String signature = "sha1=" + Hex.encodeHexString(HmacUtils.hmacSha1(APP_SECRET_KEY.getBytes(StandardCharsets.UTF_8), body));
+                checks.add(() -> impl.isValid(signature, body));
+            }
+            for (Future<Boolean> result : executor.invokeAll(checks)) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void blankKey() {
+        new SignatureVerifier(" ");
+    }
+}
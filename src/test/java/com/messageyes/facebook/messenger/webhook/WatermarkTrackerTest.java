@@ -0,0 +1,185 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.messageyes.facebook.messenger.bean.MessageResponse;
+import com.messageyes.facebook.messenger.bean.Messaging;
+import com.messageyes.facebook.messenger.bean.StatusUpdate;
+import com.messageyes.facebook.messenger.bean.User;
+
+public class WatermarkTrackerTest {
+    private WatermarkTracker impl;
+
+    @BeforeMethod
+    public void setup() {
+        impl = new WatermarkTracker(60000, 100);
+    }
+
+    private static Messaging statusUpdate(String senderId, Long watermark, boolean read, String... mids) {
+        User sender = new User();
+        sender.setId(senderId);
+        Messaging messaging = new Messaging();
+        messaging.setSender(sender);
+        StatusUpdate statusUpdate = new StatusUpdate();
+        statusUpdate.setWatermark(watermark);
+        if (mids.length > 0) {
+            statusUpdate.setMids(Arrays.asList(mids));
+        }
+        if (read) {
+            messaging.setRead(statusUpdate);
+        } else {
+            messaging.setDelivery(statusUpdate);
+        }
+        return messaging;
+    }
+
+    private static Messaging delivery(String senderId, long watermark) {
+        return statusUpdate(senderId, watermark, false);
+    }
+
+    private static Messaging read(String senderId, long watermark) {
+        return statusUpdate(senderId, watermark, true);
+    }
+
+    @Test
+    public void resolve_watermarks() {
+        for (int i = 1; i <= 5; i++) {
+            impl.record("user", "mid." + i, i * 100);
+        }
+        impl.record("other user", "mid.other", 100);
+
+        assertEquals(impl.resolve(delivery("user", 250)), ImmutableList.of("mid.1", "mid.2"));
+        assertEquals(impl.resolve(delivery("user", 250)), ImmutableList.of());
+        assertEquals(impl.resolve(delivery("user", 300)), ImmutableList.of("mid.3"));
+
+        assertEquals(impl.resolve(read("user", 100)), ImmutableList.of("mid.1"));
+        assertEquals(impl.resolve(read("user", 400)), ImmutableList.of("mid.2", "mid.3", "mid.4"));
+        // Read implies delivered.
+        assertEquals(impl.resolve(delivery("user", 400)), ImmutableList.of());
+        assertEquals(impl.resolve(delivery("user", 500)), ImmutableList.of("mid.5"));
+        assertEquals(impl.getMessageCount("user"), 1);
+        assertEquals(impl.getMessageCount("other user"), 1);
+    }
+
+    @Test
+    public void resolve_numericIds() {
+        impl.record(1234567890123456L, "mid.1", 100);
+        impl.record("1234567890123456", "mid.2", 200);
+
+        assertEquals(impl.getMessageCount("1234567890123456"), 2);
+        assertEquals(impl.resolve(read("1234567890123456", 200)), ImmutableList.of("mid.1", "mid.2"));
+    }
+
+    @Test
+    public void resolve_outOfOrderRecords() {
+        impl.record("user", "mid.3", 300);
+        impl.record("user", "mid.1", 100);
+        impl.record("user", "mid.2", 200);
+
+        assertEquals(impl.resolve(read("user", 250)), ImmutableList.of("mid.1", "mid.2"));
+    }
+
+    @Test
+    public void resolve_deliveryBeforeRecord() {
+        impl.record("user", "mid.1", 100);
+        assertEquals(impl.resolve(delivery("user", 250)), ImmutableList.of("mid.1"));
+
+        // The send response of mid.2 comes in after the delivery that covers it.
+        impl.record("user", "mid.2", 200);
+        impl.record("user", "mid.3", 300);
+        assertEquals(impl.resolve(delivery("user", 250)), ImmutableList.of("mid.2"));
+        assertEquals(impl.resolve(delivery("user", 300)), ImmutableList.of("mid.3"));
+
+        impl.record("user", "mid.4", 250);
+        assertEquals(impl.resolve(delivery("user", 400)), ImmutableList.of("mid.4"));
+
+        // A read reports it instead, without a later delivery.
+        impl.record("user", "mid.5", 350);
+        assertEquals(impl.resolve(read("user", 400)), ImmutableList.of("mid.1", "mid.2", "mid.4", "mid.3", "mid.5"));
+        assertEquals(impl.resolve(delivery("user", 400)), ImmutableList.of());
+    }
+
+    @Test
+    public void resolve_deliveryWithMids() {
+        impl.record("user", "mid.1", 100);
+
+        assertEquals(impl.resolve(statusUpdate("user", 100L, false, "mid.1")), ImmutableList.of("mid.1"));
+    }
+
+    @Test
+    public void resolve_otherEvents() {
+        impl.record("user", "mid.1", 100);
+
+        assertTrue(impl.resolve(delivery("unknown user", 100)).isEmpty());
+        assertTrue(impl.resolve(statusUpdate("user", null, true)).isEmpty());
+        assertTrue(impl.resolve(new Messaging()).isEmpty());
+    }
+
+    @Test
+    public void record_capsMessagesPerRecipient() {
+        impl = new WatermarkTracker(60000, 3);
+        for (int i = 1; i <= 50; i++) {
+            impl.record("user", "mid." + i, i);
+        }
+
+        assertEquals(impl.getMessageCount("user"), 3);
+        assertEquals(impl.resolve(read("user", 50)), ImmutableList.of("mid.48", "mid.49", "mid.50"));
+    }
+
+    @Test
+    public void record_manyMessages() {
+        impl = new WatermarkTracker(60000, 10000);
+        for (int i = 1; i <= 1000; i++) {
+            impl.record("user", "mid." + i, i);
+            if (i % 10 == 0) {
+                assertEquals(impl.resolve(read("user", i - 5)).size(), i == 10 ? 5 : 10);
+            }
+        }
+        assertEquals(impl.getMessageCount("user"), 5);
+    }
+
+    private static MessageResponse response(String recipientId, String messageId) {
+        MessageResponse response = new MessageResponse();
+        response.setRecipientId(recipientId);
+        response.setMessageId(messageId);
+        return response;
+    }
+
+    @Test
+    public void trackUsesSendStart() throws Exception {
+        CompletableFuture<MessageResponse> send = new CompletableFuture<>();
+        CompletableFuture<MessageResponse> tracked = impl.track(() -> send);
+        // Facebook accepted the message before the response came back.
+        long watermark = System.currentTimeMillis();
+        Thread.sleep(10);
+        assertEquals(impl.getMessageCount("user"), 0);
+
+        send.complete(response("user", "mid.1"));
+
+        assertEquals(tracked.get().getMessageId(), "mid.1");
+        assertEquals(impl.resolve(delivery("user", watermark)), ImmutableList.of("mid.1"));
+    }
+
+    @Test
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        impl.record("user", "mid.old", now - 120000);
+        impl.record("user", "mid.new", now);
+        impl.record("inactive user", "mid.old", now - 120000);
+        impl.record(response("third user", "mid.third"), now);
+
+        impl.evictExpired();
+
+        assertEquals(impl.getRecipientCount(), 2);
+        assertEquals(impl.getMessageCount("user"), 1);
+        assertEquals(impl.resolve(delivery("third user", System.currentTimeMillis())), ImmutableList.of("mid.third"));
+    }
+}
@@ -0,0 +1,215 @@
+package com.messageyes.facebook.messenger.webhook;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.messageyes.facebook.messenger.FacebookMessengerClient;
+import com.messageyes.facebook.messenger.bean.Callback;
+
+public class WebhookServerTest {
+    private static final String APP_SECRET_KEY = "test app secret key";
+    private static final String VERIFY_TOKEN = "test verify token";
+
+    private FacebookMessengerClient client;
+    private WebhookServerConfig config;
+    private WebhookServer impl;
+
+    @BeforeMethod
+    public void setup() {
+        client = new FacebookMessengerClient();
+        config = new WebhookServerConfig();
+        config.setHost("127.0.0.1");
+        config.setPort(0);
+        config.setVerifyToken(VERIFY_TOKEN);
+        config.setAppSecretKey(APP_SECRET_KEY);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        if (impl != null) {
+            impl.close();
+        }
+        client.close();
+    }
+
+    private static String callback(String mid) {
+        return "{\"object\":\"page\",\"entry\":[{\"id\":\"page id\",\"time\":1,\"messaging\":[" +
+            "{\"sender\":{\"id\":\"sender\"},\"recipient\":{\"id\":\"page id\"},\"timestamp\":1,\"message\":{\"mid\":\"" + mid + "\",\"text\":\"hi\"}}]}]}";
+    }
+
+    private static String sign(String body) {
+        return "sha1=" + Hex.encodeHexString(HmacUtils.hmacSha1(APP_SECRET_KEY.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private HttpURLConnection connect(String pathAndQuery) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + impl.getPort() + pathAndQuery).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private int post(String body, String signature) throws IOException {
+        HttpURLConnection connection = connect("/webhook");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (signature != null) {
+            connection.setRequestProperty("X-Hub-Signature", signature);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection.getResponseCode();
+    }
+
+    private String getMid(Callback callback) {
+        return callback.getEntry().get(0).getMessaging().get(0).getMessage().getMid();
+    }
+
+    @Test
+    public void challenge() throws Exception {
+        impl = new WebhookServer(client, config);
+
+        HttpURLConnection connection = connect("/webhook?hub.mode=subscribe&hub.verify_token=test+verify+token&hub.challenge=1158201444");
+        assertEquals(connection.getResponseCode(), 200);
+        try (InputStream in = connection.getInputStream()) {
+            assertEquals(IOUtils.toString(in, StandardCharsets.UTF_8), "1158201444");
+        }
+
+        assertEquals(connect("/webhook?hub.mode=subscribe&hub.verify_token=wrong&hub.challenge=1").getResponseCode(), 403);
+        assertEquals(connect("/webhook?hub.mode=unsubscribe&hub.verify_token=test+verify+token&hub.challenge=1").getResponseCode(), 403);
+        assertEquals(connect("/webhook").getResponseCode(), 403);
+        assertEquals(connect("/webhook/other").getResponseCode(), 404);
+    }
+
+    @Test
+    public void callback_queued() throws Exception {
+        impl = new WebhookServer(client, config);
+
+        String body = callback("mid.1");
+        assertEquals(post(body, sign(body)), 200);
+
+        assertEquals(getMid(impl.getQueue().take()), "mid.1");
+        assertEquals(impl.getAcceptedCount(), 1);
+    }
+
+    @Test
+    public void callback_invalid() throws Exception {
+        impl = new WebhookServer(client, config);
+
+        String body = callback("mid.1");
+        assertEquals(post(body, null), 403);
+        assertEquals(post(body, sign(body + " ")), 403);
+        String notPage = "{\"object\":\"user\",\"entry\":[]}";
+        assertEquals(post(notPage, sign(notPage)), 400);
+        assertEquals(post("not json", sign("not json")), 400);
+
+        assertTrue(impl.getQueue().isEmpty());
+        assertEquals(impl.getInvalidCount(), 4);
+    }
+
+    @Test
+    public void callback_tooLarge() throws Exception {
+        config.setMaxBodyBytes(100);
+        impl = new WebhookServer(client, config);
+
+        String body = callback("mid.1");
+        assertEquals(post(body, sign(body)), 413);
+        assertTrue(impl.getQueue().isEmpty());
+    }
+
+    @Test
+    public void overflow_reject() throws Exception {
+        config.setQueueCapacity(1);
+        impl = new WebhookServer(client, config);
+
+        String first = callback("mid.1");
+        String second = callback("mid.2");
+        assertEquals(post(first, sign(first)), 200);
+        assertEquals(post(second, sign(second)), 503);
+
+        assertEquals(impl.getQueue().size(), 1);
+        assertEquals(getMid(impl.getQueue().take()), "mid.1");
+        assertEquals(impl.getRejectedCount(), 1);
+    }
+
+    @Test
+    public void overflow_dropNewest() throws Exception {
+        config.setQueueCapacity(1);
+        config.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        impl = new WebhookServer(client, config);
+
+        String first = callback("mid.1");
+        String second = callback("mid.2");
+        assertEquals(post(first, sign(first)), 200);
+        assertEquals(post(second, sign(second)), 200);
+
+        assertEquals(impl.getQueue().size(), 1);
+        assertEquals(getMid(impl.getQueue().take()), "mid.1");
+        assertEquals(impl.getDroppedCount(), 1);
+    }
+
+    @Test
+    public void overflow_dropOldest() throws Exception {
+        config.setQueueCapacity(1);
+        config.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        impl = new WebhookServer(client, config);
+
+        String first = callback("mid.1");
+        String second = callback("mid.2");
+        assertEquals(post(first, sign(first)), 200);
+        assertEquals(post(second, sign(second)), 200);
+
+        assertEquals(impl.getQueue().size(), 1);
+        assertEquals(getMid(impl.getQueue().take()), "mid.2");
+        assertEquals(impl.getDroppedCount(), 1);
+    }
+
+    @Test
+    public void callback_recorded() throws Exception {
+        Path log = Files.createTempFile("callbacks", ".log");
+        Files.delete(log);
+        try (CallbackRecorder recorder = new CallbackRecorder(log)) {
+            config.setRecorder(recorder);
+            impl = new WebhookServer(client, config);
+
+            String body = callback("mid.1");
+            assertEquals(post(body, sign(body)), 200);
+            assertEquals(post(body, null), 403);
+        }
+
+        try (CallbackLogReader reader = new CallbackLogReader(log)) {
+            assertTrue(reader.next());
+            assertEquals(reader.getSignature(), sign(callback("mid.1")));
+            assertEquals(reader.getBody().remaining(), callback("mid.1").length());
+            assertTrue(reader.next());
+            assertNull(reader.getSignature());
+            assertFalse(reader.next());
+        } finally {
+            Files.delete(log);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void constructor_missingVerifyToken() throws Exception {
+        config.setVerifyToken(null);
+        impl = new WebhookServer(client, config);
+    }
+}